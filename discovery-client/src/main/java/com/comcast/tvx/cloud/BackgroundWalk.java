@@ -0,0 +1,290 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.x.discovery.details.InstanceSerializer;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the registry with Curator background operations only, the asynchronous counterpart of the
+ * traversal of {@link DiscoveryClient}.  Subtrees are pruned by the filter segments, instance nodes
+ * are the leaves a {@link PathFilter} matches, and the walk completes once the last read is answered.
+ * Reads are no longer issued once the future is done, e.g. cancelled or timed out.
+ *
+ * <p>Below "**" only leaves holding data are instances, the nodes of services or zones left empty
+ * once their instances deregistered are not.  Counting reads no payloads: below a filter without
+ * "**" the instances of a service are the children of its node, counted from the node's
+ * {@link Stat#getNumChildren()}, and leaves are told by their {@link Stat#getDataLength()}.  A
+ * count may be limited to a number of reads, and fails with a
+ * {@link DiscoveryClient.BudgetExceededException} once they are spent.</p>
+ */
+final class BackgroundWalk {
+
+    private static Logger logger = LoggerFactory.getLogger(BackgroundWalk.class);
+
+    private final CuratorFramework curatorFramework;
+    private final InstanceSerializer<MetaData> serializer;
+
+    /** Completed when finding, null when counting. */
+    private final CompletableFuture<Map<String, MetaData>> found;
+
+    /** Completed when counting, null when finding. */
+    private final CompletableFuture<Long> counted;
+
+    /** Whether counting stops at the first instance. */
+    private final boolean any;
+
+    /** Guarded by itself, callbacks may run on different threads. */
+    private final Map<String, MetaData> instances = new TreeMap<String, MetaData>();
+
+    private final AtomicLong count = new AtomicLong();
+
+    /** Reads issued and not yet answered, plus one while starting. */
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    /** Reads the walk may issue, 0 for no limit, and the reads issued so far. */
+    private final int budget;
+    private final AtomicInteger operations = new AtomicInteger();
+
+    private BackgroundWalk(CuratorFramework curatorFramework, InstanceSerializer<MetaData> serializer, boolean counting,
+            boolean any, int budget) {
+        this.curatorFramework = curatorFramework;
+        this.serializer = serializer;
+        this.found = counting ? null : new CompletableFuture<Map<String, MetaData>>();
+        this.counted = counting ? new CompletableFuture<Long>() : null;
+        this.any = any;
+        this.budget = budget;
+    }
+
+    /**
+     * @param curatorFramework a started curator framework
+     * @param serializer deserializer of the instance nodes
+     * @param basePath the base path
+     * @param filters the filters, as given to {@link DiscoveryClient#withCriteria(String)}
+     * @return a future of a sorted map of full paths to payload.
+     */
+    static CompletableFuture<Map<String, MetaData>> start(CuratorFramework curatorFramework,
+            InstanceSerializer<MetaData> serializer, String basePath, List<String> filters) {
+        BackgroundWalk walk = new BackgroundWalk(curatorFramework, serializer, false, false, 0);
+        walk.walk(basePath, filters);
+
+        return walk.found;
+    }
+
+    /**
+     * @param curatorFramework a started curator framework
+     * @param basePath the base path
+     * @param filters the filters, as given to {@link DiscoveryClient#withCriteria(String)}
+     * @param any true to stop at the first instance, the count is then 0 or 1
+     * @param budget reads the count may issue, 0 for no limit
+     * @return a future of the number of instances.
+     */
+    static CompletableFuture<Long> count(CuratorFramework curatorFramework, String basePath, List<String> filters,
+            boolean any, int budget) {
+        BackgroundWalk walk = new BackgroundWalk(curatorFramework, null, true, any, budget);
+        walk.walk(basePath, filters);
+
+        return walk.counted;
+    }
+
+    private void walk(String basePath, List<String> filters) {
+        for (String filter : filters) {
+            WalkFilter parsed = new WalkFilter(basePath, filter);
+
+            children(parsed, parsed.getStart(), parsed.getStartIndex());
+        }
+        done();
+    }
+
+    /*
+     * Read the children of path, whose own children are at the given filter segment index.
+     */
+    private void children(final WalkFilter filter, final String path, final int index) {
+        if (!charge(path)) {
+            return;
+        }
+
+        pending.incrementAndGet();
+        try {
+            curatorFramework.getChildren().inBackground((client, event) -> {
+                onChildren(filter, path, index, event);
+            }).forPath(path);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void onChildren(WalkFilter filter, String path, int index, CuratorEvent event) {
+        if (ok(event)) {
+            List<String> children = event.getChildren();
+
+            if (children.isEmpty()) {
+                if (filter.matches(path) && (event.getStat() != null) && (event.getStat().getDataLength() > 0)) {
+                    if (counted != null) {
+                        add(1);
+                    } else {
+                        data(path);
+                    }
+                }
+            } else {
+                for (String child : children) {
+                    if (!filter.descends(child, index)) {
+                        continue;
+                    }
+                    if ((index == filter.getServiceIndex()) && (counted != null)) {
+                        // A service, count its instances without listing them.
+                        numChildren(path + "/" + child);
+                        continue;
+                    }
+                    if ((filter.getServiceIndex() >= 0) && (index == filter.getServiceIndex() + 1)) {
+                        // An instance, a leaf, no need to list its children.
+                        data(path + "/" + child);
+                        continue;
+                    }
+                    children(filter, path + "/" + child, index + 1);
+                }
+            }
+        }
+        done();
+    }
+
+    private void numChildren(final String path) {
+        if (!charge(path)) {
+            return;
+        }
+
+        pending.incrementAndGet();
+        try {
+            curatorFramework.checkExists().inBackground((client, event) -> {
+                if (ok(event)) {
+                    add(event.getStat().getNumChildren());
+                }
+                done();
+            }).forPath(path);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void add(long instances) {
+        if ((count.addAndGet(instances) > 0) && any) {
+            counted.complete(1L);
+        }
+    }
+
+    private void data(final String path) {
+        if (!charge(path)) {
+            return;
+        }
+
+        pending.incrementAndGet();
+        try {
+            curatorFramework.getData().inBackground((client, event) -> {
+                onData(path, event);
+            }).forPath(path);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void onData(String path, CuratorEvent event) {
+        if (ok(event) && (event.getData() != null) && (event.getData().length > 0)) {
+            try {
+                MetaData metaData = serializer.deserialize(event.getData()).getPayload();
+
+                synchronized (instances) {
+                    instances.put(path, metaData);
+                }
+            } catch (Exception e) {
+                // Not an instance, like an empty node to the traversal.
+                logger.debug("Skipping " + path + ", not an instance: " + e.getMessage());
+            }
+        }
+        done();
+    }
+
+    /*
+     * True if the read succeeded, false if the node is gone meanwhile, the walk fails otherwise.
+     */
+    private boolean ok(CuratorEvent event) {
+        KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+
+        if (code == KeeperException.Code.OK) {
+            return true;
+        }
+        if (code != KeeperException.Code.NONODE) {
+            fail(KeeperException.create(code, event.getPath()));
+        }
+
+        return false;
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() > 0) {
+            return;
+        }
+
+        if (counted != null) {
+            counted.complete(count.get());
+        } else {
+            synchronized (instances) {
+                found.complete(new TreeMap<String, MetaData>(instances));
+            }
+        }
+    }
+
+    /*
+     * True if a read of the path may be issued, false once the walk is done or, with the walk
+     * failed, its budget spent.
+     */
+    private boolean charge(String path) {
+        if (isDone()) {
+            return false;
+        }
+        if ((budget > 0) && (operations.incrementAndGet() > budget)) {
+            fail(new DiscoveryClient.BudgetExceededException("Budget of " + budget + " operations spent before "
+                    + path));
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean isDone() {
+        return (counted != null) ? counted.isDone() : found.isDone();
+    }
+
+    private void fail(Throwable error) {
+        if (counted != null) {
+            counted.completeExceptionally(error);
+        } else {
+            found.completeExceptionally(error);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable, sorted map of full instance paths to payload, stored in columns instead of one
+ * String and one {@link MetaData} per instance.  Path segments, addresses, service names and
+ * parameters are interned in a dictionary shared by all instances, and ports, worker ids and
+ * registration times are kept in primitive arrays.  Instance ids of the usual address:port form
+ * are not stored at all but rebuilt from the address and port.
+ *
+ * <p>Keys and payloads are built on first access: the String of a path and a MetaData view sharing
+ * the interned Strings and parameter maps.  Both are then kept per row for every later reader, so
+ * the views are shared and must not be modified, like the unmodifiable parameter maps.</p>
+ */
+final class CompactInstanceStore extends AbstractMap<String, MetaData> implements SortedMap<String, MetaData> {
+
+    private static final byte NO_PAYLOAD = 1;
+    private static final byte HAS_WORKER_ID = 2;
+    private static final byte DRAINING = 4;
+
+    /** Segment id of an instance id that is its address:port, as registered, so it costs nothing. */
+    private static final int ADDRESS_AND_PORT = -2;
+
+    private final String[] strings;
+    private final Map<String, String>[] parameterMaps;
+
+    /** Instance i has the segments segments[pathOffsets[i]] up to segments[pathOffsets[i + 1]]. */
+    private final int[] pathOffsets;
+    private final int[] segments;
+
+    private final byte[] flags;
+    private final long[] workerIds;
+    private final int[] addresses;
+    private final int[] ports;
+    private final int[] serviceNames;
+    private final long[] registrationTimes;
+    private final int[] parameters;
+
+    /** Decoded rows, filled on first access and shared with sub maps. */
+    private final String[] paths;
+    private final AtomicReferenceArray<MetaData> views;
+
+    /** The range of instances of this view, all of them unless a sub map. */
+    private final int from;
+    private final int to;
+
+    /**
+     * @param instances full path to payload
+     * @return the instances in compact form, the same map if it is compact already.
+     */
+    @SuppressWarnings("unchecked")
+    static CompactInstanceStore of(Map<String, MetaData> instances) {
+        if (instances instanceof CompactInstanceStore) {
+            return (CompactInstanceStore) instances;
+        }
+        if ((instances instanceof SortedMap) && (((SortedMap<String, MetaData>) instances).comparator() == null)) {
+            return new CompactInstanceStore((SortedMap<String, MetaData>) instances);
+        }
+
+        return new CompactInstanceStore(new TreeMap<String, MetaData>(instances));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompactInstanceStore(SortedMap<String, MetaData> instances) {
+        int size = instances.size();
+        Dictionary dictionary = new Dictionary();
+        Map<Map<String, String>, Integer> parameterDictionary = new HashMap<Map<String, String>, Integer>();
+
+        pathOffsets = new int[size + 1];
+        flags = new byte[size];
+        workerIds = new long[2 * size];
+        addresses = new int[size];
+        ports = new int[size];
+        serviceNames = new int[size];
+        registrationTimes = new long[size];
+        parameters = new int[size];
+        paths = new String[size];
+        views = new AtomicReferenceArray<MetaData>(size);
+
+        int[] pathSegments = new int[size * 6];
+        int segmentCount = 0;
+        int i = 0;
+
+        for (Map.Entry<String, MetaData> entry : instances.entrySet()) {
+            MetaData metaData = entry.getValue();
+            String[] pathParts = entry.getKey().split("/", -1);
+            String id = ((metaData == null) || (metaData.getListenAddress() == null)) ? null
+                    : metaData.getListenAddress() + ":" + metaData.getListenPort();
+
+            for (int p = 0; p < pathParts.length; p++) {
+                if (segmentCount == pathSegments.length) {
+                    pathSegments = Arrays.copyOf(pathSegments, segmentCount * 2 + 8);
+                }
+                boolean isId = (p == pathParts.length - 1) && pathParts[p].equals(id);
+                pathSegments[segmentCount++] = isId ? ADDRESS_AND_PORT : dictionary.intern(pathParts[p]);
+            }
+            pathOffsets[i + 1] = segmentCount;
+
+            if (metaData == null) {
+                flags[i] = NO_PAYLOAD;
+                addresses[i] = -1;
+                serviceNames[i] = -1;
+                parameters[i] = -1;
+            } else {
+                if (metaData.getWorkerId() != null) {
+                    flags[i] |= HAS_WORKER_ID;
+                    workerIds[2 * i] = metaData.getWorkerId().getMostSignificantBits();
+                    workerIds[2 * i + 1] = metaData.getWorkerId().getLeastSignificantBits();
+                }
+                if (metaData.isDraining()) {
+                    flags[i] |= DRAINING;
+                }
+                addresses[i] = dictionary.intern(metaData.getListenAddress());
+                ports[i] = metaData.getListenPort();
+                serviceNames[i] = dictionary.intern(metaData.getServiceName());
+                registrationTimes[i] = metaData.getRegistrationTime();
+                parameters[i] = internParameters(parameterDictionary, dictionary, metaData.getParameters());
+            }
+            i++;
+        }
+
+        segments = Arrays.copyOf(pathSegments, segmentCount);
+        strings = dictionary.toArray();
+        parameterMaps = new Map[parameterDictionary.size()];
+        for (Map.Entry<Map<String, String>, Integer> entry : parameterDictionary.entrySet()) {
+            parameterMaps[entry.getValue()] = entry.getKey();
+        }
+        from = 0;
+        to = size;
+    }
+
+    private CompactInstanceStore(CompactInstanceStore store, int from, int to) {
+        this.strings = store.strings;
+        this.parameterMaps = store.parameterMaps;
+        this.pathOffsets = store.pathOffsets;
+        this.segments = store.segments;
+        this.flags = store.flags;
+        this.workerIds = store.workerIds;
+        this.addresses = store.addresses;
+        this.ports = store.ports;
+        this.serviceNames = store.serviceNames;
+        this.registrationTimes = store.registrationTimes;
+        this.parameters = store.parameters;
+        this.paths = store.paths;
+        this.views = store.views;
+        this.from = from;
+        this.to = to;
+    }
+
+    private static int internParameters(Map<Map<String, String>, Integer> parameterDictionary,
+            Dictionary dictionary, Map<String, String> values) {
+        if (values == null) {
+            return -1;
+        }
+
+        Map<String, String> interned = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            interned.put(dictionary.canonical(entry.getKey()), dictionary.canonical(entry.getValue()));
+        }
+
+        Integer id = parameterDictionary.get(interned);
+        if (id == null) {
+            id = parameterDictionary.size();
+            parameterDictionary.put(Collections.unmodifiableMap(interned), id);
+        }
+
+        return id;
+    }
+
+    /*
+     * Assigns ids to distinct Strings while building, keeping one copy of each.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+
+        int intern(String value) {
+            if (value == null) {
+                return -1;
+            }
+
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+
+            return id;
+        }
+
+        String canonical(String value) {
+            return (value == null) ? null : values.get(intern(value));
+        }
+
+        String[] toArray() {
+            return values.toArray(new String[values.size()]);
+        }
+    }
+
+    /**
+     * @param ordinal position of the instance in path order, within this map
+     * @return the full path of the instance.
+     */
+    String path(int ordinal) {
+        int index = from + ordinal;
+        String cached = paths[index];
+
+        if (cached != null) {
+            return cached;
+        }
+
+        StringBuilder path = new StringBuilder();
+
+        for (int s = pathOffsets[index]; s < pathOffsets[index + 1]; s++) {
+            if (s > pathOffsets[index]) {
+                path.append('/');
+            }
+            path.append(segment(index, s));
+        }
+
+        // Racing readers build equal Strings, either may be kept.
+        paths[index] = path.toString();
+        return paths[index];
+    }
+
+    /**
+     * @param ordinal position of the instance in path order, within this map
+     * @return the view of the payload of the instance, null if it has none.
+     */
+    MetaData metaData(int ordinal) {
+        int index = from + ordinal;
+
+        if ((flags[index] & NO_PAYLOAD) != 0) {
+            return null;
+        }
+
+        MetaData cached = views.get(index);
+        if (cached != null) {
+            return cached;
+        }
+
+        UUID workerId = ((flags[index] & HAS_WORKER_ID) != 0)
+                ? new UUID(workerIds[2 * index], workerIds[2 * index + 1]) : null;
+        MetaData metaData = new MetaData(workerId, string(addresses[index]), ports[index],
+                string(serviceNames[index]));
+        metaData.setRegistrationTime(registrationTimes[index]);
+        metaData.setDraining((flags[index] & DRAINING) != 0);
+        metaData.setParameters((parameters[index] < 0) ? null : parameterMaps[parameters[index]]);
+
+        // One view per row, whichever racing reader published first.
+        return views.compareAndSet(index, null, metaData) ? metaData : views.get(index);
+    }
+
+    private String segment(int index, int s) {
+        if (segments[s] == ADDRESS_AND_PORT) {
+            return strings[addresses[index]] + ":" + ports[index];
+        }
+
+        return strings[segments[s]];
+    }
+
+    private String string(int id) {
+        return (id < 0) ? null : strings[id];
+    }
+
+    /*
+     * Compares the path of an instance with a key like String.compareTo, without building it.
+     */
+    private int compare(int index, String key) {
+        int position = 0;
+
+        for (int s = pathOffsets[index]; s < pathOffsets[index + 1]; s++) {
+            if (s > pathOffsets[index]) {
+                if (position == key.length()) {
+                    return 1;
+                }
+                int c = '/' - key.charAt(position++);
+                if (c != 0) {
+                    return c;
+                }
+            }
+
+            String segment = segment(index, s);
+            for (int j = 0; j < segment.length(); j++) {
+                if (position == key.length()) {
+                    return 1;
+                }
+                int c = segment.charAt(j) - key.charAt(position++);
+                if (c != 0) {
+                    return c;
+                }
+            }
+        }
+
+        return position - key.length();
+    }
+
+    /*
+     * The first index in range whose path is not less than the key.
+     */
+    private int lowerBound(String key) {
+        int low = from;
+        int high = to;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (compare(middle, key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+
+        int index = lowerBound((String) key);
+
+        return ((index < to) && (compare(index, (String) key) == 0)) ? index : -1;
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public MetaData get(Object key) {
+        int index = indexOf(key);
+
+        return (index < 0) ? null : metaData(index - from);
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<Map.Entry<String, MetaData>> entrySet() {
+        return new AbstractSet<Map.Entry<String, MetaData>>() {
+            @Override
+            public int size() {
+                return to - from;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, MetaData>> iterator() {
+                return new Iterator<Map.Entry<String, MetaData>>() {
+                    private int ordinal = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return ordinal < to - from;
+                    }
+
+                    @Override
+                    public Map.Entry<String, MetaData> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return new Entry(ordinal++);
+                    }
+                };
+            }
+        };
+    }
+
+    /*
+     * Builds the key and the payload only when asked for.
+     */
+    private final class Entry implements Map.Entry<String, MetaData> {
+        private final int ordinal;
+
+        Entry(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
+        @Override
+        public String getKey() {
+            return path(ordinal);
+        }
+
+        @Override
+        public MetaData getValue() {
+            return metaData(ordinal);
+        }
+
+        @Override
+        public MetaData setValue(MetaData value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return new SimpleImmutableEntry<String, MetaData>(getKey(), getValue()).equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            MetaData value = getValue();
+
+            return getKey().hashCode() ^ ((value == null) ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return null;
+    }
+
+    @Override
+    public SortedMap<String, MetaData> subMap(String fromKey, String toKey) {
+        if (fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+
+        return new CompactInstanceStore(this, lowerBound(fromKey), lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<String, MetaData> headMap(String toKey) {
+        return new CompactInstanceStore(this, from, lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<String, MetaData> tailMap(String fromKey) {
+        return new CompactInstanceStore(this, lowerBound(fromKey), to);
+    }
+
+    @Override
+    public String firstKey() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+
+        return path(0);
+    }
+
+    @Override
+    public String lastKey() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+
+        return path(to - from - 1);
+    }
+}
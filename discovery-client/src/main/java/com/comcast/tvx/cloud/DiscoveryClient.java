@@ -17,18 +17,36 @@
 package com.comcast.tvx.cloud;
 
 import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Throwables;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundPathable;
+import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
 import org.apache.curator.x.discovery.ServiceDiscovery;
 import org.apache.curator.x.discovery.ServiceInstance;
+import org.apache.curator.x.discovery.details.InstanceSerializer;
+import org.apache.curator.x.discovery.details.JsonInstanceSerializer;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +69,103 @@ public class DiscoveryClient {
 
     private ServiceDiscoveryManager discoveryManager;
 
+    /** Reads the published registry snapshot, null to walk the registry tree. */
+    private RegistrySnapshotReader snapshotReader;
+
+    /** Keeps the last good result on disk, null if not used. */
+    private LocalSnapshotStore localStore;
+
+    /** Last good result, loaded from or saved to the local store. */
+    private final RegistrySnapshotHolder localSnapshots = new RegistrySnapshotHolder();
+
+    /** Whether the last result came from the local store. */
+    private volatile boolean stale = false;
+
+    /** Thread background results were last delivered on, the ZooKeeper event thread. */
+    private volatile Thread eventThread;
+
+    /** Highest child list zxid seen walking the registry. */
+    private AtomicLong zxid = new AtomicLong();
+
+    /** Age up to which the last result is returned without reading again, 0 to always read. */
+    private long maxStalenessMillis = 0;
+
+    /** The read concurrent callers join, and the query it reads, guarded by flightLock. */
+    private final Object flightLock = new Object();
+    private FutureTask<Map<String, MetaData>> flight;
+    private List<String> flightQuery;
+
+    /** Deserializes instance nodes read in the background. */
+    private InstanceSerializer<MetaData> serializer = new JsonInstanceSerializer<MetaData>(MetaData.class);
+
+    /** The last completed read, never handed out itself. */
+    private volatile Completed last;
+
+    /** Limits of a single registry walk, 0 for none. */
+    private long deadlineMillis = 0;
+    private int operationBudget = 0;
+
+    /** The walk in progress on the calling thread, accounting for its ZooKeeper operations. */
+    private final ThreadLocal<Walk> walk = new ThreadLocal<Walk>();
+
+    /** Walks started, to rotate where limited walks start. */
+    private final AtomicInteger walks = new AtomicInteger();
+
+    private static class Walk {
+        final long startNanos = System.nanoTime();
+        final long deadlineMillis;
+        final int budget;
+        final int rotation;
+        int operations = 0;
+        final List<String> staleSubtrees = new ArrayList<String>();
+
+        Walk(long deadlineMillis, int budget, int rotation) {
+            this.deadlineMillis = deadlineMillis;
+            this.budget = budget;
+            this.rotation = rotation;
+        }
+
+        boolean isLimited() {
+            return (deadlineMillis > 0) || (budget > 0);
+        }
+
+        /*
+         * Milliseconds left until the deadline, 0 without one.
+         */
+        long remainingMillis() {
+            if (deadlineMillis <= 0) {
+                return 0;
+            }
+
+            return Math.max(1, deadlineMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Thrown by {@link DiscoveryClient#spend(String)} once a walk may not read ZooKeeper anymore.
+     */
+    protected static class BudgetExceededException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Completed {
+        final List<String> query;
+        final long startMillis;
+        final Map<String, MetaData> instances;
+        final List<String> staleSubtrees;
+
+        Completed(List<String> query, long startMillis, Map<String, MetaData> instances, List<String> staleSubtrees) {
+            this.query = query;
+            this.startMillis = startMillis;
+            this.instances = instances;
+            this.staleSubtrees = staleSubtrees;
+        }
+    }
+
     /**
      * Builder style constructor.
      * @param curatorFramework the curator framework
@@ -142,17 +257,403 @@ public class DiscoveryClient {
     }
 
     /**
-     * Find instances based on the filters used to create this object.
+     * Fluent setter.  Find instances in the snapshot a {@link RegistrySnapshotPublisher} publishes
+     * at the given path instead of walking the registry tree.  The registry is walked as before
+     * while no snapshot has been published.
+     *
+     * @param snapshotPath the snapshot path
+     * @return this object instance
+     */
+    public DiscoveryClient usingSnapshot(String snapshotPath) {
+        this.snapshotReader = new RegistrySnapshotReader(curatorFramework, snapshotPath);
+        return this;
+    }
+
+    /**
+     * Fluent setter.  Keep the last good result in the given file.  It is loaded right away and
+     * answers {@link #findInstances()}, flagged as {@link #isStale() stale}, until the first live
+     * read from ZooKeeper completes, and again whenever ZooKeeper cannot be read.  It is used right
+     * away while disconnected, and walks without a {@link #withDeadline(long) deadline} of their own
+     * give up after the connection timeout, so neither waits for the retry policy.
+     *
+     * @param file the snapshot file
+     * @return this object instance
+     */
+    public DiscoveryClient withLocalSnapshot(File file) {
+        this.localStore = new LocalSnapshotStore(file);
+
+        RegistrySnapshot loaded = localStore.load();
+        if (loaded != null) {
+            localSnapshots.continueFrom(loaded);
+        }
+        return this;
+    }
+
+    /**
+     * Fluent setter.  Let {@link #findInstances()} return the last result as long as the read it
+     * came from started at most the given time ago.  Concurrent calls share a single read either way.
+     *
+     * @param maxStalenessMillis milliseconds, 0 to always read
+     * @return this object instance
+     */
+    public DiscoveryClient withMaxStaleness(long maxStalenessMillis) {
+        this.maxStalenessMillis = maxStalenessMillis;
+        return this;
+    }
+
+    /**
+     * Fluent setter.  Stop reading ZooKeeper once a walk of the registry has taken the given time,
+     * and do not wait for the retry policy while disconnected.  Each read is waited for at most
+     * until the deadline, however long Curator keeps retrying it.  Subtrees not read by then are
+     * served from the last known state and reported by {@link #getStaleSubtrees()}.
+     *
+     * @param deadlineMillis milliseconds per walk, 0 for no deadline
+     * @return this object instance
+     */
+    public DiscoveryClient withDeadline(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /**
+     * Fluent setter.  Read at most the given number of nodes or child lists per walk of the
+     * registry, each instance node counting as one.  Subtrees not read by then are served from the
+     * last known state and reported by {@link #getStaleSubtrees()}.  Walks limited by a budget or
+     * a deadline start at a different child of each node every time, so the subtrees left out vary
+     * and none is served from the last known state for good.
+     *
+     * @param operationBudget ZooKeeper operations per walk, 0 for no limit
+     * @return this object instance
+     */
+    public DiscoveryClient withOperationBudget(int operationBudget) {
+        this.operationBudget = operationBudget;
+        return this;
+    }
+
+    protected String getBasePath() {
+        return basePath;
+    }
+
+    protected List<String> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @return true if the last {@link #findInstances()} was answered from the local snapshot, or
+     *         served some subtrees from the last known state.
+     */
+    public boolean isStale() {
+        return stale || !getStaleSubtrees().isEmpty();
+    }
+
+    /**
+     * @return the subtrees the last walk of the registry could not read, within its deadline or
+     *         operation budget or at all, and served from the last known state instead.
+     */
+    public List<String> getStaleSubtrees() {
+        Completed completed = last;
+
+        return (completed == null) ? Collections.<String>emptyList() : completed.staleSubtrees;
+    }
+
+    /**
+     * @return the highest zxid at which the children of a node walked so far last changed, i.e.
+     *         the latest registration or deregistration seen, 0 if the registry was not walked.
+     */
+    public long getZxid() {
+        return zxid.get();
+    }
+
+    private List<String> getChildren(String path) throws Exception {
+        return getChildren(path, new Stat());
+    }
+
+    private List<String> getChildren(String path, Stat stat) throws Exception {
+        spend(path);
+
+        Walk current = walk.get();
+        List<String> children;
+
+        if ((current == null) || (current.deadlineMillis <= 0) || onEventThread()) {
+            children = curatorFramework.getChildren().storingStatIn(stat).forPath(path);
+        } else {
+            CuratorEvent event = await(curatorFramework.getChildren(), path, current);
+
+            children = event.getChildren();
+            stat.setPzxid(event.getStat().getPzxid());
+            stat.setDataLength(event.getStat().getDataLength());
+            stat.setNumChildren(event.getStat().getNumChildren());
+        }
+
+        for (long seen = zxid.get(); stat.getPzxid() > seen; seen = zxid.get()) {
+            if (zxid.compareAndSet(seen, stat.getPzxid())) {
+                break;
+            }
+        }
+
+        return children;
+    }
+
+    private byte[] getData(String path) throws Exception {
+        spend(path);
+
+        Walk current = walk.get();
+
+        if ((current == null) || (current.deadlineMillis <= 0) || onEventThread()) {
+            return curatorFramework.getData().forPath(path);
+        }
+
+        return await(curatorFramework.getData(), path, current).getData();
+    }
+
+    /*
+     * Reads in the background and waits at most until the deadline of the walk, rather than for
+     * the retry policy of a blocking read.
+     */
+    private CuratorEvent await(BackgroundPathable<?> operation, String path, Walk current) throws Exception {
+        final CompletableFuture<CuratorEvent> answered = new CompletableFuture<CuratorEvent>();
+        CuratorEvent event;
+
+        operation.inBackground((client, result) -> {
+            eventThread = Thread.currentThread();
+            answered.complete(result);
+        }).forPath(path);
+        try {
+            event = answered.get(current.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new BudgetExceededException("Deadline of " + current.deadlineMillis + " ms passed reading " + path);
+        }
+
+        KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+        if (code != KeeperException.Code.OK) {
+            throw KeeperException.create(code, path);
+        }
+
+        return event;
+    }
+
+    /*
+     * Whether the caller is the ZooKeeper event thread, e.g. a CuratorListener calling
+     * findInstances().  Background results are delivered on that very thread, so it must not wait
+     * for them: the reads would only be answered once the deadline passed.
+     */
+    private boolean onEventThread() {
+        Thread thread = Thread.currentThread();
+
+        return (thread == eventThread) || thread.getName().endsWith("-EventThread");
+    }
+
+    /**
+     * Called when {@link #findInstances()} waits for the result of a read already in progress.
+     */
+    protected void joinedRead() {
+    }
+
+    /*
+     * What a read depends on: the base path followed by the filters.
+     */
+    private List<String> query() {
+        List<String> query = new ArrayList<String>(filters.size() + 1);
+
+        query.add(basePath);
+        query.addAll(filters);
+
+        return query;
+    }
+
+    /**
+     * Find instances based on the filters used to create this object.  Calls made while another
+     * one with the same base path and filters is reading ZooKeeper wait for and share its result.
      *
      * @return  A sorted map of full paths to a node, along with the MetaData stored in that node.
      */
     public Map<String, MetaData> findInstances() {
+        init();
+
+        final List<String> currentQuery = query();
+        Completed completed = last;
+
+        if ((maxStalenessMillis > 0) && (completed != null) && completed.query.equals(currentQuery)
+                && (System.currentTimeMillis() - completed.startMillis <= maxStalenessMillis)) {
+            return new TreeMap<String, MetaData>(completed.instances);
+        }
+
+        FutureTask<Map<String, MetaData>> task;
+        boolean leader = false;
+
+        synchronized (flightLock) {
+            task = flight;
+
+            if ((task == null) || !flightQuery.equals(currentQuery)) {
+                final long startMillis = System.currentTimeMillis();
+
+                task = new FutureTask<Map<String, MetaData>>(new Callable<Map<String, MetaData>>() {
+
+                    @Override
+                    public Map<String, MetaData> call() {
+                        Walk current = new Walk(walkDeadlineMillis(), operationBudget, walks.getAndIncrement());
+                        Map<String, MetaData> instances;
+
+                        walk.set(current);
+                        try {
+                            instances = (localStore == null) ? findLiveInstances() : findInstancesOrLocal();
+                        } finally {
+                            walk.remove();
+                        }
+
+                        last = new Completed(currentQuery, startMillis, instances,
+                                Collections.unmodifiableList(current.staleSubtrees));
+                        return instances;
+                    }
+                });
+                flight = task;
+                flightQuery = currentQuery;
+                leader = true;
+            }
+        }
+
+        if (!leader) {
+            joinedRead();
+        }
+
+        if (leader) {
+            try {
+                task.run();
+            } finally {
+                synchronized (flightLock) {
+                    if (flight == task) {
+                        flight = null;
+                    }
+                }
+            }
+        }
+
+        try {
+            // Every caller gets its own copy, the shared result must stay as read.
+            return new TreeMap<String, MetaData>(task.get());
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private synchronized Map<String, MetaData> findInstancesOrLocal() {
+        RegistrySnapshot localSnapshot = localSnapshots.get();
+
+        // Do not wait for the retry policy, the local snapshot is there to answer meanwhile.
+        if ((localSnapshot != null) && !isConnected()) {
+            logger.info("not connected to ZooKeeper, using local snapshot " + localSnapshot.getVersion());
+            stale = true;
+
+            return localSnapshot.select(basePath, filters);
+        }
+
+        Map<String, MetaData> instances;
+
+        try {
+            instances = findLiveInstances();
+        } catch (RuntimeException e) {
+            if (localSnapshot == null) {
+                throw e;
+            }
+            logger.warn("An error occurred reading ZooKeeper, using local snapshot " + localSnapshot.getVersion(), e);
+            stale = true;
+
+            return localSnapshot.select(basePath, filters);
+        }
+
+        // The traversal skips subtrees it cannot read, so a result read while disconnected may
+        // be incomplete and must not replace the last good one.
+        if (!isConnected()) {
+            if (localSnapshot == null) {
+                return instances;
+            }
+            logger.warn("Lost the ZooKeeper connection while reading, using local snapshot "
+                    + localSnapshot.getVersion());
+            stale = true;
+
+            return localSnapshot.select(basePath, filters);
+        }
+
+        stale = false;
+
+        // Subtrees served from the last known state are not worth saving again.
+        if (walk.get().staleSubtrees.isEmpty()) {
+            saveLocalSnapshot(instances);
+        }
+
+        return instances;
+    }
+
+    private void saveLocalSnapshot(Map<String, MetaData> instances) {
+        if (!localSnapshots.update(instances, false, getZxid())) {
+            return;
+        }
+
+        try {
+            localStore.save(localSnapshots.get());
+        } catch (IOException e) {
+            // Keep serving, the next change will try again.
+            logger.error("Could not save the local snapshot to " + localStore.getFile(), e);
+        }
+    }
+
+    /*
+     * With a local snapshot to fall back to, a walk without a deadline of its own is bounded by the
+     * connection timeout rather than left to the retry policy.
+     */
+    private long walkDeadlineMillis() {
+        if ((deadlineMillis > 0) || (localStore == null)) {
+            return deadlineMillis;
+        }
+
+        return getConnectionTimeoutMillis();
+    }
+
+    /**
+     * @return milliseconds the ZooKeeper client waits for a connection.
+     */
+    protected long getConnectionTimeoutMillis() {
+        return curatorFramework.getZookeeperClient().getConnectionTimeoutMs();
+    }
+
+    /**
+     * @return true if the ZooKeeper client is currently connected.
+     */
+    protected boolean isConnected() {
+        return curatorFramework.getZookeeperClient().isConnected();
+    }
+
+    /**
+     * Find instances in ZooKeeper, from the published snapshot or by walking the registry.
+     *
+     * @return  A sorted map of full paths to a node, along with the MetaData stored in that node.
+     */
+    protected Map<String, MetaData> findLiveInstances() {
         Map<String, MetaData> instances = new TreeMap<String, MetaData>();
 
-        init();
+        if (snapshotReader != null) {
+            RegistrySnapshot snapshot = snapshotReader.get();
+
+            if (snapshot != null) {
+                return snapshot.select(basePath, filters);
+            }
+            logger.warn("No registry snapshot published at " + snapshotReader.getPath() + ", walking the registry");
+        }
+
+        // The walk of the read in flight, or of this call alone.
+        Walk current = walk.get();
+        boolean owned = (current == null);
+
+        if (owned) {
+            current = new Walk(deadlineMillis, operationBudget, walks.getAndIncrement());
+            walk.set(current);
+        }
 
         try {
-            for (String path : filters) {
+            for (String path : rotate(filters)) {
                 logger.debug("checking entries with path filter: " + path);
 
                 // We need to clean up the input for base path and filter.  Trim trailing slash on
@@ -169,11 +670,428 @@ public class DiscoveryClient {
             }
         } catch (Exception e) {
             throw Throwables.propagate(e);
+        } finally {
+            if (owned) {
+                walk.remove();
+            }
+        }
+
+        if (!current.staleSubtrees.isEmpty()) {
+            logger.warn("Served " + current.staleSubtrees.size() + " subtrees from the last known state after "
+                    + current.operations + " operations in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                    - current.startNanos) + " ms");
+            fillStale(instances, current.staleSubtrees);
         }
 
         return instances;
     }
 
+    /*
+     * The given children or filters, starting at a different one each walk if the walk is limited.
+     */
+    private List<String> rotate(List<String> names) {
+        Walk current = walk.get();
+
+        if ((current == null) || !current.isLimited() || (names.size() < 2)) {
+            return names;
+        }
+
+        int start = current.rotation % names.size();
+        List<String> rotated = new ArrayList<String>(names.subList(start, names.size()));
+        rotated.addAll(names.subList(0, start));
+
+        return rotated;
+    }
+
+    /**
+     * Account for one ZooKeeper operation of the walk in progress, if any.  Overridden walk
+     * methods should call this before each operation and {@link #markStale(String, Exception)}
+     * for the subtree they cannot read.
+     *
+     * @param path the path about to be read
+     * @throws BudgetExceededException if the deadline passed, the operation budget is spent, or
+     *         the client is disconnected and a deadline is set.
+     */
+    protected void spend(String path) throws BudgetExceededException {
+        Walk current = walk.get();
+
+        if (current == null) {
+            return;
+        }
+        if ((current.deadlineMillis > 0)
+                && (System.nanoTime() - current.startNanos >= TimeUnit.MILLISECONDS.toNanos(current.deadlineMillis))) {
+            throw new BudgetExceededException("Deadline of " + current.deadlineMillis + " ms passed before " + path);
+        }
+        if ((current.budget > 0) && (current.operations >= current.budget)) {
+            throw new BudgetExceededException("Budget of " + current.budget + " operations spent before " + path);
+        }
+        if ((current.deadlineMillis > 0) && !isConnected()) {
+            throw new BudgetExceededException("Not connected to ZooKeeper, not waiting to read " + path);
+        }
+        current.operations++;
+    }
+
+    /**
+     * Serve the instances below a subtree that could not be read from the last known state.
+     *
+     * @param subtree the full path of the subtree
+     * @param cause why it could not be read
+     */
+    protected void markStale(String subtree, Exception cause) {
+        Walk current = walk.get();
+
+        logger.debug("Could not read " + subtree + ": " + cause.getMessage());
+        if (current != null) {
+            current.staleSubtrees.add(subtree);
+        }
+    }
+
+    /*
+     * Adds the instances of the stale subtrees the walk did not find, from the last result for the
+     * same filters or else the local snapshot.
+     */
+    private void fillStale(Map<String, MetaData> instances, List<String> subtrees) {
+        Completed completed = last;
+        RegistrySnapshot snapshot = localSnapshots.get();
+        SortedMap<String, MetaData> known;
+
+        if ((completed != null) && completed.query.equals(query())) {
+            known = new TreeMap<String, MetaData>(completed.instances);
+        } else if (snapshot != null) {
+            known = new TreeMap<String, MetaData>(snapshot.select(basePath, filters));
+        } else {
+            return;
+        }
+
+        for (String subtree : subtrees) {
+            String prefix = subtree + "/";
+
+            // A single instance node.
+            if (known.containsKey(subtree) && !instances.containsKey(subtree)) {
+                instances.put(subtree, known.get(subtree));
+            }
+
+            for (Map.Entry<String, MetaData> entry : known.tailMap(prefix).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                if (!instances.containsKey(entry.getKey())) {
+                    instances.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /*
+     * The children of a node, none if it does not exist, null if they could not be read and the
+     * node was marked stale.
+     */
+    private List<String> readChildren(String path) {
+        try {
+            return rotate(getChildren(path));
+        } catch (KeeperException.NoNodeException e) {
+            return Collections.emptyList();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            markStale(path, e);
+
+            return null;
+        }
+    }
+
+    /**
+     * Find instances without blocking: the registry is walked with Curator background operations
+     * and the future completes on a ZooKeeper event thread.  With a published snapshot, only the
+     * snapshot is read, in the background too, unless the cached copy is current.  The local
+     * snapshot, if any, answers when the walk fails.
+     *
+     * @return a future of a sorted map of full paths to a node, along with the MetaData stored in that node.
+     */
+    public CompletableFuture<Map<String, MetaData>> findInstancesAsync() {
+        return findInstancesAsync(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Find instances without blocking, see {@link #findInstancesAsync()}.  Cancelling the future
+     * stops the walk from issuing further reads.
+     *
+     * @param timeout time until the walk fails with a TimeoutException, 0 for no limit
+     * @param unit the unit of the timeout
+     * @return a future of a sorted map of full paths to a node, along with the MetaData stored in that node.
+     */
+    public CompletableFuture<Map<String, MetaData>> findInstancesAsync(long timeout, TimeUnit unit) {
+        init();
+
+        if (snapshotReader != null) {
+            // Only the published snapshot is read, in the background as well.
+            return FutureTimeouts.within(snapshotReader.getAsync().thenCompose(snapshot -> {
+                if (snapshot != null) {
+                    return CompletableFuture.completedFuture(snapshot.select(basePath, filters));
+                }
+                logger.warn("No registry snapshot published at " + snapshotReader.getPath() + ", walking the registry");
+
+                return walkAsync(timeout, unit);
+            }), timeout, unit);
+        }
+
+        return walkAsync(timeout, unit);
+    }
+
+    private CompletableFuture<Map<String, MetaData>> walkAsync(long timeout, TimeUnit unit) {
+        final CompletableFuture<Map<String, MetaData>> walk = FutureTimeouts.within(
+                BackgroundWalk.start(curatorFramework, serializer, basePath, new ArrayList<String>(filters)),
+                timeout, unit);
+
+        if (localStore == null) {
+            return walk;
+        }
+
+        final CompletableFuture<Map<String, MetaData>> result = new CompletableFuture<Map<String, MetaData>>();
+
+        walk.whenComplete((instances, error) -> {
+            RegistrySnapshot fallback = localSnapshots.get();
+
+            if (error == null) {
+                stale = false;
+                result.complete(instances);
+            } else if (fallback != null) {
+                logger.warn("An error occurred reading ZooKeeper, using local snapshot " + fallback.getVersion(),
+                        error);
+                stale = true;
+                result.complete(fallback.select(basePath, filters));
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        result.whenComplete((instances, error) -> {
+            if (result.isCancelled()) {
+                walk.cancel(false);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Count the instances the given filter selects below the base path, without reading their
+     * payloads.  The filters of this client do not apply.  The count is given up once the deadline
+     * passed, or without one the connection timeout of the client, and once the operation budget
+     * is spent; the local snapshot, if any, is counted instead.
+     *
+     * @param filter a filter, as given to {@link #withCriteria(String)}
+     * @return the number of instances.
+     */
+    public long countInstances(String filter) {
+        return count(filter, false);
+    }
+
+    /**
+     * @param filter a filter, as given to {@link #withCriteria(String)}
+     * @return true if the filter selects at least one instance below the base path.
+     */
+    public boolean hasInstances(String filter) {
+        return count(filter, true) > 0;
+    }
+
+    private long count(String filter, boolean any) {
+        init();
+
+        if (snapshotReader != null) {
+            RegistrySnapshot snapshot = snapshotReader.peek();
+
+            if (snapshot != null) {
+                return snapshot.select(basePath, Collections.singletonList(filter)).size();
+            }
+        }
+
+        if (onEventThread()) {
+            // The background reads would be answered on this very thread, count with blocking ones.
+            return countBlocking(filter, any);
+        }
+
+        // Bounded, a count waiting on the ZooKeeper event thread would never be answered otherwise.
+        long timeoutMillis = (deadlineMillis > 0) ? deadlineMillis : getConnectionTimeoutMillis();
+        CompletableFuture<Long> counted = BackgroundWalk.count(curatorFramework, basePath,
+                Collections.singletonList(filter), any, operationBudget);
+        Throwable error;
+
+        try {
+            return counted.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            error = e.getCause();
+        } catch (TimeoutException e) {
+            // Stop issuing reads.
+            counted.cancel(false);
+            error = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+
+        RegistrySnapshot fallback = localSnapshots.get();
+        if (fallback == null) {
+            throw Throwables.propagate(error);
+        }
+        logger.warn("Could not count in ZooKeeper, counting local snapshot " + fallback.getVersion(), error);
+
+        return fallback.select(basePath, Collections.singletonList(filter)).size();
+    }
+
+    private long countBlocking(String filter, boolean any) {
+        WalkFilter walkFilter = new WalkFilter(basePath, filter);
+        long[] visited = { 0 };
+
+        try {
+            visitChildren(walkFilter, walkFilter.getStart(), walkFilter.getStartIndex(), instance -> !any, visited);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+
+        return visited[0];
+    }
+
+    /**
+     * Walk the registry and hand each instance the filters select to the visitor as it is found,
+     * without building the whole result.  A cached published snapshot is visited instead if current.
+     * Instances selected by more than one filter are visited more than once.
+     *
+     * @param visitor the visitor
+     * @return the number of instances visited.
+     */
+    public long visitInstances(InstanceVisitor visitor) {
+        init();
+
+        if (snapshotReader != null) {
+            RegistrySnapshot snapshot = snapshotReader.peek();
+
+            if (snapshot != null) {
+                return visit(snapshot.select(basePath, filters), visitor);
+            }
+        }
+
+        long[] visited = { 0 };
+
+        try {
+            for (String filter : new ArrayList<String>(filters)) {
+                WalkFilter walkFilter = new WalkFilter(basePath, filter);
+
+                if (!visitChildren(walkFilter, walkFilter.getStart(), walkFilter.getStartIndex(), visitor, visited)) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+
+        return visited[0];
+    }
+
+    /**
+     * Hand instances found already, e.g. in a snapshot, to the visitor until it stops.
+     *
+     * @param instances full paths to payload
+     * @param visitor the visitor
+     * @return the number of instances visited.
+     */
+    protected long visit(Map<String, MetaData> instances, InstanceVisitor visitor) {
+        long visited = 0;
+
+        for (Map.Entry<String, MetaData> entry : instances.entrySet()) {
+            visited++;
+            if (!visitor.visit(node(null, entry.getKey(), entry.getValue()))) {
+                break;
+            }
+        }
+
+        return visited;
+    }
+
+    /*
+     * Depth first, children in name order.  Returns false once the visitor stops.
+     */
+    private boolean visitChildren(WalkFilter filter, String path, int index, InstanceVisitor visitor, long[] visited)
+        throws Exception {
+        List<String> children;
+        Stat stat = new Stat();
+
+        try {
+            children = new ArrayList<String>(getChildren(path, stat));
+        } catch (KeeperException.NoNodeException e) {
+            return true;
+        }
+
+        if (children.isEmpty()) {
+            // Service or zone nodes left empty once their instances deregistered hold no data.
+            if (filter.matches(path) && (stat.getDataLength() > 0)) {
+                visited[0]++;
+                return visitor.visit(node(this, path, null));
+            }
+            return true;
+        }
+
+        Collections.sort(children);
+
+        for (String child : children) {
+            if (!filter.descends(child, index)) {
+                continue;
+            }
+
+            if ((filter.getServiceIndex() >= 0) && (index == filter.getServiceIndex() + 1)) {
+                // An instance, a leaf, no need to list its children.
+                visited[0]++;
+                if (!visitor.visit(new InstanceNode(this, path.substring(0, path.lastIndexOf('/')),
+                        path.substring(path.lastIndexOf('/') + 1), child, null))) {
+                    return false;
+                }
+            } else if (!visitChildren(filter, path + "/" + child, index + 1, visitor, visited)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static InstanceNode node(DiscoveryClient client, String path, MetaData metaData) {
+        int id = path.lastIndexOf('/');
+        int service = path.lastIndexOf('/', id - 1);
+
+        return new InstanceNode(client, path.substring(0, service), path.substring(service + 1, id),
+                path.substring(id + 1), metaData);
+    }
+
+    /**
+     * @param path full path of an instance
+     * @return the payload, null if the instance is gone or the node holds none.
+     */
+    MetaData readMetaData(String path) {
+        byte[] data;
+
+        try {
+            data = getData(path);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+
+        return deserialize(path, data);
+    }
+
+    private MetaData deserialize(String path, byte[] data) {
+        if ((data == null) || (data.length == 0)) {
+            return null;
+        }
+
+        try {
+            return serializer.deserialize(data).getPayload();
+        } catch (Exception e) {
+            logger.debug("Not an instance at " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Initialize this client instance.
      */
@@ -238,21 +1156,17 @@ public class DiscoveryClient {
      * @throws Exception the exception
      */
     protected void findSubNodes(Map<String, MetaData> instances, String currentRoot) throws Exception {
-        List<String> children = new ArrayList<String>();
-
-        try {
-            children = curatorFramework.getChildren().forPath(currentRoot);
-        } catch (Exception e) {
-            logger.info("got exception : " + e.getMessage() +
-                        "  finding children, cannot continue with this traversal, returning");
+        List<String> children = readChildren(currentRoot);
 
+        if (children == null) {
             return;
         }
 
         for (String child : children) {
             String childPath = currentRoot + "/" + child;
+            List<String> grandChildren = readChildren(childPath);
 
-            if (curatorFramework.getChildren().forPath(childPath).size() > 0) {
+            if ((grandChildren != null) && (grandChildren.size() > 0)) {
                 findSubNodes(instances, childPath);
             } // else do nothing to add children, delegate to "findChildren" for this dir
         }
@@ -269,13 +1183,9 @@ public class DiscoveryClient {
      */
     protected List<String> findDirectories(String directory) throws Exception {
         List<String> dirs = new ArrayList<String>();
-        List<String> children = new ArrayList<String>();
-
-        try {
-            children = curatorFramework.getChildren().forPath(directory);
-        } catch (Exception e) {
-            logger.info("Exception: " + e.getMessage() + " getting children, returning");
+        List<String> children = readChildren(directory);
 
+        if (children == null) {
             return dirs;
         }
 
@@ -283,13 +1193,17 @@ public class DiscoveryClient {
 
             // In the Discovery lib, this node is a directory only if it has great-grand-children.
             String childPath = directory + "/" + child;
-            List<String> grandChildren = curatorFramework.getChildren().forPath(childPath);
+            List<String> grandChildren = readChildren(childPath);
+
+            if (grandChildren == null) {
+                continue;
+            }
 
             for (String grandChild : grandChildren) {
                 String grandChildPath = childPath + "/" + grandChild;
-                List<String> greatGrandChildren = curatorFramework.getChildren().forPath(grandChildPath);
+                List<String> greatGrandChildren = readChildren(grandChildPath);
 
-                if (greatGrandChildren.size() > 0) {
+                if ((greatGrandChildren != null) && (greatGrandChildren.size() > 0)) {
                     dirs.add(childPath);
 
                     break;
@@ -309,6 +1223,13 @@ public class DiscoveryClient {
      * @throws Exception the exception
      */
     protected void findChildren(Map<String, MetaData> instances, String directory) throws Exception {
+        Walk current = walk.get();
+
+        if ((current != null) && current.isLimited()) {
+            readServices(instances, directory);
+            return;
+        }
+
         ServiceDiscovery<MetaData> discovery =  discoveryManager.getDiscovery( directory );
 
         for (String name : discovery.queryForNames()) {
@@ -327,4 +1248,41 @@ public class DiscoveryClient {
          */
         discoveryManager.prune();
     }
+
+    /*
+     * Reads the services of a directory and their instances node by node, each read charged to the
+     * limited walk in progress, and marks what it cannot read stale.
+     */
+    private void readServices(Map<String, MetaData> instances, String directory) {
+        List<String> names = readChildren(directory);
+
+        if (names == null) {
+            return;
+        }
+
+        for (String name : names) {
+            String service = directory + "/" + name;
+            List<String> ids = readChildren(service);
+
+            if (ids == null) {
+                continue;
+            }
+
+            for (String id : ids) {
+                String path = service + "/" + id;
+
+                try {
+                    MetaData metaData = deserialize(path, getData(path));
+
+                    if (metaData != null) {
+                        instances.put(path, metaData);
+                    }
+                } catch (KeeperException.NoNodeException e) {
+                    // Deregistered meanwhile.
+                } catch (Exception e) {
+                    markStale(path, e);
+                }
+            }
+        }
+    }
 }
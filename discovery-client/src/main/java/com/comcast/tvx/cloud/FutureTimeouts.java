@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Times out futures of the asynchronous client methods.  All share one daemon timer thread.
+ */
+final class FutureTimeouts {
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "discovery-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        // Most futures complete in time, do not keep their timers around until they would fire.
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private FutureTimeouts() {
+    }
+
+    /**
+     * @param future the future to time out
+     * @param timeout the timeout, 0 for none
+     * @param unit the unit of the timeout
+     * @return the given future, completed with a {@link TimeoutException} if not done in time.
+     */
+    static <T> CompletableFuture<T> within(final CompletableFuture<T> future, final long timeout,
+            final TimeUnit unit) {
+        if (timeout <= 0) {
+            return future;
+        }
+
+        final ScheduledFuture<?> timer = TIMER.schedule(() -> {
+            future.completeExceptionally(new TimeoutException("Timed out after " + unit.toMillis(timeout) + " ms"));
+        }, timeout, unit);
+
+        future.whenComplete((result, error) -> timer.cancel(false));
+
+        return future;
+    }
+}
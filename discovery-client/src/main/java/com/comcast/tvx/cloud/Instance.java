@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registered instance as picked by an {@link InstanceProvider}: its registration path split
+ * into region, zone, flavor, service and id, its payload, the number of requests in flight to
+ * it and their outcome.  Call {@link #acquire()} before and {@link #release()} after each request
+ * for load aware strategies to see the load, and report the outcome through
+ * {@link InstanceProvider#reportSuccess(Instance, long)} or
+ * {@link InstanceProvider#reportFailure(Instance, long)}.
+ */
+public final class Instance {
+
+    private final String path;
+    private final String region;
+    private final String zone;
+    private final String flavor;
+    private final String serviceName;
+    private final String id;
+    private final MetaData metaData;
+    /** Updated twice by every request, so striped rather than a single contended counter. */
+    private final LongAdder inFlight;
+    private final InstanceHealth health;
+
+    /**
+     * @param path full registration path, .../region/zone/flavor/service/id
+     * @param metaData the payload
+     * @param previous the instance of the same path before a refresh, null if new
+     */
+    Instance(String path, MetaData metaData, Instance previous) {
+        String[] segments = path.split("/+");
+        int length = segments.length;
+
+        this.path = path;
+        this.region = (length >= 5) ? segments[length - 5] : null;
+        this.zone = (length >= 4) ? segments[length - 4] : null;
+        this.flavor = (length >= 3) ? segments[length - 3] : null;
+        this.serviceName = (length >= 2) ? segments[length - 2] : null;
+        this.id = segments[length - 1];
+        this.metaData = metaData;
+        this.inFlight = (previous == null) ? new LongAdder() : previous.inFlight;
+        this.health = (previous == null) ? new InstanceHealth() : previous.health;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public String getFlavor() {
+        return flavor;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public MetaData getMetaData() {
+        return metaData;
+    }
+
+    public String getAddress() {
+        return metaData.getListenAddress();
+    }
+
+    public int getPort() {
+        return metaData.getListenPort();
+    }
+
+    /**
+     * Count a request to this instance as in flight.
+     *
+     * @return this instance
+     */
+    public Instance acquire() {
+        inFlight.increment();
+        return this;
+    }
+
+    /**
+     * Count a request to this instance as completed.
+     */
+    public void release() {
+        inFlight.decrement();
+    }
+
+    public int getInFlight() {
+        return inFlight.intValue();
+    }
+
+    /**
+     * @return moving average of the reported latency in ms, 0 if none was reported.
+     */
+    public double getLatency() {
+        return health.getLatency();
+    }
+
+    public int getConsecutiveFailures() {
+        return health.consecutiveFailures.get();
+    }
+
+    InstanceHealth getHealth() {
+        return health;
+    }
+
+    @Override
+    public String toString() {
+        return "Instance [path=" + path + ", address=" + getAddress() + ":" + getPort() + ", inFlight="
+                + inFlight.sum() + ", latency=" + (long) getLatency() + "]";
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome statistics of the requests to one instance, updated with compare and set only so that
+ * concurrent reports never block each other or {@link InstanceProvider#pick(String, String)}.  Each
+ * instance has its own, carried over refreshes like the in flight count.
+ */
+final class InstanceHealth {
+
+    /** Moving average of the latency in ms as double bits, 0 until the first sample. */
+    private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(0));
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    /** Ejections without a healthy period in between, doubling the backoff. */
+    final AtomicInteger ejections = new AtomicInteger();
+    final AtomicLong ejectedUntil = new AtomicLong();
+    volatile long rampMillis;
+
+    /** Picks seen while being re-admitted, to let through a growing share of them. */
+    final AtomicInteger probes = new AtomicInteger();
+
+    double getLatency() {
+        return Double.longBitsToDouble(latency.get());
+    }
+
+    /**
+     * @return the new average.
+     */
+    double addLatency(double alpha, long sample) {
+        while (true) {
+            long bits = latency.get();
+            double average = Double.longBitsToDouble(bits);
+            double next = (average == 0) ? sample : alpha * sample + (1 - alpha) * average;
+
+            if (latency.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                return next;
+            }
+        }
+    }
+
+    void resetLatency() {
+        latency.set(Double.doubleToLongBits(0));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+/**
+ * An instance node handed to an {@link InstanceVisitor}.  The full path is only built and the
+ * payload only read and decoded when asked for, so visitors looking at names alone cost no reads
+ * and keep no garbage.
+ */
+public final class InstanceNode {
+
+    private final DiscoveryClient client;
+    private final String directory;
+    private final String serviceName;
+    private final String id;
+
+    private MetaData metaData;
+    private boolean read;
+
+    /**
+     * @param client the client to read the payload with, null if given
+     * @param directory path of the directory the service is registered in
+     * @param serviceName the service name
+     * @param id the instance id
+     * @param metaData the payload, if already known
+     */
+    InstanceNode(DiscoveryClient client, String directory, String serviceName, String id, MetaData metaData) {
+        this.client = client;
+        this.directory = directory;
+        this.serviceName = serviceName;
+        this.id = id;
+        this.metaData = metaData;
+        this.read = (client == null);
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the full path, as in {@link DiscoveryClient#findInstances()}.
+     */
+    public String getPath() {
+        return directory + "/" + serviceName + "/" + id;
+    }
+
+    /**
+     * Read and decode the payload on the first call.
+     *
+     * @return the payload, null if the instance is gone or the node holds none.
+     */
+    public MetaData getMetaData() {
+        if (!read) {
+            metaData = client.readMetaData(getPath());
+            read = true;
+        }
+
+        return metaData;
+    }
+
+    @Override
+    public String toString() {
+        return "InstanceNode [path=" + getPath() + "]";
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks an instance of a service for each request from a cached view of what a
+ * {@link DiscoveryClient} finds.  The view is rebuilt on {@link #refresh()}, or periodically once
+ * {@link #start(long) started}, and swapped in atomically; {@link #pick(String, String)} reads it
+ * without locking or allocating.
+ *
+ * <p>With zone affinity, instances in the local zone are preferred.  Instances in the local
+ * region are added when fewer than minLocal zone local instances are registered, and all others
+ * when the region still cannot provide minLocal.  Draining instances are never picked.</p>
+ *
+ * <p>With outlier detection, instances ejected by the {@link OutlierDetector} are skipped, unless
+ * no admitted instance turns up in as many picks as there are candidates.</p>
+ */
+public class InstanceProvider implements Runnable, Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(InstanceProvider.class);
+
+    private final DiscoveryClient client;
+    private final SelectionStrategy strategy;
+
+    private String region;
+    private String zone;
+    private int minLocal = 1;
+
+    private volatile OutlierDetector detector;
+
+    /** Flavor to service name to the candidates picked from, nested so a pick builds no key. */
+    private volatile Map<String, Map<String, Instance[]>> services = Collections.emptyMap();
+
+    /** Path to instance, to carry in flight counts over refreshes. */
+    private Map<String, Instance> instances = Collections.emptyMap();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param client client finding the instances to pick from
+     * @param strategy the selection strategy
+     */
+    public InstanceProvider(DiscoveryClient client, SelectionStrategy strategy) {
+        this.client = client;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Fluent setter.  Prefer instances close to the caller, applied from the next refresh.
+     *
+     * @param region region of the caller
+     * @param zone zone of the caller, null to prefer the whole region
+     * @param minLocal fewest preferred instances before the next tier is added
+     * @return this object instance
+     */
+    public synchronized InstanceProvider withZoneAffinity(String region, String zone, int minLocal) {
+        if ((region == null) || (region.trim().length() == 0)) {
+            throw new IllegalArgumentException("A region must be specified for zone affinity");
+        }
+
+        this.region = region;
+        this.zone = zone;
+        this.minLocal = minLocal;
+        return this;
+    }
+
+    /**
+     * Fluent setter.  Skip instances the detector ejected, based on the reported outcomes.
+     *
+     * @param detector the outlier detector
+     * @return this object instance
+     */
+    public InstanceProvider withOutlierDetection(OutlierDetector detector) {
+        this.detector = detector;
+        return this;
+    }
+
+    /**
+     * @param flavor the flavor, as in the registration path
+     * @param serviceName the service name, as in the registration path
+     * @return an instance of the service of the flavor, null if none is available.
+     */
+    public Instance pick(String flavor, String serviceName) {
+        Map<String, Instance[]> flavorServices = services.get(flavor);
+        Instance[] candidates = (flavorServices == null) ? null : flavorServices.get(serviceName);
+
+        if (candidates == null) {
+            return null;
+        }
+
+        Instance first = strategy.select(candidates);
+        OutlierDetector detector = this.detector;
+
+        if ((detector == null) || detector.isAdmitted(first)) {
+            return first;
+        }
+
+        for (int i = 1; i < candidates.length; i++) {
+            Instance instance = strategy.select(candidates);
+
+            if (detector.isAdmitted(instance)) {
+                return instance;
+            }
+        }
+
+        // Likely most are ejected, better to try one than to fail outright.
+        return first;
+    }
+
+    /**
+     * Report a request completed by an instance.  Ignored without outlier detection.
+     *
+     * @param instance the picked instance
+     * @param latencyMillis how long the request took
+     */
+    public void reportSuccess(Instance instance, long latencyMillis) {
+        OutlierDetector detector = this.detector;
+
+        if (detector != null) {
+            detector.reportSuccess(instance, latencyMillis);
+        }
+    }
+
+    /**
+     * Report a request failed or timed out by an instance.  Ignored without outlier detection.
+     *
+     * @param instance the picked instance
+     * @param latencyMillis how long until the request failed
+     */
+    public void reportFailure(Instance instance, long latencyMillis) {
+        OutlierDetector detector = this.detector;
+
+        if (detector != null) {
+            detector.reportFailure(instance, latencyMillis);
+        }
+    }
+
+    /**
+     * Rebuild the view from the client.
+     */
+    public synchronized void refresh() {
+        Map<String, Instance> current = new HashMap<String, Instance>();
+        Map<String, Map<String, List<Instance>>> byService = new HashMap<String, Map<String, List<Instance>>>();
+
+        for (Map.Entry<String, MetaData> entry : client.findInstances().entrySet()) {
+            if ((entry.getValue() == null) || entry.getValue().isDraining()) {
+                continue;
+            }
+
+            Instance instance = new Instance(entry.getKey(), entry.getValue(), instances.get(entry.getKey()));
+            current.put(entry.getKey(), instance);
+
+            Map<String, List<Instance>> flavorServices = byService.get(instance.getFlavor());
+            if (flavorServices == null) {
+                flavorServices = new HashMap<String, List<Instance>>();
+                byService.put(instance.getFlavor(), flavorServices);
+            }
+            if (!flavorServices.containsKey(instance.getServiceName())) {
+                flavorServices.put(instance.getServiceName(), new ArrayList<Instance>());
+            }
+            flavorServices.get(instance.getServiceName()).add(instance);
+        }
+
+        Map<String, Map<String, Instance[]>> candidates = new HashMap<String, Map<String, Instance[]>>();
+
+        for (Map.Entry<String, Map<String, List<Instance>>> flavor : byService.entrySet()) {
+            Map<String, Instance[]> flavorCandidates = new HashMap<String, Instance[]>();
+
+            for (Map.Entry<String, List<Instance>> entry : flavor.getValue().entrySet()) {
+                flavorCandidates.put(entry.getKey(), preferred(entry.getValue()));
+            }
+            candidates.put(flavor.getKey(), flavorCandidates);
+        }
+
+        instances = current;
+        services = candidates;
+    }
+
+    private Instance[] preferred(List<Instance> all) {
+        if (region == null) {
+            return all.toArray(new Instance[all.size()]);
+        }
+
+        List<Instance> local = new ArrayList<Instance>();
+        List<Instance> regional = new ArrayList<Instance>();
+
+        for (Instance instance : all) {
+            if (region.equalsIgnoreCase(instance.getRegion())) {
+                if ((zone == null) || zone.equalsIgnoreCase(instance.getZone())) {
+                    local.add(instance);
+                } else {
+                    regional.add(instance);
+                }
+            }
+        }
+
+        if (local.size() < minLocal) {
+            local.addAll(regional);
+        }
+        if (local.size() < minLocal) {
+            local = all;
+        }
+
+        return local.toArray(new Instance[local.size()]);
+    }
+
+    /**
+     * Refresh, keeping the current view if the client fails.
+     */
+    @Override
+    public void run() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            logger.error("An error occurred refreshing instances, keeping the current ones", e);
+        }
+    }
+
+    /**
+     * Refresh now and then every interval on a daemon thread.
+     *
+     * @param intervalMillis milliseconds between refreshes
+     */
+    public synchronized void start(long intervalMillis) {
+        refresh();
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "instance-provider");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
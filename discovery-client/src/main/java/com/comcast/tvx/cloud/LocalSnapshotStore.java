@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the last good registry snapshot in a local file, so that a client can answer from it at
+ * startup before, or instead of, reaching ZooKeeper.  The file is replaced atomically and carries
+ * a checksum; a missing, truncated or corrupt file simply loads as no snapshot.
+ *
+ * <pre>
+ * int magic, int length, long crc32, length bytes of {@link SnapshotCodec} data
+ * </pre>
+ */
+public class LocalSnapshotStore {
+
+    private static Logger logger = LoggerFactory.getLogger(LocalSnapshotStore.class);
+
+    static final int MAGIC = 0x52534e4c;
+
+    private static final int HEADER_LENGTH = 16;
+
+    private File file;
+
+    /**
+     * @param file the snapshot file, its directory must be writable
+     */
+    public LocalSnapshotStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the stored snapshot, null if there is none or it fails verification.
+     */
+    public RegistrySnapshot load() {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+
+            try {
+                FileChannel channel = input.getChannel();
+
+                if (channel.size() < HEADER_LENGTH) {
+                    throw new IOException("truncated header");
+                }
+
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("not a registry snapshot");
+                }
+
+                int length = buffer.getInt();
+                long crc = buffer.getLong();
+
+                if ((length < 0) || (length != buffer.remaining())) {
+                    throw new IOException("truncated data");
+                }
+
+                byte[] data = new byte[length];
+                buffer.get(data);
+
+                if (crc != checksum(data)) {
+                    throw new IOException("checksum mismatch");
+                }
+
+                RegistrySnapshot snapshot = SnapshotCodec.decode(data);
+                logger.info("loaded " + snapshot + " from " + file);
+
+                return snapshot;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Ignoring local registry snapshot " + file + ": " + e.getMessage());
+
+            return null;
+        }
+    }
+
+    /**
+     * Replace the stored snapshot.  The data is written to a temporary file, synced to disk and
+     * then renamed over the previous snapshot.
+     *
+     * @param snapshot the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void save(RegistrySnapshot snapshot) throws IOException {
+        byte[] data = SnapshotCodec.encode(snapshot);
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile output = new RandomAccessFile(temp, "rw");
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(data.length).putLong(checksum(data));
+
+            output.setLength(0);
+            output.write(header.array());
+            output.write(data);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+
+        // Readers see either the previous snapshot or this one, never no file at all.
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        return crc.getValue();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalSnapshotStore [file=" + file + "]";
+    }
+}
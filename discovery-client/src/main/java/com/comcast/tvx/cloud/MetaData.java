@@ -17,6 +17,7 @@
 package com.comcast.tvx.cloud;
 
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -50,6 +51,14 @@ public final class MetaData {
     @JsonProperty
     private Map<String, String> parameters;
 
+    /** Registration time in milliseconds since the epoch, 0 if registered by an older client. */
+    @JsonProperty
+    private long registrationTime;
+
+    /** Whether the instance is about to deregister and should receive no new connections. */
+    @JsonProperty
+    private boolean draining;
+
     /**
      * Instantiates a new worker metadata.
      */
@@ -133,4 +142,63 @@ public final class MetaData {
     public void setParameters(Map<String, String> parameters) {
         this.parameters = parameters;
     }
+
+    /**
+     * Gets the registration time.
+     *
+     * @return  milliseconds since the epoch, 0 if unknown
+     */
+    @JsonProperty
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    /**
+     * Sets the registration time.
+     * @param   registrationTime - milliseconds since the epoch
+     */
+    @JsonProperty
+    public void setRegistrationTime(long registrationTime) {
+        this.registrationTime = registrationTime;
+    }
+
+    /**
+     * Checks if the instance is draining.
+     *
+     * @return  true if the instance is about to deregister
+     */
+    @JsonProperty
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Sets the draining flag.
+     * @param   draining - true once the instance is about to deregister
+     */
+    @JsonProperty
+    public void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MetaData)) {
+            return false;
+        }
+
+        MetaData that = (MetaData) other;
+        return (listenPort == that.listenPort) && (registrationTime == that.registrationTime)
+                && (draining == that.draining) && Objects.equals(workerId, that.workerId)
+                && Objects.equals(listenAddress, that.listenAddress) && Objects.equals(serviceName, that.serviceName)
+                && Objects.equals(parameters, that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(workerId, listenAddress, listenPort, serviceName, parameters, registrationTime, draining);
+    }
 }
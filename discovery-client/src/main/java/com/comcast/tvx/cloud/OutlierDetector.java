@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ejects instances from {@link InstanceProvider} selection based on the outcome of the requests
+ * sent to them, so that a host still registered but failing or timing out stops taking traffic
+ * long before its ZooKeeper session expires.
+ *
+ * <ul>
+ * <li>An instance is ejected after maxConsecutiveFailures failures in a row, or once the
+ * moving average of its latency exceeds maxLatencyMillis.</li>
+ * <li>The first ejection lasts baseEjectionMillis, every following one without a healthy period
+ * in between twice as long as the last, up to maxEjectionMillis.</li>
+ * <li>After the ejection the instance takes a share of its picks growing from a tenth to all of
+ * them over as long as it was ejected, and is ejected again on the next failure streak.</li>
+ * </ul>
+ */
+public class OutlierDetector {
+
+    private static Logger logger = LoggerFactory.getLogger(OutlierDetector.class);
+
+    /** Share of picks, in percent, taken by an instance as soon as its ejection ends. */
+    static final int MIN_ADMIT_PERCENT = 10;
+
+    private double alpha = 0.3;
+    private int maxConsecutiveFailures = 5;
+    private long maxLatencyMillis = 0;
+    private long baseEjectionMillis = 10000;
+    private long maxEjectionMillis = 300000;
+
+    /**
+     * @param instance the instance a request was sent to
+     * @param latencyMillis how long the request took
+     */
+    public void reportSuccess(Instance instance, long latencyMillis) {
+        reportSuccess(instance, latencyMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * @param instance the instance a request was sent to
+     * @param latencyMillis how long until the request failed or timed out
+     */
+    public void reportFailure(Instance instance, long latencyMillis) {
+        reportFailure(instance, latencyMillis, System.currentTimeMillis());
+    }
+
+    void reportSuccess(Instance instance, long latencyMillis, long now) {
+        InstanceHealth health = instance.getHealth();
+        double latency = health.addLatency(alpha, latencyMillis);
+
+        health.consecutiveFailures.set(0);
+
+        if ((maxLatencyMillis > 0) && (latency > maxLatencyMillis)) {
+            eject(instance, now, "average latency " + (long) latency + " ms");
+        } else if ((health.ejections.get() > 0) && (now >= health.ejectedUntil.get() + health.rampMillis)) {
+            // Healthy through a whole ramp, the next ejection starts from the base again.
+            health.ejections.set(0);
+        }
+    }
+
+    void reportFailure(Instance instance, long latencyMillis, long now) {
+        InstanceHealth health = instance.getHealth();
+        health.addLatency(alpha, latencyMillis);
+
+        int failures = health.consecutiveFailures.incrementAndGet();
+
+        if ((maxConsecutiveFailures > 0) && (failures >= maxConsecutiveFailures)) {
+            eject(instance, now, failures + " consecutive failures");
+        }
+    }
+
+    private void eject(Instance instance, long now, String reason) {
+        InstanceHealth health = instance.getHealth();
+        long until = health.ejectedUntil.get();
+
+        if (now < until) {
+            // Reports of requests sent before the ejection.
+            return;
+        }
+
+        int ejections = Math.min(health.ejections.get(), 30);
+        long duration = Math.min(baseEjectionMillis << ejections, maxEjectionMillis);
+
+        // One of concurrent reports ejects.
+        if (health.ejectedUntil.compareAndSet(until, now + duration)) {
+            health.ejections.incrementAndGet();
+            health.rampMillis = duration;
+            health.probes.set(0);
+            health.consecutiveFailures.set(0);
+            // Judge the re-admitted instance by its new requests only.
+            health.resetLatency();
+            logger.warn("Ejecting " + instance.getPath() + " for " + duration + " ms, " + reason);
+        }
+    }
+
+    /**
+     * @param instance a picked instance
+     * @return whether the instance may take the request.
+     */
+    public boolean isAdmitted(Instance instance) {
+        return isAdmitted(instance, System.currentTimeMillis());
+    }
+
+    boolean isAdmitted(Instance instance, long now) {
+        InstanceHealth health = instance.getHealth();
+        long until = health.ejectedUntil.get();
+
+        if (now < until) {
+            return false;
+        }
+
+        long ramp = health.rampMillis;
+        if (now >= until + ramp) {
+            return true;
+        }
+
+        long percent = MIN_ADMIT_PERCENT + (100 - MIN_ADMIT_PERCENT) * (now - until) / ramp;
+
+        return (health.probes.getAndIncrement() & Integer.MAX_VALUE) % 100 < percent;
+    }
+
+    /**
+     * @param instance an instance
+     * @return whether the instance is ejected now.
+     */
+    public boolean isEjected(Instance instance) {
+        return System.currentTimeMillis() < instance.getHealth().ejectedUntil.get();
+    }
+
+    /**
+     * @param alpha smoothing factor of the latency average, in (0, 1]
+     */
+    public void setAlpha(double alpha) {
+        if ((alpha <= 0) || (alpha > 1)) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+        }
+        this.alpha = alpha;
+    }
+
+    /**
+     * @param maxConsecutiveFailures failures in a row after which an instance is ejected, 0 to not
+     *        eject on failures
+     */
+    public void setMaxConsecutiveFailures(int maxConsecutiveFailures) {
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+    }
+
+    /**
+     * @param maxLatencyMillis average latency in ms above which an instance is ejected, 0 to not
+     *        eject on latency
+     */
+    public void setMaxLatencyMillis(long maxLatencyMillis) {
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    /**
+     * @param baseEjectionMillis duration of the first ejection in ms
+     */
+    public void setBaseEjectionMillis(long baseEjectionMillis) {
+        if (baseEjectionMillis <= 0) {
+            throw new IllegalArgumentException("baseEjectionMillis must be positive: " + baseEjectionMillis);
+        }
+        this.baseEjectionMillis = baseEjectionMillis;
+    }
+
+    /**
+     * @param maxEjectionMillis longest ejection in ms
+     */
+    public void setMaxEjectionMillis(long maxEjectionMillis) {
+        this.maxEjectionMillis = maxEjectionMillis;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Matches full instance paths against a {@link DiscoveryClient} filter, giving the same result as
+ * traversing the registry with that filter.  Instances are registered at
+ * <code>directory/serviceName/id</code>, so a filter without "**" selects the instances exactly two
+ * segments below the directory it names, while a trailing "**" selects every instance below it.
+ */
+public class PathFilter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private String[] root;
+    private String[] segments;
+    private boolean recursive;
+
+    /** Root and filter segments as UTF-8, to match encoded paths in place. */
+    private byte[][] rootBytes;
+    private byte[][] segmentBytes;
+
+    /**
+     * @param basePath the base path, as given to {@link DiscoveryClient#usingBasePath(String)}
+     * @param filter a filter, as given to {@link DiscoveryClient#withCriteria(String)}
+     */
+    public PathFilter(String basePath, String filter) {
+        this.root = split(basePath);
+        String[] filterSegments = split(filter);
+
+        recursive = false;
+        for (int i = 0; i < filterSegments.length; i++) {
+            if (filterSegments[i].equals("**")) {
+                // Only supported as the last segment, anything after it is ignored by the traversal.
+                filterSegments = Arrays.copyOfRange(filterSegments, 0, i);
+                recursive = true;
+                break;
+            }
+        }
+        this.segments = filterSegments;
+        this.rootBytes = encode(root);
+        this.segmentBytes = encode(segments);
+    }
+
+    private static byte[][] encode(String[] segments) {
+        byte[][] encoded = new byte[segments.length][];
+
+        for (int i = 0; i < segments.length; i++) {
+            encoded[i] = segments[i].getBytes(UTF8);
+        }
+
+        return encoded;
+    }
+
+    /**
+     * @return the path every instance the filter selects starts with, i.e. the base path and the
+     *         filter up to its first wildcard, with a trailing slash.
+     */
+    public String getPrefix() {
+        StringBuilder buff = new StringBuilder("/");
+
+        for (String segment : root) {
+            buff.append(segment).append('/');
+        }
+        for (String segment : segments) {
+            if (segment.equals("*")) {
+                break;
+            }
+            buff.append(segment).append('/');
+        }
+
+        return buff.toString();
+    }
+
+    /**
+     * @param path full path of an instance node
+     * @return true if the filter selects the instance
+     */
+    public boolean matches(String path) {
+        int prefix = root.length + segments.length;
+        int index = 0;
+        int start = skipSlashes(path, 0);
+
+        // Segment by segment in place, this is called for every instance of a snapshot.
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+
+            if (end < 0) {
+                end = path.length();
+            }
+
+            if (index < root.length) {
+                if (!segmentEquals(path, start, end, root[index])) {
+                    return false;
+                }
+            } else if (index < prefix) {
+                String segment = segments[index - root.length];
+
+                if (!segment.equals("*") && !segmentEquals(path, start, end, segment)) {
+                    return false;
+                }
+            }
+
+            index++;
+            start = skipSlashes(path, end);
+        }
+
+        int remaining = index - prefix;
+
+        return (remaining == 2) || (recursive && (remaining > 2));
+    }
+
+    /**
+     * Like {@link #matches(String)}, for a path encoded as UTF-8, e.g. in a mapped file.  A slash
+     * byte never occurs inside a multi-byte character, so the path is split on the bytes alone.
+     *
+     * @param buffer the buffer holding the path
+     * @param offset the offset of the path
+     * @param length the length of the path in bytes
+     * @return true if the filter selects the instance
+     */
+    boolean matches(ByteBuffer buffer, int offset, int length) {
+        int prefix = root.length + segments.length;
+        int index = 0;
+        int limit = offset + length;
+        int start = skipSlashes(buffer, offset, limit);
+
+        while (start < limit) {
+            int end = start;
+
+            while ((end < limit) && (buffer.get(end) != '/')) {
+                end++;
+            }
+
+            if (index < root.length) {
+                if (!segmentEquals(buffer, start, end, rootBytes[index])) {
+                    return false;
+                }
+            } else if (index < prefix) {
+                int segment = index - root.length;
+
+                if (!segments[segment].equals("*") && !segmentEquals(buffer, start, end, segmentBytes[segment])) {
+                    return false;
+                }
+            }
+
+            index++;
+            start = skipSlashes(buffer, end, limit);
+        }
+
+        int remaining = index - prefix;
+
+        return (remaining == 2) || (recursive && (remaining > 2));
+    }
+
+    private static int skipSlashes(ByteBuffer buffer, int index, int limit) {
+        while ((index < limit) && (buffer.get(index) == '/')) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private static boolean segmentEquals(ByteBuffer buffer, int start, int end, byte[] segment) {
+        if ((end - start) != segment.length) {
+            return false;
+        }
+
+        for (int i = 0; i < segment.length; i++) {
+            if (buffer.get(start + i) != segment[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int skipSlashes(String path, int index) {
+        while ((index < path.length()) && (path.charAt(index) == '/')) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private static boolean segmentEquals(String path, int start, int end, String segment) {
+        return ((end - start) == segment.length()) && path.regionMatches(start, segment, 0, segment.length());
+    }
+
+    private static String[] split(String path) {
+        String trimmed = path.replaceAll("^/+", "").replaceAll("/+$", "");
+
+        return (trimmed.length() == 0) ? new String[0] : trimmed.split("/+");
+    }
+
+    @Override
+    public String toString() {
+        return "/" + join(root) + "/" + join(segments) + (recursive ? "/**" : "");
+    }
+
+    private static String join(String[] segments) {
+        StringBuilder buff = new StringBuilder();
+
+        for (String segment : segments) {
+            if (buff.length() > 0) {
+                buff.append("/");
+            }
+            buff.append(segment);
+        }
+
+        return buff.toString();
+    }
+}
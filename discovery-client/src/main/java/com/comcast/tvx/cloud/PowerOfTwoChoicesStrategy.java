@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples two candidates at random and picks the one with fewer requests in flight.  Nearly as
+ * good as picking the least loaded of all, without looking at all, and without the herding of
+ * every client picking the same least loaded instance.
+ */
+public class PowerOfTwoChoicesStrategy implements SelectionStrategy {
+
+    /** Null to use the random of the calling thread, as callers pick concurrently. */
+    private final Random random;
+
+    public PowerOfTwoChoicesStrategy() {
+        this(null);
+    }
+
+    /**
+     * @param random source of randomness, e.g. seeded for tests
+     */
+    public PowerOfTwoChoicesStrategy(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public Instance select(Instance[] candidates) {
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+
+        Random random = (this.random == null) ? ThreadLocalRandom.current() : this.random;
+
+        int first = random.nextInt(candidates.length);
+        // A second, different candidate.
+        int second = (first + 1 + random.nextInt(candidates.length - 1)) % candidates.length;
+
+        return (candidates[second].getInFlight() < candidates[first].getInFlight())
+                ? candidates[second] : candidates[first];
+    }
+}
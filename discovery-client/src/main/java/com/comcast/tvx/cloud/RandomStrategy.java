@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks a candidate uniformly at random.
+ */
+public class RandomStrategy implements SelectionStrategy {
+
+    /** Null to use the random of the calling thread, as callers pick concurrently. */
+    private final Random random;
+
+    public RandomStrategy() {
+        this(null);
+    }
+
+    /**
+     * @param random source of randomness, e.g. seeded for tests
+     */
+    public RandomStrategy(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public Instance select(Instance[] candidates) {
+        Random random = (this.random == null) ? ThreadLocalRandom.current() : this.random;
+        return candidates[random.nextInt(candidates.length)];
+    }
+}
@@ -18,17 +18,28 @@ package com.comcast.tvx.cloud;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Throwables;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.x.discovery.ServiceDiscovery;
 import org.apache.curator.x.discovery.ServiceInstance;
+import org.apache.curator.x.discovery.details.InstanceSerializer;
+import org.apache.curator.x.discovery.details.JsonInstanceSerializer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,6 +79,33 @@ public final class RegistrationClient {
     /** Payload parameters." */
     private Map<String, String> parameters;
 
+    /** Instances registered with background operations, by path. */
+    private final Map<String, ServiceInstance<MetaData>> backgroundRegistrations =
+        new ConcurrentHashMap<String, ServiceInstance<MetaData>>();
+
+    /** Serializes instances registered with background operations. */
+    private final InstanceSerializer<MetaData> serializer = new JsonInstanceSerializer<MetaData>(MetaData.class);
+
+    /** Whether the re-registration listener was added. */
+    private final AtomicBoolean listening = new AtomicBoolean(false);
+
+    /** Creates background registrations again after a reconnect, their nodes are gone if the session expired. */
+    private final ConnectionStateListener reRegistration = new ConnectionStateListener() {
+
+        @Override
+        public void stateChanged(CuratorFramework client, ConnectionState newState) {
+            if (newState == ConnectionState.RECONNECTED) {
+                for (Map.Entry<String, ServiceInstance<MetaData>> entry : backgroundRegistrations.entrySet()) {
+                    create(entry.getKey(), entry.getValue()).whenComplete((v, error) -> {
+                        if ((error != null) && !(error instanceof KeeperException.NodeExistsException)) {
+                            log.error("Re-registration exception: ", error);
+                        }
+                    });
+                }
+            }
+        }
+    };
+
     /**
      * Instantiates a new registration client.
      *
@@ -192,6 +230,70 @@ public final class RegistrationClient {
 
             log.debug(found.getName() + " is verified at: " + found.getAddress() + ":" + found.getPort());
         }
+
+        for (Map.Entry<String, ServiceInstance<MetaData>> entry : backgroundRegistrations.entrySet()) {
+            if (curatorFramework.checkExists().forPath(entry.getKey()) == null) {
+                throw new RuntimeException("There is no instance for: " + entry.getValue().getName() + ":" +
+                                           entry.getValue().getId() + " registered ");
+            }
+        }
+    }
+
+    /**
+     * Mark all registered instances as draining.  Load balancers stop sending new connections
+     * while the instances stay registered, so in-flight requests can complete before
+     * {@link #deAdvertiseAvailability()} removes them.
+     *
+     * @return  the registration client
+     */
+    public RegistrationClient drain() {
+
+        for (Map.Entry<ServiceDiscovery<MetaData>, ServiceInstance<MetaData>> entry : discoveryMap.entrySet()) {
+            ServiceInstance<MetaData> instance = entry.getValue();
+
+            try {
+                instance.getPayload().setDraining(true);
+                entry.getKey().updateService(instance);
+                log.info("draining service: " + instance.getName());
+            } catch (Exception e) {
+                log.error("Drain exception: ", e);
+            }
+        }
+
+        for (Map.Entry<String, ServiceInstance<MetaData>> entry : backgroundRegistrations.entrySet()) {
+            try {
+                entry.getValue().getPayload().setDraining(true);
+                curatorFramework.setData().forPath(entry.getKey(), serializer.serialize(entry.getValue()));
+                log.info("draining service: " + entry.getValue().getName());
+            } catch (Exception e) {
+                log.error("Drain exception: ", e);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Drain, wait for the drain period and de advertise availability.
+     *
+     * @param   drainPeriod  milliseconds to wait between draining and removal, 0 to remove immediately
+     *
+     * @return  the registration client
+     */
+    public RegistrationClient drainAndDeAdvertise(long drainPeriod) {
+
+        if (drainPeriod > 0) {
+            drain();
+
+            try {
+                Thread.sleep(drainPeriod);
+            } catch (InterruptedException e) {
+                log.warn("Drain period interrupted, de-registering now.");
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return deAdvertiseAvailability();
     }
 
     /**
@@ -218,9 +320,269 @@ public final class RegistrationClient {
             }
         }
 
+        for (String path : new ArrayList<String>(backgroundRegistrations.keySet())) {
+            backgroundRegistrations.remove(path);
+
+            try {
+                curatorFramework.delete().forPath(path);
+            } catch (KeeperException.NoNodeException ignore) {
+            } catch (Exception e) {
+                log.error("Unregistration exception: ", e);
+            }
+        }
+
         return this;
     }
 
+    /**
+     * Advertise availability without blocking, see {@link #advertiseAvailabilityAsync(long, TimeUnit)}.
+     *
+     * @return  a future of the registration client
+     */
+    public CompletableFuture<RegistrationClient> advertiseAvailabilityAsync() {
+        return advertiseAvailabilityAsync(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Advertise availability without blocking, with Curator background operations.  The future
+     * completes on a ZooKeeper event thread, exceptionally with an IllegalStateException if an
+     * instance is registered at the same address and port already.  If any instance cannot be
+     * registered, the ones that were are removed again before the future fails, and the client can
+     * advertise again.
+     *
+     * @param   timeout  time until the future fails with a TimeoutException, 0 for no limit
+     * @param   unit     the unit of the timeout
+     *
+     * @return  a future of the registration client
+     */
+    public CompletableFuture<RegistrationClient> advertiseAvailabilityAsync(long timeout, TimeUnit unit) {
+
+        if (active.getAndSet(true)) {
+            return failed(new IllegalStateException("This client instance is already advertising."));
+        }
+
+        final List<String> paths = new ArrayList<String>();
+        final List<CompletableFuture<Void>> registrations = new ArrayList<CompletableFuture<Void>>();
+
+        try {
+            if (curatorFramework.getState() != CuratorFrameworkState.STARTED) {
+                curatorFramework.start();
+            }
+            if (!listening.getAndSet(true)) {
+                curatorFramework.getConnectionStateListenable().addListener(reRegistration);
+            }
+
+            for (Map.Entry<String, Integer> entry : services.entrySet()) {
+                final String serviceName = entry.getKey();
+                final String regPath = constructRegistrationPath(basePath, flavor);
+                ServiceInstance<MetaData> service = ServiceUtil.getServiceInstance(serviceName,
+                        entry.getValue().intValue(), listenAddress, parameters);
+
+                // The id is address:port, so an instance at the same address and port has the same path.
+                String path = regPath + "/" + serviceName + "/" + service.getId();
+                paths.add(path);
+                registrations.add(create(path, service)
+                    .exceptionally(error -> {
+                        if (error instanceof KeeperException.NodeExistsException) {
+                            throw new IllegalStateException("Duplicate service being registered. for service: " +
+                                                            serviceName + " at: " + regPath);
+                        }
+                        throw Throwables.propagate(error);
+                    }));
+            }
+        } catch (Exception e) {
+            registrations.add(failed(e));
+        }
+
+        // Settles once every creation did, successful or not.
+        CompletableFuture<Void> all = CompletableFuture.allOf(registrations.toArray(new CompletableFuture[0]));
+
+        return FutureTimeouts.within(all.handle((v, error) -> error).thenCompose(error -> {
+            if (error == null) {
+                return CompletableFuture.completedFuture(this);
+            }
+
+            return rollBack(paths, registrations).thenApply(v -> {
+                throw Throwables.propagate(error);
+            });
+        }), timeout, unit);
+    }
+
+    /*
+     * Remove the instances of a failed advertisement that were registered, so that it can be
+     * retried.  The paths are those of the registrations, in order.
+     */
+    private CompletableFuture<Void> rollBack(List<String> paths, List<CompletableFuture<Void>> registrations) {
+        List<CompletableFuture<Void>> deletes = new ArrayList<CompletableFuture<Void>>();
+
+        for (int i = 0; i < paths.size(); i++) {
+            if (!registrations.get(i).isCompletedExceptionally()) {
+                backgroundRegistrations.remove(paths.get(i));
+                deletes.add(delete(paths.get(i)));
+            }
+        }
+
+        return CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0])).thenRun(() -> active.set(false));
+    }
+
+    /**
+     * Verify services are registered without blocking, see {@link #verifyRegistrations()}.
+     *
+     * @return  a future completing exceptionally if an instance is not registered
+     */
+    public CompletableFuture<Void> verifyRegistrationsAsync() {
+        return verifyRegistrationsAsync(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Verify services are registered without blocking, see {@link #verifyRegistrations()}.
+     *
+     * @param   timeout  time until the future fails with a TimeoutException, 0 for no limit
+     * @param   unit     the unit of the timeout
+     *
+     * @return  a future completing exceptionally if an instance is not registered
+     */
+    public CompletableFuture<Void> verifyRegistrationsAsync(long timeout, TimeUnit unit) {
+        Map<String, ServiceInstance<MetaData>> registrations = registrations();
+        List<CompletableFuture<Void>> checks = new ArrayList<CompletableFuture<Void>>();
+
+        try {
+            for (final Map.Entry<String, ServiceInstance<MetaData>> entry : registrations.entrySet()) {
+                final CompletableFuture<Void> check = new CompletableFuture<Void>();
+
+                curatorFramework.checkExists().inBackground((client, event) -> {
+                    if (event.getStat() == null) {
+                        check.completeExceptionally(new RuntimeException("There is no instance for: " +
+                                entry.getValue().getName() + ":" + entry.getValue().getId() + " registered "));
+                    } else {
+                        check.complete(null);
+                    }
+                }).forPath(entry.getKey());
+                checks.add(check);
+            }
+        } catch (Exception e) {
+            return failed(e);
+        }
+
+        return FutureTimeouts.within(CompletableFuture.allOf(checks.toArray(new CompletableFuture[0])), timeout, unit);
+    }
+
+    /**
+     * De advertise availability without blocking, see {@link #deAdvertiseAvailabilityAsync(long, TimeUnit)}.
+     *
+     * @return  a future of the registration client
+     */
+    public CompletableFuture<RegistrationClient> deAdvertiseAvailabilityAsync() {
+        return deAdvertiseAvailabilityAsync(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * De advertise availability without blocking.  Like {@link #deAdvertiseAvailability()}, errors
+     * removing an instance are logged and do not fail the future.
+     *
+     * @param   timeout  time until the future fails with a TimeoutException, 0 for no limit
+     * @param   unit     the unit of the timeout
+     *
+     * @return  a future of the registration client
+     */
+    public CompletableFuture<RegistrationClient> deAdvertiseAvailabilityAsync(long timeout, TimeUnit unit) {
+
+        active.set(false);
+
+        Map<String, ServiceInstance<MetaData>> registrations = registrations();
+        List<CompletableFuture<Void>> deletes = new ArrayList<CompletableFuture<Void>>();
+
+        backgroundRegistrations.clear();
+
+        for (String path : registrations.keySet()) {
+            deletes.add(delete(path));
+        }
+
+        // Closing a discovery object blocks, so not on the ZooKeeper event thread.
+        return FutureTimeouts.within(CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0]))
+            .thenApplyAsync(v -> {
+                for (ServiceDiscovery<MetaData> discovery : discoveryMap.keySet()) {
+                    try {
+                        discovery.close();
+                    } catch (IOException ignore) {
+                    }
+                }
+                return this;
+            }), timeout, unit);
+    }
+
+    /*
+     * Delete the node of an instance in the background.  Errors are logged, the future always
+     * completes normally.
+     */
+    private CompletableFuture<Void> delete(final String path) {
+        final CompletableFuture<Void> delete = new CompletableFuture<Void>();
+
+        try {
+            curatorFramework.delete().inBackground((client, event) -> {
+                KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+
+                if ((code != KeeperException.Code.OK) && (code != KeeperException.Code.NONODE)) {
+                    log.error("Unregistration exception: ", KeeperException.create(code, path));
+                }
+                delete.complete(null);
+            }).forPath(path);
+        } catch (Exception e) {
+            log.error("Unregistration exception: ", e);
+            delete.complete(null);
+        }
+
+        return delete;
+    }
+
+    /*
+     * Create the ephemeral node of an instance in the background.
+     */
+    private CompletableFuture<Void> create(final String path, final ServiceInstance<MetaData> service) {
+        final CompletableFuture<Void> created = new CompletableFuture<Void>();
+
+        try {
+            curatorFramework.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                .inBackground((client, event) -> {
+                    KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+
+                    if (code == KeeperException.Code.OK) {
+                        backgroundRegistrations.put(path, service);
+                        log.info("registered service: " + service.getName());
+                        created.complete(null);
+                    } else {
+                        created.completeExceptionally(KeeperException.create(code, path));
+                    }
+                }).forPath(path, serializer.serialize(service));
+        } catch (Exception e) {
+            created.completeExceptionally(e);
+        }
+
+        return created;
+    }
+
+    /*
+     * All registrations by path, synchronous and background ones.
+     */
+    private Map<String, ServiceInstance<MetaData>> registrations() {
+        Map<String, ServiceInstance<MetaData>> registrations =
+            new HashMap<String, ServiceInstance<MetaData>>(backgroundRegistrations);
+        String regPath = constructRegistrationPath(basePath, flavor);
+
+        for (ServiceInstance<MetaData> instance : discoveryMap.values()) {
+            registrations.put(regPath + "/" + instance.getName() + "/" + instance.getId(), instance);
+        }
+
+        return registrations;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(error);
+
+        return future;
+    }
+
     /**
      * Build registration path.
      *
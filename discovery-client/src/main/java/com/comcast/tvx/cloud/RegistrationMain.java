@@ -51,6 +51,9 @@ public class RegistrationMain {
     @Argument(alias = "a", description = "Availability Zone", required = false)
     private static String availabilityZone = "zone1";
 
+    @Argument(alias = "d", description = "Milliseconds to drain connections on shutdown before de-registering", required = false)
+    private static Long drainPeriod = 0L;
+
     /**
      * @param args Needs: <ul>
      *  <li> -zooKeeperConnectionString connection string (hostname:port) </li>
@@ -60,6 +63,7 @@ public class RegistrationMain {
      *  <li> [-flavor] Flavor of software (e.g. service group) </li>
      *  <li> [-region] where services are deployed </li>
      *  <li> [-availabilityZone] zones within a region </li>
+     *  <li> [-drainPeriod] milliseconds to drain on shutdown </li>
      *  </ul>
      * 
      * @throws Exception
@@ -90,7 +94,7 @@ public class RegistrationMain {
             @Override
             public void run() {
                 log.info("Normal shutdown executing.");
-                registrationClient.deAdvertiseAvailability();
+                registrationClient.drainAndDeAdvertise(drainPeriod);
                 curatorFramework.close();
                 System.exit(0);
             }
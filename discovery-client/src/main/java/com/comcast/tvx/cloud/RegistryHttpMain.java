@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.net.InetSocketAddress;
+
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Standalone driver serving the registry over HTTP, see {@link RegistryHttpServer}.
+ */
+public class RegistryHttpMain {
+
+    private static final Logger log = LoggerFactory.getLogger(RegistryHttpMain.class);
+
+    @Argument(alias = "z", description = "ZooKeeper connection string", required = true)
+    private static String zooKeeperConnectionString = null;
+
+    @Argument(alias = "r", description = "Registration root path", required = false)
+    private static String registrationRoot = Constants.DEFAULT_REGISTRATION_ROOT;
+
+    @Argument(alias = "p", description = "HTTP port", required = false)
+    private static Integer port = 8500;
+
+    @Argument(alias = "t", description = "Most requests, including long polls, served at the same time", required = false)
+    private static Integer threads = 64;
+
+    @Argument(alias = "s", description = "Milliseconds between registry refreshes", required = false)
+    private static Integer sleepInterval = 5 * 1000;
+
+    @Argument(alias = "rs", description = "ZooKeeper path of a published registry snapshot to read instead of the registry", required = false)
+    private static String snapshotPath = null;
+
+    /**
+     * @param args Needs: <ul>
+     *  <li> -zooKeeperConnectionString connection string (hostname:port) </li>
+     *  <li> [-registrationRoot] Zookeeper directory root to use </li>
+     *  <li> [-port] HTTP port </li>
+     *  <li> [-threads] concurrent requests </li>
+     *  <li> [-sleepInterval] milliseconds between refreshes </li>
+     *  <li> [-snapshotPath] published registry snapshot </li>
+     *  </ul>
+     *
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        try {
+            Args.parse(RegistryHttpMain.class, args);
+        } catch (IllegalArgumentException e) {
+            Args.usage(RegistryHttpMain.class);
+            System.exit(1);
+
+            return;
+        }
+
+        final CuratorFramework curatorFramework = CuratorClient.getCuratorFramework(zooKeeperConnectionString);
+        DiscoveryClient client = new DiscoveryClient(curatorFramework).usingBasePath(registrationRoot);
+
+        if (snapshotPath != null) {
+            client.usingSnapshot(snapshotPath);
+        }
+
+        RegistrySnapshotHolder snapshots = new RegistrySnapshotHolder(client);
+        final RegistryHttpServer server = new RegistryHttpServer(snapshots, registrationRoot,
+                new InetSocketAddress(port), threads);
+        snapshots.run();
+        server.run();
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                log.info("Normal shutdown executing.");
+                server.close();
+                curatorFramework.close();
+            }
+        });
+
+        while (true) {
+            try {
+                Thread.sleep(sleepInterval);
+            } catch (InterruptedException e) {
+                log.error(e.getMessage(), e);
+
+                return;
+            }
+            snapshots.run();
+            server.run();
+        }
+    }
+}
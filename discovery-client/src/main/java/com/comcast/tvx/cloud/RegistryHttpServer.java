@@ -0,0 +1,377 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the registry as JSON over HTTP, so that tools and non-JVM consumers do not need a
+ * ZooKeeper session of their own.
+ *
+ * <pre>
+ * GET /instances[?filter=east/**&amp;filter=west/zone1/x][&amp;waitForChangeAfter=version[&amp;timeout=ms]]
+ *
+ * {"version": 12, "timestamp": 1400000000000, "stale": false, "instances": {"/path/to/id": {...}}}
+ * </pre>
+ *
+ * Filters are {@link DiscoveryClient} filters relative to the base path.  The version changes
+ * only when the registry content does.  The ETag is the version qualified by an epoch chosen when
+ * the server starts, as versions start over with it, and a matching If-None-Match is answered with
+ * 304.  With waitForChangeAfter the request is answered once the version served is another than
+ * the given one, e.g. from before a restart, or with 304 when the timeout expires.  Long polls are
+ * parked until then without holding a thread.
+ */
+public class RegistryHttpServer implements Runnable, Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(RegistryHttpServer.class);
+
+    static final String CONTEXT = "/instances";
+    static final long DEFAULT_TIMEOUT = 30 * 1000;
+    static final long MAX_TIMEOUT = 5 * 60 * 1000;
+
+    private RegistrySnapshotHolder snapshots;
+    private String basePath;
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledThreadPoolExecutor timer;
+    private ObjectMapper mapper = new ObjectMapper();
+
+    /** Qualifies the versions in ETags, which start over with every server. */
+    private final String epoch = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+
+    /** Snapshot served, null until the first update. */
+    private RegistrySnapshot snapshot;
+    private boolean stale;
+
+    /** Long polls waiting for another version. */
+    private List<LongPoll> parked = new ArrayList<LongPoll>();
+
+    /**
+     * @param snapshots snapshots of the instances to serve, usually the whole registration root,
+     * refreshed by the caller
+     * @param basePath base path the filters of requests are relative to
+     * @param address address to listen on
+     * @param threads most requests answered at the same time, parked long polls hold none
+     * @throws IOException if the address cannot be bound
+     */
+    public RegistryHttpServer(RegistrySnapshotHolder snapshots, String basePath, InetSocketAddress address,
+        int threads) throws IOException {
+        this.snapshots = snapshots;
+        this.basePath = basePath;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.timer = new ScheduledThreadPoolExecutor(1);
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(executor);
+        this.server.createContext(CONTEXT, new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean parked = false;
+
+                try {
+                    parked = serve(exchange);
+                } catch (NumberFormatException e) {
+                    respond(exchange, 400, null);
+                } catch (Exception e) {
+                    logger.error("An error occurred serving " + exchange.getRequestURI(), e);
+                    respond(exchange, 500, null);
+                } finally {
+                    if (!parked) {
+                        exchange.close();
+                    }
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        logger.info("serving the registry at http://" + server.getAddress() + CONTEXT);
+    }
+
+    /**
+     * @return the bound address, e.g. to find the port when started on port 0.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Serve the latest snapshot of the holder.
+     */
+    @Override
+    public void run() {
+        boolean stale = snapshots.isStale();
+
+        update(snapshots.get(), stale);
+    }
+
+    /**
+     * @param next the snapshot to serve
+     * @param stale whether it came from a local snapshot rather than ZooKeeper
+     * @return true if a new version is served.
+     */
+    synchronized boolean update(RegistrySnapshot next, boolean stale) {
+        if ((next == null) || (next == snapshot)) {
+            return false;
+        }
+
+        snapshot = next;
+        this.stale = stale;
+
+        for (LongPoll poll : parked) {
+            poll.timeout.cancel(false);
+            answerLater(poll);
+        }
+        parked.clear();
+
+        return true;
+    }
+
+    /*
+     * True if the request was parked as a long poll, to be answered and closed later.
+     */
+    private boolean serve(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, null);
+            return false;
+        }
+
+        if (!exchange.getRequestURI().getPath().equals(CONTEXT)) {
+            respond(exchange, 404, null);
+            return false;
+        }
+
+        Map<String, List<String>> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        if (parameters.containsKey("waitForChangeAfter")) {
+            long version = Long.parseLong(parameters.get("waitForChangeAfter").get(0));
+            long timeout = Math.min(MAX_TIMEOUT, parameters.containsKey("timeout")
+                    ? Long.parseLong(parameters.get("timeout").get(0)) : DEFAULT_TIMEOUT);
+
+            if (park(new LongPoll(exchange, parameters, version), timeout)) {
+                return true;
+            }
+        }
+
+        answer(exchange, parameters);
+
+        return false;
+    }
+
+    /*
+     * False if there is nothing to wait for: the client does not have the version served, or no
+     * time is left.
+     */
+    private synchronized boolean park(final LongPoll poll, long timeout) {
+        if (((snapshot != null) && !isCurrent(poll.exchange, poll.version, snapshot)) || (timeout <= 0)) {
+            return false;
+        }
+
+        poll.timeout = timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (RegistryHttpServer.this) {
+                    if (!parked.remove(poll)) {
+                        return;
+                    }
+                }
+                answerLater(poll);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        parked.add(poll);
+
+        return true;
+    }
+
+    private void answerLater(final LongPoll poll) {
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        answer(poll.exchange, poll.parameters);
+                    } catch (Exception e) {
+                        logger.error("An error occurred serving " + poll.exchange.getRequestURI(), e);
+                    } finally {
+                        poll.exchange.close();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile.
+            poll.exchange.close();
+        }
+    }
+
+    private void answer(HttpExchange exchange, Map<String, List<String>> parameters) throws IOException {
+        RegistrySnapshot current;
+        boolean currentStale;
+
+        synchronized (this) {
+            current = snapshot;
+            currentStale = stale;
+        }
+
+        if (current == null) {
+            respond(exchange, 503, null);
+            return;
+        }
+
+        exchange.getResponseHeaders().set("ETag", etag(current));
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+
+        long version = parameters.containsKey("waitForChangeAfter")
+                ? Long.parseLong(parameters.get("waitForChangeAfter").get(0)) : -1;
+
+        if (isCurrent(exchange, version, current)) {
+            respond(exchange, 304, null);
+            return;
+        }
+
+        List<String> filters = parameters.containsKey("filter") ? parameters.get("filter") : new ArrayList<String>();
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("version", current.getVersion());
+        body.put("timestamp", current.getTimestamp());
+        body.put("stale", currentStale);
+        body.put("instances", current.select(basePath, filters));
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        respond(exchange, 200, mapper.writeValueAsBytes(body));
+    }
+
+    private String etag(RegistrySnapshot current) {
+        return "\"" + epoch + "-" + current.getVersion() + "\"";
+    }
+
+    /*
+     * Whether the client has the given snapshot already: by its ETag if it sent one, which a
+     * restarted server does not match, else by the version it waits for a change after, -1 if none.
+     */
+    private boolean isCurrent(HttpExchange exchange, long version, RegistrySnapshot current) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, etag(current));
+        }
+
+        return current.getVersion() == version;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            if (tag.trim().equals(etag) || tag.trim().equals("*")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    static Map<String, List<String>> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
+
+        if (query == null) {
+            return parameters;
+        }
+
+        for (String pair : query.split("&")) {
+            if (pair.length() == 0) {
+                continue;
+            }
+
+            int index = pair.indexOf('=');
+            String name = URLDecoder.decode((index < 0) ? pair : pair.substring(0, index), "UTF-8");
+            String value = (index < 0) ? "" : URLDecoder.decode(pair.substring(index + 1), "UTF-8");
+
+            if (!parameters.containsKey(name)) {
+                parameters.put(name, new ArrayList<String>());
+            }
+            parameters.get(name).add(value);
+        }
+
+        return parameters;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * A request waiting for a version other than the given one.
+     */
+    private static class LongPoll {
+
+        final HttpExchange exchange;
+        final Map<String, List<String>> parameters;
+        final long version;
+
+        ScheduledFuture<?> timeout;
+
+        LongPoll(HttpExchange exchange, Map<String, List<String>> parameters, long version) {
+            this.exchange = exchange;
+            this.parameters = parameters;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable indexes over a {@link RegistrySnapshot}, built once so that lookups cost in proportion
+ * to the instances found rather than to the size of the registry.  Instances are indexed by the
+ * {@link ServiceClassifier} dimensions of their path, <code>.../region/zone/group/name/id</code>,
+ * by {@link MetaData#getServiceName()}, trimmed and in lower case, and by the values of the
+ * selected {@link MetaData#getParameters()} keys.
+ *
+ * <p>A lookup walks the shortest of the lists of the given criteria and checks the others per
+ * instance, so it costs in proportion to the most selective criterion.  Results keep the path
+ * order of the snapshot.</p>
+ */
+public final class RegistryIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private static final int REGION = 0;
+    private static final int ZONE = 1;
+    private static final int GROUP = 2;
+    private static final int NAME = 3;
+
+    private final long version;
+    private final CompactInstanceStore instances;
+
+    /** Per dimension, value to the ordinals of the instances having it, in path order. */
+    private final Map<String, int[]>[] dimensions;
+    private final Map<String, int[]> serviceNames;
+    private final Map<String, Map<String, int[]>> parameters;
+
+    /**
+     * @param snapshot the snapshot to index
+     * @param parameterKeys the parameter keys to index, e.g. "version"
+     */
+    @SuppressWarnings("unchecked")
+    public RegistryIndex(RegistrySnapshot snapshot, String... parameterKeys) {
+        this.version = snapshot.getVersion();
+        this.instances = snapshot.getStore();
+
+        Map<String, IntList>[] dimensionLists = new Map[4];
+        for (int d = 0; d < dimensionLists.length; d++) {
+            dimensionLists[d] = new HashMap<String, IntList>();
+        }
+        Map<String, IntList> serviceNameLists = new HashMap<String, IntList>();
+        Map<String, Map<String, IntList>> parameterLists = new HashMap<String, Map<String, IntList>>();
+        for (String key : parameterKeys) {
+            parameterLists.put(key, new HashMap<String, IntList>());
+        }
+
+        int i = 0;
+        for (Map.Entry<String, MetaData> entry : instances.entrySet()) {
+            // Counted from the id at the end, the base path may have any depth.
+            String[] segments = entry.getKey().split("/+");
+            for (int d = 0; d < dimensionLists.length; d++) {
+                int segment = segments.length - 5 + d;
+
+                if (segment >= 0) {
+                    add(dimensionLists[d], segments[segment], i);
+                }
+            }
+
+            MetaData value = entry.getValue();
+            if ((value != null) && (value.getServiceName() != null)) {
+                add(serviceNameLists, normalize(value.getServiceName()), i);
+            }
+            if ((value != null) && (value.getParameters() != null)) {
+                for (Map.Entry<String, Map<String, IntList>> key : parameterLists.entrySet()) {
+                    String parameter = value.getParameters().get(key.getKey());
+
+                    if (parameter != null) {
+                        add(key.getValue(), parameter, i);
+                    }
+                }
+            }
+            i++;
+        }
+
+        this.dimensions = new Map[dimensionLists.length];
+        for (int d = 0; d < dimensionLists.length; d++) {
+            dimensions[d] = freeze(dimensionLists[d]);
+        }
+        this.serviceNames = freeze(serviceNameLists);
+        this.parameters = new HashMap<String, Map<String, int[]>>();
+        for (Map.Entry<String, Map<String, IntList>> key : parameterLists.entrySet()) {
+            parameters.put(key.getKey(), freeze(key.getValue()));
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    /**
+     * @return the service names, trimmed and in lower case.
+     */
+    public Set<String> getServiceNames() {
+        return Collections.unmodifiableSet(serviceNames.keySet());
+    }
+
+    /**
+     * @param serviceName a service name as in the payload, compared ignoring case and surrounding blanks
+     * @return full paths to payload of the instances of the service.
+     */
+    public Map<String, MetaData> findByServiceName(String serviceName) {
+        return collect(lookup(serviceNames, normalize(serviceName)));
+    }
+
+    /**
+     * @param classifier region, zone, group and name to match, "*" or "**" matching any
+     * @return full paths to payload of the matching instances.
+     */
+    public Map<String, MetaData> find(ServiceClassifier classifier) {
+        return find(classifier, Collections.<String, String> emptyMap());
+    }
+
+    /**
+     * @param classifier region, zone, group and name to match, "*" or "**" matching any
+     * @param parameterValues values the indexed parameters must have, e.g. version=2.3
+     * @return full paths to payload of the matching instances.
+     * @exception IllegalArgumentException if a parameter key is not indexed.
+     */
+    public Map<String, MetaData> find(ServiceClassifier classifier, Map<String, String> parameterValues) {
+        String[] values = { classifier.getRegion(), classifier.getZone(), classifier.getGroup(), classifier.getName() };
+        int criteria = parameterValues.size();
+
+        for (String value : values) {
+            if (!isWildcard(value)) {
+                criteria++;
+            }
+        }
+
+        if (criteria == 0) {
+            int[] all = new int[instances.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return collect(all);
+        }
+
+        int[][] lists = new int[criteria][];
+        int c = 0;
+
+        for (int d = 0; d < values.length; d++) {
+            if (!isWildcard(values[d])) {
+                lists[c++] = lookup(dimensions[d], values[d]);
+            }
+        }
+        for (Map.Entry<String, String> parameter : parameterValues.entrySet()) {
+            Map<String, int[]> index = parameters.get(parameter.getKey());
+
+            if (index == null) {
+                throw new IllegalArgumentException("Parameter not indexed: " + parameter.getKey());
+            }
+            lists[c++] = lookup(index, parameter.getValue());
+        }
+
+        // Most selective first, then check membership of the others by binary search.
+        Arrays.sort(lists, new Comparator<int[]>() {
+
+            @Override
+            public int compare(int[] a, int[] b) {
+                return (a.length < b.length) ? -1 : ((a.length == b.length) ? 0 : 1);
+            }
+        });
+
+        IntList result = new IntList();
+        for (int ordinal : lists[0]) {
+            boolean matches = true;
+
+            for (int l = 1; matches && (l < lists.length); l++) {
+                matches = Arrays.binarySearch(lists[l], ordinal) >= 0;
+            }
+            if (matches) {
+                result.add(ordinal);
+            }
+        }
+
+        return collect(result.toArray());
+    }
+
+    private Map<String, MetaData> collect(int[] ordinals) {
+        Map<String, MetaData> result = new LinkedHashMap<String, MetaData>(ordinals.length * 2);
+
+        for (int ordinal : ordinals) {
+            result.put(instances.path(ordinal), instances.metaData(ordinal));
+        }
+
+        return result;
+    }
+
+    private static boolean isWildcard(String value) {
+        return (value == null) || value.equals("*") || value.equals("**");
+    }
+
+    private static String normalize(String serviceName) {
+        return serviceName.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static int[] lookup(Map<String, int[]> index, String value) {
+        int[] ordinals = index.get(value);
+
+        return (ordinals == null) ? NONE : ordinals;
+    }
+
+    private static void add(Map<String, IntList> lists, String value, int ordinal) {
+        IntList list = lists.get(value);
+
+        if (list == null) {
+            list = new IntList();
+            lists.put(value, list);
+        }
+        list.add(ordinal);
+    }
+
+    private static Map<String, int[]> freeze(Map<String, IntList> lists) {
+        Map<String, int[]> result = new HashMap<String, int[]>(lists.size() * 2);
+
+        for (Map.Entry<String, IntList> entry : lists.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray());
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RegistryIndex [version=" + version + ", size=" + instances.size() + ", parameters="
+                + parameters.keySet() + "]";
+    }
+
+    /** Growable list of ordinals, added in increasing order. */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
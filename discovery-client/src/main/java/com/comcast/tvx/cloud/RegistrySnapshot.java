@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable, versioned view of the registry: full instance paths mapped to their payload.  The
+ * instances are held in a {@link CompactInstanceStore}, paths and MetaData are built on first
+ * access and shared between all readers of a snapshot, so they must not be modified; their
+ * parameter maps are unmodifiable.
+ */
+public final class RegistrySnapshot {
+
+    private final long version;
+    private final long timestamp;
+    private final long zxid;
+    private final CompactInstanceStore instances;
+
+    /**
+     * @param version monotonically increasing version of the registry content
+     * @param timestamp milliseconds since the epoch the snapshot was taken at
+     * @param instances full path to payload, as returned by {@link DiscoveryClient#findInstances()}
+     */
+    public RegistrySnapshot(long version, long timestamp, Map<String, MetaData> instances) {
+        this(version, timestamp, 0, instances);
+    }
+
+    /**
+     * @param version monotonically increasing version of the registry content
+     * @param timestamp milliseconds since the epoch the snapshot was taken at
+     * @param zxid ZooKeeper transaction the content reflects, 0 if unknown
+     * @param instances full path to payload, as returned by {@link DiscoveryClient#findInstances()}
+     */
+    public RegistrySnapshot(long version, long timestamp, long zxid, Map<String, MetaData> instances) {
+        this.version = version;
+        this.timestamp = timestamp;
+        this.zxid = zxid;
+        this.instances = CompactInstanceStore.of(instances);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the ZooKeeper transaction the content reflects, 0 if unknown.
+     */
+    public long getZxid() {
+        return zxid;
+    }
+
+    /**
+     * @return a sorted, unmodifiable map of full paths to payload.
+     */
+    public SortedMap<String, MetaData> getInstances() {
+        return instances;
+    }
+
+    CompactInstanceStore getStore() {
+        return instances;
+    }
+
+    public int size() {
+        return instances.size();
+    }
+
+    /**
+     * Select the instances a {@link DiscoveryClient} with the given base path and filters would find.
+     *
+     * @param basePath the base path
+     * @param filters the filters, "**" if empty
+     * @return a new sorted map of full paths to payload.
+     */
+    public Map<String, MetaData> select(String basePath, List<String> filters) {
+        List<PathFilter> pathFilters = new ArrayList<PathFilter>();
+
+        for (String filter : filters.isEmpty() ? Collections.singletonList("**") : filters) {
+            pathFilters.add(new PathFilter(basePath, filter));
+        }
+
+        Map<String, MetaData> result = new TreeMap<String, MetaData>();
+
+        for (Map.Entry<String, MetaData> entry : instances.entrySet()) {
+            for (PathFilter pathFilter : pathFilters) {
+                if (pathFilter.matches(entry.getKey())) {
+                    result.put(entry.getKey(), entry.getValue());
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param parameterKeys the parameter keys to index as well
+     * @return indexes over this snapshot.
+     */
+    public RegistryIndex index(String... parameterKeys) {
+        return new RegistryIndex(this, parameterKeys);
+    }
+
+    @Override
+    public String toString() {
+        return "RegistrySnapshot [version=" + version + ", timestamp=" + timestamp + ", zxid=" + zxid + ", size="
+                + instances.size() + "]";
+    }
+}
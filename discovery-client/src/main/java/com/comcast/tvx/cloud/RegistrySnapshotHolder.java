@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the latest {@link RegistrySnapshot} of what a {@link DiscoveryClient} finds.  A single
+ * writer, {@link #refresh()} or the schedule running this, builds the next snapshot off to the side
+ * and publishes it with one volatile write; readers on any thread get a consistent, immutable view
+ * without locking and without walking ZooKeeper themselves.
+ *
+ * <p>The version increases by one with every change of content and never otherwise, so comparing
+ * versions is a cheap check for changes.  Each snapshot carries the highest zxid the client saw
+ * while walking the registry.  Everything that versions the registry, the snapshot and shared
+ * registry publishers, the local snapshot, the HTTP server and the DNS zone, does so through a
+ * holder.</p>
+ */
+public class RegistrySnapshotHolder implements Runnable {
+
+    private static Logger logger = LoggerFactory.getLogger(RegistrySnapshotHolder.class);
+
+    private final DiscoveryClient source;
+
+    private volatile RegistrySnapshot snapshot;
+
+    /** Whether the latest snapshot came from a local snapshot rather than ZooKeeper. */
+    private volatile boolean stale;
+
+    /** Version of the latest snapshot, or the version to continue after. */
+    private long version;
+
+    /** Instances of the latest snapshot, null to publish the next update. */
+    private Map<String, MetaData> content;
+
+    /**
+     * Holder fed through {@link #update(Map, boolean, long)} only.
+     */
+    public RegistrySnapshotHolder() {
+        this(null);
+    }
+
+    /**
+     * @param source the client to take snapshots of
+     */
+    public RegistrySnapshotHolder(DiscoveryClient source) {
+        this.source = source;
+    }
+
+    /**
+     * @return the latest snapshot, null before the first refresh.
+     */
+    public RegistrySnapshot get() {
+        return snapshot;
+    }
+
+    /**
+     * @return the version of the latest snapshot, 0 before the first refresh.
+     */
+    public long getVersion() {
+        RegistrySnapshot current = snapshot;
+
+        return (current == null) ? 0 : current.getVersion();
+    }
+
+    /**
+     * @param version a version seen before
+     * @return true if a newer snapshot was published since.
+     */
+    public boolean hasChangedSince(long version) {
+        return getVersion() > version;
+    }
+
+    /**
+     * @return true if the latest snapshot came from a local snapshot rather than ZooKeeper.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Continue from a snapshot published before, e.g. one loaded from a file: it becomes the latest,
+     * and the next change is published with the version after it.
+     *
+     * @param previous the snapshot
+     */
+    public synchronized void continueFrom(RegistrySnapshot previous) {
+        version = previous.getVersion();
+        content = previous.getInstances();
+        snapshot = previous;
+    }
+
+    /**
+     * Continue after a version published elsewhere whose content is unknown, e.g. by another
+     * publisher: the next update is published with the version after it, changed or not.
+     *
+     * @param previous the version, 0 if none
+     */
+    public synchronized void continueAfter(long previous) {
+        version = previous;
+        content = null;
+    }
+
+    /**
+     * Take a snapshot of the source and publish it if its content changed.
+     *
+     * @return true if a new snapshot was published.
+     */
+    public synchronized boolean refresh() {
+        Map<String, MetaData> instances = source.findInstances();
+
+        return publish(instances, source.isStale(), source.getZxid());
+    }
+
+    /**
+     * Publish the given instances if they differ from the latest snapshot.
+     *
+     * @param instances the current instances
+     * @param stale whether they came from a local snapshot rather than ZooKeeper
+     * @param zxid the ZooKeeper transaction they reflect, 0 if unknown
+     * @return true if a new snapshot was published.
+     */
+    public synchronized boolean update(Map<String, MetaData> instances, boolean stale, long zxid) {
+        return publish(instances, stale, zxid);
+    }
+
+    /*
+     * Compared entry by entry, nothing is encoded unless a publisher of the snapshot does.
+     */
+    private boolean publish(Map<String, MetaData> instances, boolean stale, long zxid) {
+        if ((content != null) && content.equals(instances)) {
+            return false;
+        }
+
+        version++;
+        this.stale = stale;
+        snapshot = new RegistrySnapshot(version, System.currentTimeMillis(), zxid, instances);
+        content = snapshot.getInstances();
+        logger.debug("new registry snapshot " + snapshot);
+
+        return true;
+    }
+
+    /**
+     * Refresh, keeping the current snapshot if the client fails.
+     */
+    @Override
+    public void run() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            logger.error("An error occurred taking a registry snapshot, keeping version " + getVersion(), e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the registry as a single compressed, versioned snapshot so that clients read one
+ * znode instead of walking the registry tree.  Any number of publishers may run; a leader latch
+ * below the snapshot path elects the one that actually writes, the others stand by.
+ */
+public class RegistrySnapshotPublisher implements Runnable, Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(RegistrySnapshotPublisher.class);
+
+    static final String LEADER = "leader";
+
+    private CuratorFramework curatorFramework;
+    private String path;
+    private int chunkSize = SnapshotZNode.DEFAULT_CHUNK_SIZE;
+
+    private LeaderLatch leaderLatch;
+
+    /** Snapshots of the source, continuing after the version published last. */
+    private RegistrySnapshotHolder snapshots;
+
+    /** Header znode version last written, null until read as leader. */
+    private Integer znodeVersion;
+
+    /**
+     * @param curatorFramework the curator framework
+     * @param source client finding the instances to publish, usually the whole registration root
+     * @param path the snapshot path
+     */
+    public RegistrySnapshotPublisher(CuratorFramework curatorFramework, DiscoveryClient source, String path) {
+        this.curatorFramework = curatorFramework;
+        this.path = path;
+        this.snapshots = new RegistrySnapshotHolder(source);
+    }
+
+    /**
+     * Join the leader election.
+     *
+     * @throws Exception if the election cannot be joined
+     */
+    public void start() throws Exception {
+        leaderLatch = new LeaderLatch(curatorFramework, ZKPaths.makePath(path, LEADER));
+        leaderLatch.start();
+    }
+
+    public boolean isLeader() {
+        return (leaderLatch != null) && leaderLatch.hasLeadership();
+    }
+
+    @Override
+    public void run() {
+        try {
+            publish();
+        } catch (Exception e) {
+            logger.error("An error occurred publishing the registry snapshot to " + path, e);
+        }
+    }
+
+    /**
+     * Publish a new snapshot if this is the leader and the registry changed.
+     *
+     * @return true if a new version was written
+     * @throws Exception on ZooKeeper errors
+     */
+    public synchronized boolean publish() throws Exception {
+        if (!isLeader()) {
+            // Another publisher may write while we are not the leader.
+            znodeVersion = null;
+            return false;
+        }
+
+        if (znodeVersion == null) {
+            SnapshotZNode.Header header = SnapshotZNode.readHeader(curatorFramework, path);
+            snapshots.continueAfter((header == null) ? 0 : header.version);
+            znodeVersion = (header == null) ? -1 : header.znodeVersion;
+        }
+
+        if (!snapshots.refresh()) {
+            return false;
+        }
+
+        RegistrySnapshot snapshot = snapshots.get();
+        byte[] data = SnapshotCodec.encode(snapshot);
+
+        try {
+            znodeVersion = SnapshotZNode.write(curatorFramework, path, snapshot.getVersion(), data, chunkSize,
+                    znodeVersion);
+        } catch (Exception e) {
+            // Start over from the header, e.g. a previous leader wrote after we read it, and write
+            // this version again.
+            znodeVersion = null;
+            throw e;
+        }
+
+        logger.info("published registry snapshot " + snapshot.getVersion() + " with " + snapshot.size()
+                + " instances, " + data.length + " bytes");
+
+        return true;
+    }
+
+    /*
+     * Largest znode written, larger snapshots are split into chunks.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (leaderLatch != null) {
+            leaderLatch.close();
+        }
+    }
+}
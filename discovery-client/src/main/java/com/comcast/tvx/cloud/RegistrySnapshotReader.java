@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Reads the registry snapshot published by a {@link RegistrySnapshotPublisher}.  The snapshot is
+ * fetched with a single read and cached until the watch left on it fires, so an unchanged
+ * registry costs no ZooKeeper reads at all.
+ */
+public class RegistrySnapshotReader {
+
+    private static Logger logger = LoggerFactory.getLogger(RegistrySnapshotReader.class);
+
+    private CuratorFramework curatorFramework;
+    private String path;
+
+    private RegistrySnapshot snapshot;
+    private volatile boolean dirty = true;
+
+    /** Background read in progress, null if none. */
+    private CompletableFuture<RegistrySnapshot> pending;
+
+    private Watcher watcher = new Watcher() {
+
+        @Override
+        public void process(WatchedEvent event) {
+            // Any change, including a lost session, invalidates the cached snapshot.
+            dirty = true;
+        }
+    };
+
+    /**
+     * @param curatorFramework the curator framework
+     * @param path the snapshot path the publisher writes to
+     */
+    public RegistrySnapshotReader(CuratorFramework curatorFramework, String path) {
+        this.curatorFramework = curatorFramework;
+        this.path = path;
+    }
+
+    /**
+     * @return the latest published snapshot, null if none was published yet.  When the snapshot
+     *         cannot be read the previous one is returned and reading is retried on the next call.
+     */
+    public synchronized RegistrySnapshot get() {
+        if (!dirty && (pending == null)) {
+            return snapshot;
+        }
+
+        dirty = false;
+
+        try {
+            byte[] data = SnapshotZNode.read(curatorFramework, path, watcher);
+            replace((data == null) ? null : SnapshotCodec.decode(data));
+        } catch (Exception e) {
+            dirty = true;
+
+            if (snapshot == null) {
+                throw Throwables.propagate(e);
+            }
+            logger.warn("Could not read registry snapshot at " + path + ", using version " + snapshot.getVersion()
+                    + ": " + e.getMessage());
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Like {@link #get()}, but the snapshot is read with background operations and decoded off the
+     * ZooKeeper event thread.  Concurrent calls share one read.
+     *
+     * @return a future of the latest published snapshot, of null if none was published yet.
+     */
+    public CompletableFuture<RegistrySnapshot> getAsync() {
+        final CompletableFuture<RegistrySnapshot> read;
+
+        synchronized (this) {
+            if (pending != null) {
+                return pending;
+            }
+            if (!dirty) {
+                return CompletableFuture.completedFuture(snapshot);
+            }
+
+            dirty = false;
+            read = new CompletableFuture<RegistrySnapshot>();
+            pending = read;
+        }
+
+        SnapshotZNode.readAsync(curatorFramework, path, watcher).thenApplyAsync(data -> {
+            try {
+                return (data == null) ? null : SnapshotCodec.decode(data);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }).whenComplete((decoded, error) -> {
+            RegistrySnapshot result;
+
+            synchronized (this) {
+                pending = null;
+
+                if (error == null) {
+                    replace(decoded);
+                } else {
+                    dirty = true;
+                }
+                result = snapshot;
+            }
+
+            if (error == null) {
+                read.complete(result);
+            } else if (result == null) {
+                read.completeExceptionally(error);
+            } else {
+                logger.warn("Could not read registry snapshot at " + path + ", using version " + result.getVersion()
+                        + ": " + error.getMessage());
+                read.complete(result);
+            }
+        });
+
+        return read;
+    }
+
+    /*
+     * Cache a snapshot read, unless a read started earlier but finishing later already cached a
+     * newer one.
+     */
+    private void replace(RegistrySnapshot read) {
+        if ((read == null) || (snapshot == null) || (read.getVersion() >= snapshot.getVersion())) {
+            snapshot = read;
+        }
+    }
+
+    /**
+     * @return the cached snapshot if no change was signalled since it was read, null otherwise.
+     */
+    public synchronized RegistrySnapshot peek() {
+        return (dirty || (pending != null)) ? null : snapshot;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "RegistrySnapshotReader [path=" + path + "]";
+    }
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cycles through the candidates.
+ */
+public class RoundRobinStrategy implements SelectionStrategy {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public Instance select(Instance[] candidates) {
+        return candidates[(next.getAndIncrement() & Integer.MAX_VALUE) % candidates.length];
+    }
+}
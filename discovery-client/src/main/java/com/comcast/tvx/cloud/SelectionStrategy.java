@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+/**
+ * Picks one of the candidate instances of a service.  Called on every request, so implementations
+ * must be thread safe and should neither lock nor allocate.
+ */
+public interface SelectionStrategy {
+
+    /**
+     * @param candidates the candidates, never empty and never modified
+     * @return one of the candidates.
+     */
+    Instance select(Instance[] candidates);
+}
@@ -87,6 +87,7 @@ public abstract class ServiceUtil {
 
         MetaData metadata = new MetaData(UUID.randomUUID(), registerAddress, servicePort, serviceName);
         metadata.setParameters(parameters);
+        metadata.setRegistrationTime(System.currentTimeMillis());
 
         builder.name(serviceName).payload(metadata).id(registerAddress + ":" +
                 String.valueOf(servicePort)).serviceType(ServiceType.DYNAMIC).address(registerAddress).port(servicePort);
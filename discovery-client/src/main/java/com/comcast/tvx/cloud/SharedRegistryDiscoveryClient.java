@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Read-only client answering from a shared registry file published on the same host by a
+ * {@link SharedRegistryPublisher}.  It needs no ZooKeeper session: every way of finding, counting
+ * and visiting instances reads the file, and each result is decoded straight into the map handed
+ * to the caller.  Payload parameters are not shared and are always null.
+ */
+public class SharedRegistryDiscoveryClient extends DiscoveryClient {
+
+    private File file;
+    private SharedRegistryReader reader;
+
+    /**
+     * @param file the shared registry file
+     */
+    public SharedRegistryDiscoveryClient(File file) {
+        super(null);
+        this.file = file;
+    }
+
+    @Override
+    protected void init() {
+        if (getBasePath() == null) {
+            throw new IllegalStateException("No basePath set.");
+        }
+    }
+
+    @Override
+    protected boolean isConnected() {
+        return true;
+    }
+
+    private synchronized SharedRegistryReader reader() {
+        try {
+            if (reader == null) {
+                reader = new SharedRegistryReader(file);
+            }
+
+            return reader;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public Map<String, MetaData> findInstances() {
+        init();
+
+        return reader().select(getBasePath(), getFilters());
+    }
+
+    @Override
+    protected Map<String, MetaData> findLiveInstances() {
+        return findInstances();
+    }
+
+    /**
+     * Reads the file right away, there is nothing to wait for.
+     */
+    @Override
+    public CompletableFuture<Map<String, MetaData>> findInstancesAsync(long timeout, TimeUnit unit) {
+        CompletableFuture<Map<String, MetaData>> result = new CompletableFuture<Map<String, MetaData>>();
+
+        try {
+            result.complete(findInstances());
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    @Override
+    public long countInstances(String filter) {
+        init();
+
+        return reader().count(getBasePath(), filter);
+    }
+
+    @Override
+    public boolean hasInstances(String filter) {
+        return countInstances(filter) > 0;
+    }
+
+    @Override
+    public long visitInstances(InstanceVisitor visitor) {
+        return visit(findInstances(), visitor);
+    }
+
+    @Override
+    public DiscoveryClient usingSnapshot(String snapshotPath) {
+        throw new UnsupportedOperationException("Reads the shared registry file " + file);
+    }
+
+    @Override
+    public DiscoveryClient withLocalSnapshot(File file) {
+        throw new UnsupportedOperationException("Reads the shared registry file " + this.file);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Layout of the memory-mapped registry shared by the processes of a host.  A fixed header is
+ * followed by fixed-width records sorted by the UTF-8 bytes of their paths, so that a reader can
+ * address any record directly and find the records below a path by binary search.  The
+ * header holds a sequence number used as a seqlock: the writer makes it odd before and even
+ * again after changing the file, and a read is only valid if it saw the same even sequence
+ * before and after.
+ *
+ * <p>Readers map the file once and learn from the header alone when to map it again, so the file
+ * is never shrunk or rewritten in another layout in place: it grows, with the capacity in the
+ * header raised after the file, or it is replaced by renaming a new file over it after setting
+ * superseded in the old one.  Deleting the file leaves running readers on the old one.</p>
+ *
+ * <pre>
+ * header (64 bytes): int magic, int format, long sequence, long version, long timestamp,
+ *                    int count, int capacity, int recordSize, int superseded
+ * record (512 bytes): short length + 320 bytes path, short length + 64 bytes address,
+ *                     short length + 64 bytes serviceName, int port, long registrationTime,
+ *                     long workerIdMsb, long workerIdLsb, byte flags
+ * </pre>
+ *
+ * Strings are UTF-8, a length of -1 stands for null.  Payload parameters are not shared.
+ */
+final class SharedRegistryFile {
+
+    static final int MAGIC = 0x52534d4d;
+    static final int FORMAT = 2;
+
+    static final int SEQUENCE = 8;
+    static final int VERSION = 16;
+    static final int TIMESTAMP = 24;
+    static final int COUNT = 32;
+    static final int CAPACITY = 36;
+    static final int RECORD_SIZE_OFFSET = 40;
+    static final int SUPERSEDED = 44;
+    static final int HEADER_SIZE = 64;
+
+    static final int PATH = 0;
+    static final int PATH_SIZE = 320;
+    static final int ADDRESS = PATH + 2 + PATH_SIZE;
+    static final int ADDRESS_SIZE = 64;
+    static final int SERVICE_NAME = ADDRESS + 2 + ADDRESS_SIZE;
+    static final int SERVICE_NAME_SIZE = 64;
+    static final int PORT = SERVICE_NAME + 2 + SERVICE_NAME_SIZE;
+    static final int REGISTRATION_TIME = PORT + 4;
+    static final int WORKER_ID = REGISTRATION_TIME + 8;
+    static final int FLAGS = WORKER_ID + 16;
+    static final int RECORD_SIZE = 512;
+
+    static final int HAS_WORKER_ID = 1;
+    static final int DRAINING = 2;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static volatile int barrier;
+
+    private SharedRegistryFile() {
+    }
+
+    static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    static long size(int capacity) {
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    }
+
+    /**
+     * Keep the JIT and the CPU from moving accesses to the mapped buffer across the sequence
+     * updates.  Java 8 has no public fence API, VarHandle fences come with Java 9; the volatile read
+     * and write here is a full fence on HotSpot, though the memory model alone does not promise it
+     * for the plain accesses around it.
+     */
+    static void fence() {
+        barrier++;
+    }
+
+    /**
+     * @return false if the string does not fit, nothing is written then.
+     */
+    static boolean putString(ByteBuffer buffer, int offset, int size, String value) {
+        if (value == null) {
+            buffer.putShort(offset, (short) -1);
+            return true;
+        }
+
+        return putBytes(buffer, offset, size, value.getBytes(UTF8));
+    }
+
+    /**
+     * @return false if the bytes do not fit, nothing is written then.
+     */
+    static boolean putBytes(ByteBuffer buffer, int offset, int size, byte[] bytes) {
+        if (bytes.length > size) {
+            return false;
+        }
+
+        buffer.putShort(offset, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + 2 + i, bytes[i]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Compare the string at the given offset with the given bytes, unsigned, as far as the bytes go.
+     *
+     * @return negative, 0 or positive as the string sorts before, starts with or sorts after the
+     *         bytes, {@link Integer#MIN_VALUE} if the length is invalid, e.g. during a concurrent write.
+     */
+    static int comparePrefix(ByteBuffer buffer, int offset, int size, byte[] prefix) {
+        int length = buffer.getShort(offset);
+
+        if ((length < 0) || (length > size)) {
+            return Integer.MIN_VALUE;
+        }
+
+        for (int i = 0; i < Math.min(length, prefix.length); i++) {
+            int difference = (buffer.get(offset + 2 + i) & 0xff) - (prefix[i] & 0xff);
+
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return (length < prefix.length) ? -1 : 0;
+    }
+
+    /**
+     * @return negative, 0 or positive as the first bytes sort before, equal or after the second, unsigned.
+     */
+    static int compare(byte[] first, byte[] second) {
+        for (int i = 0; i < Math.min(first.length, second.length); i++) {
+            int difference = (first[i] & 0xff) - (second[i] & 0xff);
+
+            if (difference != 0) {
+                return difference;
+            }
+        }
+
+        return first.length - second.length;
+    }
+
+    /**
+     * @return the string, null if absent or if the length is invalid, e.g. during a concurrent write.
+     */
+    static String getString(ByteBuffer buffer, int offset, int size) {
+        int length = buffer.getShort(offset);
+
+        if ((length < 0) || (length > size)) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+
+        return new String(bytes, UTF8);
+    }
+}
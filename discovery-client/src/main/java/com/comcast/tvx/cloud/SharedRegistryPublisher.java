@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies the snapshots of a {@link RegistrySnapshotHolder} into a shared registry file, so that
+ * co-located processes can use a {@link SharedRegistryDiscoveryClient} instead of their own
+ * ZooKeeper session.  The file carries the version of the snapshot it was written from, and a
+ * publisher restarted on the same file continues after the version found in it.
+ */
+public class SharedRegistryPublisher implements Runnable {
+
+    private static Logger logger = LoggerFactory.getLogger(SharedRegistryPublisher.class);
+
+    private RegistrySnapshotHolder snapshots;
+    private SharedRegistryWriter writer;
+
+    /** Snapshot last written, null before the first. */
+    private RegistrySnapshot written;
+
+    /**
+     * @param snapshots snapshots of the instances to share, usually the whole registration root,
+     * refreshed by the caller; continued after the version in the file if not refreshed yet
+     * @param writer writer of the shared file
+     */
+    public SharedRegistryPublisher(RegistrySnapshotHolder snapshots, SharedRegistryWriter writer) {
+        this.snapshots = snapshots;
+        this.writer = writer;
+
+        // Readers of the file must not see the version go back.
+        if ((snapshots.get() == null) && (writer.getVersion() > 0)) {
+            snapshots.continueAfter(writer.getVersion());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            publish();
+        } catch (Exception e) {
+            logger.error("An error occurred publishing the shared registry", e);
+        }
+    }
+
+    /**
+     * Write the latest snapshot if it is newer than the one written last.
+     *
+     * @return true if the shared registry changed.
+     */
+    public synchronized boolean publish() {
+        boolean stale = snapshots.isStale();
+        RegistrySnapshot snapshot = snapshots.get();
+
+        if ((snapshot == null) || (snapshot == written)) {
+            return false;
+        }
+
+        if (stale && (written != null)) {
+            // Do not replace live data with an older local snapshot.
+            return false;
+        }
+
+        int count = writer.write(snapshot);
+        written = snapshot;
+        logger.debug("shared registry version " + snapshot.getVersion() + " with " + count + " instances");
+
+        return true;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static com.comcast.tvx.cloud.SharedRegistryFile.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Reads a {@link SharedRegistryFile} written by a {@link SharedRegistryWriter} in another
+ * process.  Records are read in place: each filter is looked up by the path prefix it selects and
+ * matched against the encoded paths, and only the instances selected are turned into objects, or
+ * none at all with {@link #lookup(String, List)}.  The file is mapped again when its header says it
+ * was grown or superseded, so reads make no system calls.
+ */
+public class SharedRegistryReader implements Closeable {
+
+    /** Attempts to get a consistent read before giving up on a writer that appears stuck. */
+    static final int MAX_ATTEMPTS = 1000;
+
+    private File path;
+    private RandomAccessFile file;
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * @param file the shared file
+     * @throws IOException if the file does not exist or is not a shared registry
+     */
+    public SharedRegistryReader(File file) throws IOException {
+        this.path = file;
+        map();
+    }
+
+    /*
+     * Map the file as it is now, keeping the current mapping if it is not a shared registry.
+     */
+    private synchronized void map() throws IOException {
+        RandomAccessFile mapped = new RandomAccessFile(path, "r");
+        MappedByteBuffer next = mapped.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mapped.length());
+
+        if ((mapped.length() < HEADER_SIZE) || (next.getInt(0) != MAGIC)) {
+            mapped.close();
+            throw new IOException("Not a shared registry: " + path);
+        }
+
+        if ((next.getInt(4) != FORMAT) || (next.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE)
+                || (mapped.length() < size(next.getInt(CAPACITY)))) {
+            mapped.close();
+            throw new IOException("Unsupported shared registry format: " + path);
+        }
+
+        // The old mapping stays valid until collected, readers may still be using it.
+        if (file != null) {
+            file.close();
+        }
+        file = mapped;
+        buffer = next;
+    }
+
+    /*
+     * The current mapping, mapped again if the writer grew the file beyond it or replaced the file.
+     */
+    private MappedByteBuffer buffer() {
+        MappedByteBuffer current = buffer;
+
+        if ((current.getInt(SUPERSEDED) == 0) && (size(current.getInt(CAPACITY)) <= current.capacity())) {
+            return current;
+        }
+
+        synchronized (this) {
+            try {
+                if (buffer == current) {
+                    map();
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+
+            return buffer;
+        }
+    }
+
+    /**
+     * @return the version of the snapshot currently shared.
+     */
+    public long getVersion() {
+        MappedByteBuffer buffer = buffer();
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long sequence = beginRead(buffer);
+            long version = buffer.getLong(VERSION);
+
+            if (endRead(buffer, sequence)) {
+                return version;
+            }
+        }
+
+        throw new IllegalStateException("Could not get a consistent read of the shared registry");
+    }
+
+    /**
+     * Look up the instances a {@link DiscoveryClient} with the given base path and filters would
+     * find, without copying them.
+     *
+     * @param basePath the base path
+     * @param filters the filters, "**" if empty
+     * @return a view of the records selected, consistent as of the lookup.
+     */
+    public SharedRegistryView lookup(String basePath, List<String> filters) {
+        List<PathFilter> pathFilters = pathFilters(basePath, filters);
+        MappedByteBuffer buffer = buffer();
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long sequence = beginRead(buffer);
+            int[] offsets = select(buffer, pathFilters);
+
+            if ((offsets != null) && endRead(buffer, sequence)) {
+                return new SharedRegistryView(buffer, sequence, offsets);
+            }
+        }
+
+        throw new IllegalStateException("Could not get a consistent read of the shared registry");
+    }
+
+    /**
+     * Select the instances a {@link DiscoveryClient} with the given base path and filters would find.
+     *
+     * @param basePath the base path
+     * @param filters the filters, "**" if empty
+     * @return a new sorted map of full paths to payload.
+     */
+    public Map<String, MetaData> select(String basePath, List<String> filters) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            SharedRegistryView view = lookup(basePath, filters);
+            TreeMap<String, MetaData> result = new TreeMap<String, MetaData>();
+
+            for (int i = 0; i < view.size(); i++) {
+                String path = view.getPath(i);
+
+                if (path == null) {
+                    break;
+                }
+                result.put(path, view.getMetaData(i));
+            }
+
+            if (view.isValid()) {
+                return result;
+            }
+        }
+
+        throw new IllegalStateException("Could not get a consistent read of the shared registry");
+    }
+
+    /**
+     * Count the instances a {@link DiscoveryClient} with the given base path and filter would find,
+     * without decoding them.
+     *
+     * @param basePath the base path
+     * @param filter the filter
+     * @return the number of instances.
+     */
+    public int count(String basePath, String filter) {
+        return lookup(basePath, Collections.singletonList(filter)).size();
+    }
+
+    private static List<PathFilter> pathFilters(String basePath, List<String> filters) {
+        List<PathFilter> pathFilters = new ArrayList<PathFilter>();
+
+        for (String filter : filters.isEmpty() ? Collections.singletonList("**") : filters) {
+            pathFilters.add(new PathFilter(basePath, filter));
+        }
+
+        return pathFilters;
+    }
+
+    /*
+     * Offsets of the records selected, in record order and each once, null if the records were
+     * inconsistent, i.e. changed while reading.
+     */
+    private static int[] select(ByteBuffer buffer, List<PathFilter> pathFilters) {
+        int count = buffer.getInt(COUNT);
+
+        if ((count < 0) || (count > buffer.getInt(CAPACITY)) || (size(count) > buffer.capacity())) {
+            return null;
+        }
+
+        int[] offsets = new int[16];
+        int selected = 0;
+
+        for (PathFilter pathFilter : pathFilters) {
+            byte[] prefix = pathFilter.getPrefix().getBytes(UTF8);
+            int first = lowerBound(buffer, count, prefix);
+
+            if (first < 0) {
+                return null;
+            }
+
+            for (int i = first; i < count; i++) {
+                int offset = offset(i);
+                int comparison = comparePrefix(buffer, offset + PATH, PATH_SIZE, prefix);
+
+                if (comparison == Integer.MIN_VALUE) {
+                    return null;
+                }
+                if (comparison != 0) {
+                    break;
+                }
+
+                int length = buffer.getShort(offset + PATH);
+
+                if ((length < 0) || (length > PATH_SIZE)) {
+                    return null;
+                }
+                if (pathFilter.matches(buffer, offset + PATH + 2, length)) {
+                    if (selected == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, selected * 2);
+                    }
+                    offsets[selected++] = offset;
+                }
+            }
+        }
+
+        if (pathFilters.size() > 1) {
+            // Filters may select the same records.
+            Arrays.sort(offsets, 0, selected);
+
+            int distinct = 0;
+
+            for (int i = 0; i < selected; i++) {
+                if ((distinct == 0) || (offsets[i] != offsets[distinct - 1])) {
+                    offsets[distinct++] = offsets[i];
+                }
+            }
+            selected = distinct;
+        }
+
+        return Arrays.copyOf(offsets, selected);
+    }
+
+    /*
+     * Index of the first record not sorting before the prefix, -1 if the records were inconsistent.
+     */
+    private static int lowerBound(ByteBuffer buffer, int count, byte[] prefix) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = comparePrefix(buffer, offset(middle) + PATH, PATH_SIZE, prefix);
+
+            if (comparison == Integer.MIN_VALUE) {
+                return -1;
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static long beginRead(ByteBuffer buffer) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long sequence = buffer.getLong(SEQUENCE);
+
+            if (sequence % 2 == 0) {
+                fence();
+                return sequence;
+            }
+            Thread.yield();
+        }
+
+        throw new IllegalStateException("The shared registry writer appears to be stuck");
+    }
+
+    private static boolean endRead(ByteBuffer buffer, long sequence) {
+        fence();
+
+        return buffer.getLong(SEQUENCE) == sequence;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+}
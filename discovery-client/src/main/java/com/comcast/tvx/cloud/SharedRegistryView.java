@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static com.comcast.tvx.cloud.SharedRegistryFile.*;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Instances selected by {@link SharedRegistryReader#lookup(String, java.util.List)}, read in place
+ * from the mapped file: nothing is copied until asked for, and numbers and flags are never copied
+ * at all.  The records are in the order of the UTF-8 bytes of their paths.
+ *
+ * <p>The writer may replace the records at any time.  Whatever was read from the view is only
+ * consistent if {@link #isValid()} still holds afterwards; otherwise look up again.</p>
+ */
+public final class SharedRegistryView {
+
+    private final ByteBuffer buffer;
+    private final long sequence;
+    private final int[] offsets;
+
+    SharedRegistryView(ByteBuffer buffer, long sequence, int[] offsets) {
+        this.buffer = buffer;
+        this.sequence = sequence;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return the number of instances selected.
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * @return the full path, null if the record is being written.
+     */
+    public String getPath(int index) {
+        return getString(buffer, offsets[index] + PATH, PATH_SIZE);
+    }
+
+    public String getListenAddress(int index) {
+        return getString(buffer, offsets[index] + ADDRESS, ADDRESS_SIZE);
+    }
+
+    public int getListenPort(int index) {
+        return buffer.getInt(offsets[index] + PORT);
+    }
+
+    public String getServiceName(int index) {
+        return getString(buffer, offsets[index] + SERVICE_NAME, SERVICE_NAME_SIZE);
+    }
+
+    public long getRegistrationTime(int index) {
+        return buffer.getLong(offsets[index] + REGISTRATION_TIME);
+    }
+
+    public boolean isDraining(int index) {
+        return (buffer.get(offsets[index] + FLAGS) & DRAINING) != 0;
+    }
+
+    /**
+     * @return the worker id, null if the instance has none.
+     */
+    public UUID getWorkerId(int index) {
+        int offset = offsets[index];
+
+        return ((buffer.get(offset + FLAGS) & HAS_WORKER_ID) != 0)
+                ? new UUID(buffer.getLong(offset + WORKER_ID), buffer.getLong(offset + WORKER_ID + 8)) : null;
+    }
+
+    /**
+     * @return a new copy of the payload.
+     */
+    public MetaData getMetaData(int index) {
+        MetaData metaData = new MetaData(getWorkerId(index), getListenAddress(index), getListenPort(index),
+                getServiceName(index));
+        metaData.setRegistrationTime(getRegistrationTime(index));
+        metaData.setDraining(isDraining(index));
+
+        return metaData;
+    }
+
+    /**
+     * @return true if the records were not changed since the lookup, so everything read from the
+     *         view so far is consistent.
+     */
+    public boolean isValid() {
+        fence();
+
+        return buffer.getLong(SEQUENCE) == sequence;
+    }
+}
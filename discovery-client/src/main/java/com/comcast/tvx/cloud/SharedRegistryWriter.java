@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static com.comcast.tvx.cloud.SharedRegistryFile.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes registry snapshots into a memory-mapped {@link SharedRegistryFile} for
+ * {@link SharedRegistryReader}s in other processes.  There must be a single writer per file.
+ */
+public class SharedRegistryWriter implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(SharedRegistryWriter.class);
+
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private int capacity;
+
+    /** Version of the snapshot written last, by this or a previous writer of the file. */
+    private long version;
+
+    /**
+     * A file already shared is reused and grown if needed, but never shrunk: readers would fault
+     * reading beyond its new end.  A file in another layout is replaced by a new one.
+     *
+     * @param file the shared file, created if missing
+     * @param capacity the most instances the file holds, at least as many as an existing file holds
+     * @throws IOException if the file cannot be mapped
+     */
+    public SharedRegistryWriter(File file, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+
+        RandomAccessFile current = new RandomAccessFile(file, "rw");
+        RandomAccessFile replaced = null;
+        File temp = new File(file.getPath() + ".tmp");
+
+        try {
+            int existing = sharedCapacity(current);
+
+            if (existing > 0) {
+                capacity = Math.max(capacity, existing);
+            } else if (current.length() > 0) {
+                // Readers may have it mapped, so it is replaced rather than rewritten in place.
+                replaced = current;
+                current = new RandomAccessFile(temp, "rw");
+                current.setLength(0);
+            }
+            if (current.length() < size(capacity)) {
+                current.setLength(size(capacity));
+            }
+        } catch (IOException e) {
+            current.close();
+            if (replaced != null) {
+                replaced.close();
+            }
+            throw e;
+        }
+
+        this.capacity = capacity;
+        this.file = current;
+        this.buffer = current.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size(capacity));
+
+        long sequence = (buffer.getInt(0) == MAGIC) ? buffer.getLong(SEQUENCE) : 0;
+        this.version = (buffer.getInt(0) == MAGIC) ? buffer.getLong(VERSION) : 0;
+
+        // Continue the sequence of a previous writer, readers may hold on to it.
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT);
+        buffer.putLong(SEQUENCE, sequence + (sequence % 2));
+        buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putInt(SUPERSEDED, 0);
+        // Raised only once the file is long enough, readers map again when it exceeds their mapping.
+        buffer.putInt(CAPACITY, capacity);
+
+        if (replaced != null) {
+            buffer.force();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            supersede(replaced);
+            logger.info("replaced shared registry " + file + " of another layout");
+        }
+    }
+
+    /*
+     * The capacity of a shared registry file of this layout, 0 if it is none.
+     */
+    private static int sharedCapacity(RandomAccessFile file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return 0;
+        }
+
+        file.seek(0);
+        int magic = file.readInt();
+        int format = file.readInt();
+        file.seek(CAPACITY);
+        int capacity = file.readInt();
+        int recordSize = file.readInt();
+
+        if ((magic != MAGIC) || (format != FORMAT) || (recordSize != RECORD_SIZE) || (capacity < 1)
+                || (file.length() < size(capacity))) {
+            return 0;
+        }
+
+        return capacity;
+    }
+
+    /*
+     * Tell readers of a replaced shared registry to map the file at its path again.
+     */
+    private static void supersede(RandomAccessFile replaced) throws IOException {
+        try {
+            if (replaced.length() >= HEADER_SIZE) {
+                replaced.seek(0);
+
+                if (replaced.readInt() == MAGIC) {
+                    replaced.seek(SUPERSEDED);
+                    replaced.writeInt(1);
+                }
+            }
+        } finally {
+            replaced.close();
+        }
+    }
+
+    /**
+     * @return the version of the snapshot written last, by this or a previous writer of the file,
+     *         0 if none.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Replace the shared registry.  Instances that do not fit a record, or beyond the capacity,
+     * are left out.
+     *
+     * @param snapshot the snapshot
+     * @return the number of instances written
+     */
+    public synchronized int write(RegistrySnapshot snapshot) {
+        // Readers search the records by the bytes of their paths, which is not quite the order of
+        // the strings beyond the basic plane.
+        List<Map.Entry<byte[], MetaData>> records = new ArrayList<Map.Entry<byte[], MetaData>>(snapshot.size());
+
+        for (Map.Entry<String, MetaData> entry : snapshot.getInstances().entrySet()) {
+            records.add(new AbstractMap.SimpleImmutableEntry<byte[], MetaData>(entry.getKey().getBytes(UTF8),
+                    entry.getValue()));
+        }
+        Collections.sort(records, new Comparator<Map.Entry<byte[], MetaData>>() {
+
+            @Override
+            public int compare(Map.Entry<byte[], MetaData> first, Map.Entry<byte[], MetaData> second) {
+                return SharedRegistryFile.compare(first.getKey(), second.getKey());
+            }
+        });
+
+        long sequence = buffer.getLong(SEQUENCE);
+        buffer.putLong(SEQUENCE, sequence + 1);
+        fence();
+
+        int count = 0;
+
+        for (Map.Entry<byte[], MetaData> record : records) {
+            if (count == capacity) {
+                logger.warn("shared registry is full, " + (snapshot.size() - count) + " instances left out");
+                break;
+            }
+
+            if (putRecord(offset(count), record.getKey(), record.getValue())) {
+                count++;
+            } else {
+                logger.warn("instance does not fit a shared registry record: " + new String(record.getKey(), UTF8));
+            }
+        }
+
+        buffer.putLong(VERSION, snapshot.getVersion());
+        buffer.putLong(TIMESTAMP, snapshot.getTimestamp());
+        buffer.putInt(COUNT, count);
+
+        fence();
+        buffer.putLong(SEQUENCE, sequence + 2);
+        version = snapshot.getVersion();
+
+        return count;
+    }
+
+    private boolean putRecord(int offset, byte[] path, MetaData metaData) {
+        if (!putBytes(buffer, offset + PATH, PATH_SIZE, path)) {
+            return false;
+        }
+
+        if (metaData == null) {
+            metaData = new MetaData();
+        }
+
+        if (!putString(buffer, offset + ADDRESS, ADDRESS_SIZE, metaData.getListenAddress())
+                || !putString(buffer, offset + SERVICE_NAME, SERVICE_NAME_SIZE, metaData.getServiceName())) {
+            return false;
+        }
+
+        buffer.putInt(offset + PORT, metaData.getListenPort());
+        buffer.putLong(offset + REGISTRATION_TIME, metaData.getRegistrationTime());
+
+        int flags = metaData.isDraining() ? DRAINING : 0;
+
+        if (metaData.getWorkerId() != null) {
+            flags |= HAS_WORKER_ID;
+            buffer.putLong(offset + WORKER_ID, metaData.getWorkerId().getMostSignificantBits());
+            buffer.putLong(offset + WORKER_ID + 8, metaData.getWorkerId().getLeastSignificantBits());
+        }
+        buffer.put(offset + FLAGS, (byte) flags);
+
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact binary encoding of a {@link RegistrySnapshot}.  Paths are sorted and stored as the
+ * length of the prefix shared with the previous path plus the remaining suffix, payload fields
+ * are written in binary, and the whole is gzip compressed.
+ *
+ * <pre>
+ * int magic, byte format, long version, long timestamp, long zxid, int count,
+ * count * (short sharedPrefix, UTF suffix, payload)
+ * </pre>
+ *
+ * Format 1, without the zxid, is still decoded, with a zxid of 0.
+ */
+public abstract class SnapshotCodec {
+
+    static final int MAGIC = 0x52534e50;
+    static final byte FORMAT = 2;
+
+    /** Before the zxid was encoded. */
+    private static final byte FORMAT_WITHOUT_ZXID = 1;
+
+    private static final int HAS_WORKER_ID = 1;
+    private static final int HAS_ADDRESS = 2;
+    private static final int HAS_SERVICE_NAME = 4;
+    private static final int HAS_PARAMETERS = 8;
+    private static final int DRAINING = 16;
+    private static final int NO_PAYLOAD = 128;
+
+    /**
+     * @param snapshot the snapshot
+     * @return the compressed encoding.
+     */
+    public static byte[] encode(RegistrySnapshot snapshot) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try {
+            DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT);
+            out.writeLong(snapshot.getVersion());
+            out.writeLong(snapshot.getTimestamp());
+            out.writeLong(snapshot.getZxid());
+            out.writeInt(snapshot.size());
+
+            String previous = "";
+
+            for (Map.Entry<String, MetaData> entry : snapshot.getInstances().entrySet()) {
+                String path = entry.getKey();
+                int shared = sharedPrefix(previous, path);
+                out.writeShort(shared);
+                out.writeUTF(path.substring(shared));
+                writeMetaData(out, entry.getValue());
+                previous = path;
+            }
+
+            out.close();
+        } catch (IOException e) {
+            // Cannot happen writing to memory.
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param data an encoded snapshot
+     * @return the decoded snapshot.
+     * @exception IOException if the data is not a valid snapshot.
+     */
+    public static RegistrySnapshot decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a registry snapshot");
+            }
+
+            byte format = in.readByte();
+            if ((format != FORMAT) && (format != FORMAT_WITHOUT_ZXID)) {
+                throw new IOException("Unsupported registry snapshot format: " + format);
+            }
+
+            long version = in.readLong();
+            long timestamp = in.readLong();
+            long zxid = (format == FORMAT) ? in.readLong() : 0;
+            int count = in.readInt();
+            Map<String, MetaData> instances = new TreeMap<String, MetaData>();
+            String previous = "";
+
+            for (int i = 0; i < count; i++) {
+                int shared = in.readUnsignedShort();
+
+                if (shared > previous.length()) {
+                    throw new IOException("Corrupt registry snapshot at entry " + i);
+                }
+
+                String path = previous.substring(0, shared) + in.readUTF();
+                instances.put(path, readMetaData(in));
+                previous = path;
+            }
+
+            return new RegistrySnapshot(version, timestamp, zxid, instances);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int sharedPrefix(String a, String b) {
+        int max = Math.min(Math.min(a.length(), b.length()), 0xffff);
+        int i = 0;
+
+        while ((i < max) && (a.charAt(i) == b.charAt(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static void writeMetaData(DataOutputStream out, MetaData metaData) throws IOException {
+        if (metaData == null) {
+            out.writeByte(NO_PAYLOAD);
+            return;
+        }
+
+        int flags = ((metaData.getWorkerId() != null) ? HAS_WORKER_ID : 0)
+                | ((metaData.getListenAddress() != null) ? HAS_ADDRESS : 0)
+                | ((metaData.getServiceName() != null) ? HAS_SERVICE_NAME : 0)
+                | ((metaData.getParameters() != null) ? HAS_PARAMETERS : 0)
+                | (metaData.isDraining() ? DRAINING : 0);
+
+        out.writeByte(flags);
+
+        if (metaData.getWorkerId() != null) {
+            out.writeLong(metaData.getWorkerId().getMostSignificantBits());
+            out.writeLong(metaData.getWorkerId().getLeastSignificantBits());
+        }
+        if (metaData.getListenAddress() != null) {
+            out.writeUTF(metaData.getListenAddress());
+        }
+        out.writeInt(metaData.getListenPort());
+        if (metaData.getServiceName() != null) {
+            out.writeUTF(metaData.getServiceName());
+        }
+        out.writeLong(metaData.getRegistrationTime());
+        if (metaData.getParameters() != null) {
+            out.writeInt(metaData.getParameters().size());
+
+            // Sorted, so that equal content always encodes to equal bytes.
+            for (Map.Entry<String, String> parameter : new TreeMap<String, String>(metaData.getParameters())
+                    .entrySet()) {
+                out.writeUTF(parameter.getKey());
+                out.writeUTF((parameter.getValue() == null) ? "" : parameter.getValue());
+            }
+        }
+    }
+
+    private static MetaData readMetaData(DataInputStream in) throws IOException {
+        int flags = in.readUnsignedByte();
+
+        if (flags == NO_PAYLOAD) {
+            return null;
+        }
+
+        UUID workerId = ((flags & HAS_WORKER_ID) != 0) ? new UUID(in.readLong(), in.readLong()) : null;
+        String address = ((flags & HAS_ADDRESS) != 0) ? in.readUTF() : null;
+        int port = in.readInt();
+        String serviceName = ((flags & HAS_SERVICE_NAME) != 0) ? in.readUTF() : null;
+
+        MetaData metaData = new MetaData(workerId, address, port, serviceName);
+        metaData.setRegistrationTime(in.readLong());
+        metaData.setDraining((flags & DRAINING) != 0);
+
+        if ((flags & HAS_PARAMETERS) != 0) {
+            int count = in.readInt();
+            Map<String, String> parameters = new HashMap<String, String>();
+
+            for (int i = 0; i < count; i++) {
+                parameters.put(in.readUTF(), in.readUTF());
+            }
+            metaData.setParameters(parameters);
+        }
+
+        return metaData;
+    }
+}
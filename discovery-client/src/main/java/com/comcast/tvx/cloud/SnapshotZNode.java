@@ -0,0 +1,397 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Layout of an encoded snapshot in ZooKeeper.  A snapshot up to the chunk size is stored inline
+ * in a single header znode.  Larger snapshots are written to <code>chunks/version-index</code>
+ * children first and then published by updating the header, so readers never see a mix of two
+ * versions; chunks of older versions are deleted afterwards.
+ *
+ * <pre>
+ * header: int magic, long version, int chunks (0 = inline), int length, long crc32[, data]
+ * </pre>
+ */
+class SnapshotZNode {
+
+    private static Logger logger = LoggerFactory.getLogger(SnapshotZNode.class);
+
+    static final int MAGIC = 0x52534e48;
+
+    /** Stay well below ZooKeeper's default 1MB jute.maxbuffer. */
+    static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+    static final String CHUNKS = "chunks";
+
+    private static final int READ_ATTEMPTS = 3;
+
+    /**
+     * Version and znode version of a published snapshot.
+     */
+    static class Header {
+        final long version;
+        final int chunks;
+        final int length;
+        final long crc;
+        final byte[] inline;
+        final int znodeVersion;
+
+        Header(long version, int chunks, int length, long crc, byte[] inline, int znodeVersion) {
+            this.version = version;
+            this.chunks = chunks;
+            this.length = length;
+            this.crc = crc;
+            this.inline = inline;
+            this.znodeVersion = znodeVersion;
+        }
+    }
+
+    /**
+     * Publish a snapshot.
+     *
+     * @param curatorFramework the curator framework
+     * @param path the header path
+     * @param version the snapshot version
+     * @param data the encoded snapshot
+     * @param chunkSize the largest znode written
+     * @param expectedZnodeVersion znode version of the header, -1 to overwrite unconditionally
+     * @return the new znode version of the header
+     * @throws KeeperException.BadVersionException if another publisher updated the header
+     * @throws Exception on ZooKeeper errors
+     */
+    static int write(CuratorFramework curatorFramework, String path, long version, byte[] data, int chunkSize,
+            int expectedZnodeVersion) throws Exception {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(version);
+
+        int chunks = 0;
+        String chunksPath = ZKPaths.makePath(path, CHUNKS);
+
+        if (data.length > chunkSize) {
+            for (int offset = 0; offset < data.length; offset += chunkSize) {
+                byte[] chunk = Arrays.copyOfRange(data, offset, Math.min(offset + chunkSize, data.length));
+                String chunkPath = ZKPaths.makePath(chunksPath, chunkName(version, chunks++));
+
+                if (curatorFramework.checkExists().forPath(chunkPath) == null) {
+                    curatorFramework.create().creatingParentsIfNeeded().forPath(chunkPath, chunk);
+                } else {
+                    curatorFramework.setData().forPath(chunkPath, chunk);
+                }
+            }
+        }
+
+        out.writeInt(chunks);
+        out.writeInt(data.length);
+        out.writeLong(crc.getValue());
+        if (chunks == 0) {
+            out.write(data);
+        }
+        out.close();
+
+        Stat stat;
+
+        if (curatorFramework.checkExists().forPath(path) == null) {
+            curatorFramework.create().creatingParentsIfNeeded().forPath(path, bytes.toByteArray());
+            stat = curatorFramework.checkExists().forPath(path);
+        } else {
+            stat = curatorFramework.setData().withVersion(expectedZnodeVersion).forPath(path, bytes.toByteArray());
+        }
+
+        deleteChunks(curatorFramework, chunksPath, version);
+
+        return stat.getVersion();
+    }
+
+    private static void deleteChunks(CuratorFramework curatorFramework, String chunksPath, long keepVersion)
+        throws Exception {
+        if (curatorFramework.checkExists().forPath(chunksPath) == null) {
+            return;
+        }
+
+        for (String chunk : curatorFramework.getChildren().forPath(chunksPath)) {
+            if (!chunk.startsWith(keepVersion + "-")) {
+                try {
+                    curatorFramework.delete().forPath(ZKPaths.makePath(chunksPath, chunk));
+                } catch (KeeperException.NoNodeException ignore) {
+                    // Deleted by a concurrent publisher.
+                }
+            }
+        }
+    }
+
+    private static String chunkName(long version, int index) {
+        return version + "-" + index;
+    }
+
+    /**
+     * @param curatorFramework the curator framework
+     * @param path the header path
+     * @return the header, null if no snapshot was published
+     * @throws Exception on ZooKeeper errors
+     */
+    static Header readHeader(CuratorFramework curatorFramework, String path) throws Exception {
+        Stat stat = new Stat();
+
+        try {
+            return parseHeader(curatorFramework.getData().storingStatIn(stat).forPath(path), stat);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the published snapshot, leaving a watch on the header.
+     *
+     * @param curatorFramework the curator framework
+     * @param path the header path
+     * @param watcher notified when the header changes, is created or deleted
+     * @return the encoded snapshot, null if no snapshot was published
+     * @throws Exception on ZooKeeper errors or if the snapshot is corrupt
+     */
+    static byte[] read(CuratorFramework curatorFramework, String path, Watcher watcher) throws Exception {
+        for (int attempt = 1;; attempt++) {
+            Stat stat = new Stat();
+            byte[] headerData;
+
+            try {
+                headerData = curatorFramework.getData().storingStatIn(stat).usingWatcher(watcher).forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                // Watch for the first snapshot to be published.
+                if (curatorFramework.checkExists().usingWatcher(watcher).forPath(path) == null) {
+                    return null;
+                }
+                continue;
+            }
+
+            Header header = parseHeader(headerData, stat);
+
+            if (header == null) {
+                return null;
+            }
+
+            if (header.chunks == 0) {
+                return verify(header, header.inline);
+            }
+
+            try {
+                return verify(header, readChunks(curatorFramework, path, header));
+            } catch (KeeperException.NoNodeException e) {
+                // Superseded by a newer version while reading, the watch has fired already.
+                if (attempt >= READ_ATTEMPTS) {
+                    throw e;
+                }
+                logger.debug("snapshot " + header.version + " superseded while reading, retrying");
+            }
+        }
+    }
+
+    /**
+     * Read the published snapshot with background operations, leaving a watch on the header.  The
+     * future completes on the ZooKeeper event thread.
+     *
+     * @param curatorFramework the curator framework
+     * @param path the header path
+     * @param watcher notified when the header changes, is created or deleted
+     * @return a future of the encoded snapshot, of null if no snapshot was published
+     */
+    static CompletableFuture<byte[]> readAsync(CuratorFramework curatorFramework, String path, Watcher watcher) {
+        CompletableFuture<byte[]> read = new CompletableFuture<byte[]>();
+        readAsync(curatorFramework, path, watcher, 1, read);
+
+        return read;
+    }
+
+    private static void readAsync(final CuratorFramework curatorFramework, final String path, final Watcher watcher,
+            final int attempt, final CompletableFuture<byte[]> read) {
+        try {
+            curatorFramework.getData().usingWatcher(watcher).inBackground((client, event) -> {
+                try {
+                    KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+
+                    if (code == KeeperException.Code.NONODE) {
+                        // Watch for the first snapshot to be published.
+                        client.checkExists().usingWatcher(watcher).inBackground((exists, existsEvent) -> {
+                            if (existsEvent.getStat() == null) {
+                                read.complete(null);
+                            } else {
+                                retry(curatorFramework, path, watcher, attempt, read,
+                                        KeeperException.create(code, path));
+                            }
+                        }).forPath(path);
+                        return;
+                    }
+                    if (code != KeeperException.Code.OK) {
+                        read.completeExceptionally(KeeperException.create(code, path));
+                        return;
+                    }
+
+                    final Header header = parseHeader(event.getData(), event.getStat());
+
+                    if (header == null) {
+                        read.complete(null);
+                    } else if (header.chunks == 0) {
+                        read.complete(verify(header, header.inline));
+                    } else {
+                        readChunksAsync(curatorFramework, path, header).whenComplete((data, error) -> {
+                            Throwable cause = (error instanceof CompletionException) ? error.getCause() : error;
+
+                            if (cause instanceof KeeperException.NoNodeException) {
+                                // Superseded by a newer version while reading, the watch has fired already.
+                                retry(curatorFramework, path, watcher, attempt, read, cause);
+                            } else if (cause != null) {
+                                read.completeExceptionally(cause);
+                            } else {
+                                try {
+                                    read.complete(verify(header, data));
+                                } catch (IOException e) {
+                                    read.completeExceptionally(e);
+                                }
+                            }
+                        });
+                    }
+                } catch (Exception e) {
+                    read.completeExceptionally(e);
+                }
+            }).forPath(path);
+        } catch (Exception e) {
+            read.completeExceptionally(e);
+        }
+    }
+
+    private static void retry(CuratorFramework curatorFramework, String path, Watcher watcher, int attempt,
+            CompletableFuture<byte[]> read, Throwable error) {
+        if (attempt >= READ_ATTEMPTS) {
+            read.completeExceptionally(error);
+        } else {
+            logger.debug("snapshot at " + path + " changed while reading, retrying");
+            readAsync(curatorFramework, path, watcher, attempt + 1, read);
+        }
+    }
+
+    private static CompletableFuture<byte[]> readChunksAsync(CuratorFramework curatorFramework, String path,
+            final Header header) {
+        final byte[][] chunks = new byte[header.chunks][];
+        List<CompletableFuture<Void>> reads = new ArrayList<CompletableFuture<Void>>();
+        String chunksPath = ZKPaths.makePath(path, CHUNKS);
+
+        for (int i = 0; i < header.chunks; i++) {
+            final int index = i;
+            final String chunkPath = ZKPaths.makePath(chunksPath, chunkName(header.version, i));
+            final CompletableFuture<Void> chunk = new CompletableFuture<Void>();
+
+            try {
+                curatorFramework.getData().inBackground((client, event) -> {
+                    KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+
+                    if (code == KeeperException.Code.OK) {
+                        chunks[index] = event.getData();
+                        chunk.complete(null);
+                    } else {
+                        chunk.completeExceptionally(KeeperException.create(code, chunkPath));
+                    }
+                }).forPath(chunkPath);
+            } catch (Exception e) {
+                chunk.completeExceptionally(e);
+            }
+            reads.add(chunk);
+        }
+
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture[0])).thenApply(v -> {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(header.length);
+
+            for (byte[] chunk : chunks) {
+                data.write(chunk, 0, chunk.length);
+            }
+
+            return data.toByteArray();
+        });
+    }
+
+    private static byte[] readChunks(CuratorFramework curatorFramework, String path, Header header)
+        throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(header.length);
+        String chunksPath = ZKPaths.makePath(path, CHUNKS);
+
+        for (int i = 0; i < header.chunks; i++) {
+            data.write(curatorFramework.getData().forPath(ZKPaths.makePath(chunksPath, chunkName(header.version, i))));
+        }
+
+        return data.toByteArray();
+    }
+
+    private static byte[] verify(Header header, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        if ((data.length != header.length) || (crc.getValue() != header.crc)) {
+            throw new IOException("Registry snapshot " + header.version + " failed verification");
+        }
+
+        return data;
+    }
+
+    private static Header parseHeader(byte[] data, Stat stat) throws IOException {
+        if ((data == null) || (data.length == 0)) {
+            // Created as the parent of the leader latch, nothing published yet.
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        if ((data.length < 4) || (in.readInt() != MAGIC)) {
+            throw new IOException("Not a registry snapshot header");
+        }
+
+        long version = in.readLong();
+        int chunks = in.readInt();
+        int length = in.readInt();
+        long crc = in.readLong();
+        byte[] inline = null;
+
+        if (chunks == 0) {
+            inline = new byte[length];
+            in.readFully(inline);
+        }
+
+        return new Header(version, chunks, length, crc, inline, stat.getVersion());
+    }
+}
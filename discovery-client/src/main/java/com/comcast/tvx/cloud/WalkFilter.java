@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.Arrays;
+
+/**
+ * A {@link DiscoveryClient} filter prepared for walking the registry node by node: where to start,
+ * which children to descend into, and which leaves are instances.  Child indexes count the filter
+ * segments, so the children of the node a filter without "**" names are services at index
+ * {@link #getServiceIndex()}, and theirs are instances.
+ */
+final class WalkFilter {
+
+    private final PathFilter pathFilter;
+    private final String[] segments;
+    private final boolean recursive;
+    private final String start;
+    private final int startIndex;
+
+    /**
+     * @param basePath the base path
+     * @param filter a filter, as given to {@link DiscoveryClient#withCriteria(String)}
+     */
+    WalkFilter(String basePath, String filter) {
+        this.pathFilter = new PathFilter(basePath, filter);
+
+        String trimmed = filter.replaceAll("^/+", "").replaceAll("/+$", "");
+        String[] split = (trimmed.length() == 0) ? new String[0] : trimmed.split("/+");
+        int length = 0;
+
+        while ((length < split.length) && !split[length].equals("**")) {
+            length++;
+        }
+        this.segments = Arrays.copyOf(split, length);
+        this.recursive = length < split.length;
+
+        // Start below the segments without wildcards.
+        String path = basePath.endsWith("/") ? basePath.substring(0, basePath.length() - 1) : basePath;
+        int index = 0;
+
+        while ((index < segments.length) && !segments[index].equals("*")) {
+            path += "/" + segments[index++];
+        }
+        this.start = path;
+        this.startIndex = index;
+    }
+
+    /**
+     * @return the path to start walking at.
+     */
+    String getStart() {
+        return start;
+    }
+
+    /**
+     * @return the index of the children of the start path.
+     */
+    int getStartIndex() {
+        return startIndex;
+    }
+
+    /**
+     * @return the index of services if the filter has no "**", -1 otherwise.
+     */
+    int getServiceIndex() {
+        return recursive ? -1 : segments.length;
+    }
+
+    /**
+     * @param child name of a child
+     * @param index index of the child
+     * @return true if instances may be found at or below the child.
+     */
+    boolean descends(String child, int index) {
+        if (index < segments.length) {
+            return segments[index].equals("*") || segments[index].equals(child);
+        }
+
+        // Not below the instance level.
+        return recursive || (index <= segments.length + 1);
+    }
+
+    /**
+     * @param path full path of a leaf
+     * @return true if the leaf is an instance the filter selects.
+     */
+    boolean matches(String path) {
+        return pathFilter.matches(path);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Registers, finds, counts and removes instances with the asynchronous and streaming client methods.
+ */
+@Test(groups = "AsyncClientIT")
+public class AsyncClientIT extends AbstractITBase {
+
+    private CuratorFramework curator;
+    private String root = basePath + "/" + System.currentTimeMillis();
+
+    @BeforeClass
+    public void setUp() {
+        curator = getCurator();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        curator.close();
+    }
+
+    @Test
+    public void testAdvertiseFindAndRemove() throws Exception {
+        RegistrationClient registration = new RegistrationClient(curator, root + "/region1/zone1", "guide",
+                "127.0.0.1", "http:80,https:443");
+        registration.advertiseAvailabilityAsync(10, TimeUnit.SECONDS).get();
+        registration.verifyRegistrationsAsync(10, TimeUnit.SECONDS).get();
+
+        Map<String, MetaData> all = new DiscoveryClient(curator).usingBasePath(root).findInstancesAsync().get();
+        assertEquals(all.size(), 2);
+        assertTrue(all.containsKey(root + "/region1/zone1/guide/http/127.0.0.1:80"));
+        assertEquals(all.get(root + "/region1/zone1/guide/https/127.0.0.1:443").getListenPort(), 443);
+
+        // Same result as walking the registry synchronously.
+        assertEquals(all.keySet(), new DiscoveryClient(curator).usingBasePath(root).findInstances().keySet());
+
+        assertEquals(new DiscoveryClient(curator).usingBasePath(root).withCriteria("region1/*/guide")
+            .findInstancesAsync().get().size(), 2);
+        assertEquals(new DiscoveryClient(curator).usingBasePath(root).withCriteria("*/zone2/guide")
+            .findInstancesAsync().get().size(), 0);
+
+        registration.deAdvertiseAvailabilityAsync(10, TimeUnit.SECONDS).get();
+        assertEquals(new DiscoveryClient(curator).usingBasePath(root).findInstancesAsync().get().size(), 0);
+    }
+
+    @Test
+    public void testDuplicateRegistration() throws Exception {
+        RegistrationClient first = new RegistrationClient(curator, root + "/region1/zone2", "search", "127.0.0.1",
+                "http:8080");
+        first.advertiseAvailabilityAsync().get();
+
+        try {
+            new RegistrationClient(curator, root + "/region1/zone2", "search", "127.0.0.1", "http:8080")
+                .advertiseAvailabilityAsync().get();
+            fail("Duplicate registered");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, e.toString());
+        } finally {
+            first.deAdvertiseAvailabilityAsync().get();
+        }
+    }
+
+    @Test
+    public void testDuplicateRollsBack() throws Exception {
+        String zone = root + "/region1/zone3";
+        RegistrationClient first = new RegistrationClient(curator, zone, "search", "127.0.0.1", "http:8080");
+        first.advertiseAvailabilityAsync().get();
+
+        // Only http is a duplicate, https is registered and removed again.
+        RegistrationClient second = new RegistrationClient(curator, zone, "search", "127.0.0.1",
+                "http:8080,https:8443");
+        try {
+            second.advertiseAvailabilityAsync(10, TimeUnit.SECONDS).get();
+            fail("Duplicate registered");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, e.toString());
+        }
+
+        assertEquals(curator.checkExists().forPath(zone + "/search/https/127.0.0.1:8443"), null);
+        assertEquals(new DiscoveryClient(curator).usingBasePath(zone).findInstances().size(), 1);
+
+        // The failed client is not left advertising, and can once the duplicate is gone.
+        first.deAdvertiseAvailabilityAsync().get();
+        second.advertiseAvailabilityAsync(10, TimeUnit.SECONDS).get();
+        assertEquals(new DiscoveryClient(curator).usingBasePath(zone).findInstances().size(), 2);
+        second.deAdvertiseAvailabilityAsync().get();
+    }
+
+    @Test
+    public void testCountInstances() throws Exception {
+        String countRoot = root + "/count";
+        RegistrationClient zone1 = new RegistrationClient(curator, countRoot + "/region1/zone1", "guide",
+                "127.0.0.1", "http:80,https:443").advertiseAvailabilityAsync().get();
+        RegistrationClient zone2 = new RegistrationClient(curator, countRoot + "/region1/zone2", "guide",
+                "127.0.0.2", "http:80").advertiseAvailabilityAsync().get();
+        DiscoveryClient client = new DiscoveryClient(curator).usingBasePath(countRoot);
+
+        try {
+            for (String filter : new String[] { "**", "region1/**", "region1/*/guide", "*/zone2/guide",
+                    "region1/zone1/guide", "region2/**", "region1/zone3/guide" }) {
+                long found = new DiscoveryClient(curator).usingBasePath(countRoot).withCriteria(filter)
+                    .findInstancesAsync().get().size();
+
+                assertEquals(client.countInstances(filter), found, filter);
+                assertEquals(client.hasInstances(filter), found > 0, filter);
+            }
+            assertEquals(client.countInstances("region1/*/guide"), 3);
+
+            try {
+                new DiscoveryClient(curator).usingBasePath(countRoot).withOperationBudget(2).countInstances("**");
+                fail("Counted beyond the budget");
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause() instanceof DiscoveryClient.BudgetExceededException, e.toString());
+            }
+
+            // The service and zone nodes left behind are not instances.
+            zone1.deAdvertiseAvailabilityAsync().get();
+            assertEquals(client.countInstances("**"), 1);
+            assertEquals(client.countInstances("region1/zone1/**"), 0);
+            assertFalse(client.hasInstances("region1/zone1/**"));
+        } finally {
+            zone1.deAdvertiseAvailabilityAsync().get();
+            zone2.deAdvertiseAvailabilityAsync().get();
+        }
+        assertEquals(new DiscoveryClient(curator).usingBasePath(countRoot).countInstances("**"), 0);
+    }
+
+    @Test
+    public void testVisitInstances() throws Exception {
+        String visitRoot = root + "/visit";
+        RegistrationClient zone1 = new RegistrationClient(curator, visitRoot + "/region1/zone1", "guide",
+                "127.0.0.1", "http:80,https:443").advertiseAvailabilityAsync().get();
+        RegistrationClient zone2 = new RegistrationClient(curator, visitRoot + "/region1/zone2", "guide",
+                "127.0.0.2", "http:80").advertiseAvailabilityAsync().get();
+
+        try {
+            for (String filter : new String[] { "**", "region1/*/guide", "region1/zone2/guide" }) {
+                final List<String> paths = new ArrayList<String>();
+                DiscoveryClient client = new DiscoveryClient(curator).usingBasePath(visitRoot).withCriteria(filter);
+
+                long visited = client.visitInstances(instance -> {
+                    paths.add(instance.getPath());
+                    return true;
+                });
+
+                assertEquals(visited, paths.size());
+                assertEquals(paths, new ArrayList<String>(client.findInstancesAsync().get().keySet()), filter);
+            }
+
+            // Payloads are read on demand, and the visitor may stop early.
+            final List<InstanceNode> nodes = new ArrayList<InstanceNode>();
+            new DiscoveryClient(curator).usingBasePath(visitRoot).withCriteria("region1/zone1/guide")
+                .visitInstances(instance -> {
+                    nodes.add(instance);
+                    return false;
+                });
+            assertEquals(nodes.size(), 1);
+            assertEquals(nodes.get(0).getServiceName(), "http");
+            assertEquals(nodes.get(0).getMetaData().getListenPort(), 80);
+
+            // The service and zone nodes left behind are not instances.
+            zone1.deAdvertiseAvailabilityAsync().get();
+            final List<String> paths = new ArrayList<String>();
+            new DiscoveryClient(curator).usingBasePath(visitRoot).visitInstances(instance -> {
+                paths.add(instance.getPath());
+                return true;
+            });
+            assertEquals(paths, Collections.singletonList(visitRoot + "/region1/zone2/guide/http/127.0.0.2:80"));
+        } finally {
+            zone1.deAdvertiseAvailabilityAsync().get();
+            zone2.deAdvertiseAvailabilityAsync().get();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CompletableFuture<Object> never = FutureTimeouts.within(new CompletableFuture<Object>(), 50,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            never.get();
+            fail("Not timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Heap used per instance by a plain map of paths to MetaData and by a {@link RegistrySnapshot}.
+ * Not a test, run by hand with a large heap, e.g. -Xmx4g, and optionally the instance counts as
+ * arguments.
+ */
+public class CompactInstanceStoreBenchmark {
+
+    private static final String[] REGIONS = { "us-east", "us-west", "eu-central" };
+    private static final String[] ZONES = { "a", "b", "c", "d" };
+    private static final String[] FLAVORS = { "blue", "green" };
+
+    public static void main(String[] args) {
+        int[] counts = { 100000, 1000000 };
+
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for (int count : counts) {
+            long baseline = usedHeap();
+            Map<String, MetaData> instances = instances(count);
+            long plain = usedHeap() - baseline;
+
+            RegistrySnapshot snapshot = new RegistrySnapshot(1, System.currentTimeMillis(), instances);
+            instances = null;
+            long compact = usedHeap() - baseline;
+
+            System.out.println(String.format("%,d instances: map %,d bytes/instance, snapshot %,d bytes/instance",
+                    snapshot.size(), plain / count, compact / count));
+        }
+    }
+
+    private static Map<String, MetaData> instances(int count) {
+        Map<String, MetaData> instances = new TreeMap<String, MetaData>();
+
+        for (int i = 0; i < count; i++) {
+            String address = "10." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+            String service = "service" + (i % 50);
+            int port = 8000 + (i % 4);
+            String path = "/services/" + REGIONS[i % REGIONS.length] + "/" + ZONES[(i / 3) % ZONES.length] + "/"
+                    + FLAVORS[(i / 12) % FLAVORS.length] + "/" + service + "/" + address + ":" + port;
+
+            Map<String, String> parameters = new HashMap<String, String>();
+            parameters.put("version", "1." + (i % 5));
+            parameters.put("weight", "100");
+
+            MetaData metaData = new MetaData(UUID.randomUUID(), address, port, service);
+            metaData.setRegistrationTime(System.currentTimeMillis());
+            metaData.setParameters(parameters);
+            instances.put(path, metaData);
+        }
+
+        return instances;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
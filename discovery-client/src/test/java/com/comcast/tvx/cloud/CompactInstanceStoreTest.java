@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CompactInstanceStoreTest {
+
+    private static final String ROOT = "/services";
+
+    private TreeMap<String, MetaData> instances;
+    private CompactInstanceStore store;
+
+    @BeforeMethod
+    public void setUp() {
+        instances = new TreeMap<String, MetaData>();
+        add("east/a/x/guide/10.0.0.1:8080", "10.0.0.1", 8080, "1.0");
+        add("east/a/x/search/10.0.0.1:9090", "10.0.0.1", 9090, "1.0");
+        add("east/b/x/guide/10.0.1.1:8080", "10.0.1.1", 8080, "1.1");
+        add("west/a/x/guide/10.1.0.1:8080", "10.1.0.1", 8080, null);
+        instances.put(ROOT + "/west/a/x/guide/empty", new MetaData(null, null, 0, null));
+        instances.put(ROOT + "/west/a/x/guide/none", null);
+        store = CompactInstanceStore.of(instances);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        assertEquals(store.size(), instances.size());
+        assertEquals(new ArrayList<String>(store.keySet()), new ArrayList<String>(instances.keySet()));
+
+        for (Map.Entry<String, MetaData> entry : instances.entrySet()) {
+            MetaData expected = entry.getValue();
+            MetaData actual = store.get(entry.getKey());
+
+            if (expected == null) {
+                assertNull(actual);
+                assertTrue(store.containsKey(entry.getKey()));
+                continue;
+            }
+            assertEquals(actual.getWorkerId(), expected.getWorkerId());
+            assertEquals(actual.getListenAddress(), expected.getListenAddress());
+            assertEquals(actual.getListenPort(), expected.getListenPort());
+            assertEquals(actual.getServiceName(), expected.getServiceName());
+            assertEquals(actual.getParameters(), expected.getParameters());
+            assertEquals(actual.getRegistrationTime(), expected.getRegistrationTime());
+            assertEquals(actual.isDraining(), expected.isDraining());
+        }
+    }
+
+    @Test
+    public void testLookup() {
+        assertFalse(store.containsKey(ROOT + "/east"));
+        assertFalse(store.containsKey(ROOT + "/east/a/x/guide/10.0.0.1:80"));
+        assertFalse(store.containsKey(ROOT + "/east/a/x/guide/10.0.0.1:80800"));
+        assertFalse(store.containsKey(42));
+        assertNull(store.get(ROOT + "/north/a/x/guide/1"));
+    }
+
+    @Test
+    public void testSharesValues() {
+        MetaData guide = store.get(ROOT + "/east/a/x/guide/10.0.0.1:8080");
+        MetaData search = store.get(ROOT + "/east/a/x/search/10.0.0.1:9090");
+
+        assertSame(guide.getListenAddress(), search.getListenAddress());
+        assertSame(guide.getParameters(), search.getParameters());
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testParametersImmutable() {
+        store.get(ROOT + "/east/a/x/guide/10.0.0.1:8080").getParameters().put("version", "2.0");
+    }
+
+    @Test
+    public void testSortedViews() {
+        assertEquals(store.firstKey(), instances.firstKey());
+        assertEquals(store.lastKey(), instances.lastKey());
+        assertViews(store.headMap(ROOT + "/east/b"), instances.headMap(ROOT + "/east/b"));
+        assertViews(store.tailMap(ROOT + "/east/b"), instances.tailMap(ROOT + "/east/b"));
+        assertViews(store.subMap(ROOT + "/east/a/x/search", ROOT + "/west/a/x/guide/empty"),
+                instances.subMap(ROOT + "/east/a/x/search", ROOT + "/west/a/x/guide/empty"));
+        assertViews(store.subMap(ROOT + "/north", ROOT + "/south"), instances.subMap(ROOT + "/north", ROOT + "/south"));
+
+        SortedMap<String, MetaData> west = store.tailMap(ROOT + "/west");
+        assertFalse(west.containsKey(ROOT + "/east/a/x/guide/10.0.0.1:8080"));
+        assertEquals(west.get(ROOT + "/west/a/x/guide/10.1.0.1:8080").getListenAddress(), "10.1.0.1");
+    }
+
+    @Test
+    public void testMapContract() {
+        // Value equality, as the views are not the MetaData they were built from.
+        assertEquals(store, instances);
+        assertEquals(instances, store);
+        assertEquals(store.hashCode(), instances.hashCode());
+        assertEquals(store.entrySet(), instances.entrySet());
+
+        // One view per row, also through sub maps.
+        String path = ROOT + "/west/a/x/guide/10.1.0.1:8080";
+        assertSame(store.get(path), store.get(path));
+        assertSame(store.tailMap(ROOT + "/west").get(path), store.get(path));
+        assertSame(store.lastKey(), store.lastKey());
+    }
+
+    @Test
+    public void testOfCompactStore() {
+        assertSame(CompactInstanceStore.of(store), store);
+        assertEquals(CompactInstanceStore.of(new HashMap<String, MetaData>(instances)).keySet(), instances.keySet());
+    }
+
+    private void assertViews(SortedMap<String, MetaData> actual, SortedMap<String, MetaData> expected) {
+        assertEquals(actual.size(), expected.size());
+        assertEquals(new ArrayList<String>(actual.keySet()), new ArrayList<String>(expected.keySet()));
+    }
+
+    private void add(String path, String address, int port, String version) {
+        MetaData metaData = new MetaData(UUID.randomUUID(), address, port, path.split("/")[3]);
+        metaData.setRegistrationTime(1000 + instances.size());
+
+        if (version != null) {
+            Map<String, String> parameters = new HashMap<String, String>();
+            parameters.put("version", version);
+            metaData.setParameters(parameters);
+        }
+        instances.put(ROOT + "/" + path, metaData);
+    }
+}
@@ -20,9 +20,15 @@ import java.io.File;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.curator.framework.CuratorFramework;
 
@@ -89,7 +95,195 @@ public class DiscoveryClientTest {
         Assert.assertTrue(instances.containsKey(basePath + "/" + "b/bb/bbb"));
     }
 
-   
+    @Test
+    public void testConcurrentCallsShareRead() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch joined = new CountDownLatch(7);
+        final CountingDiscoveryClient client = new CountingDiscoveryClient() {
+
+            @Override
+            protected void joinedRead() {
+                joined.countDown();
+            }
+
+            @Override
+            protected Map<String, MetaData> findLiveInstances() {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.findLiveInstances();
+            }
+        };
+        final List<Map<String, MetaData>> results = new ArrayList<Map<String, MetaData>>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    Map<String, MetaData> result = client.findInstances();
+                    synchronized (results) {
+                        results.add(result);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+
+            if (i == 0) {
+                reading.await();
+            }
+        }
+
+        // Let the others join the read.
+        joined.await();
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(1, client.reads.get());
+        Assert.assertEquals(8, results.size());
+        // Each caller gets its own copy to modify.
+        Set<Map<String, MetaData>> distinct = Collections.newSetFromMap(
+                new IdentityHashMap<Map<String, MetaData>, Boolean>());
+        for (Map<String, MetaData> result : results) {
+            Assert.assertEquals(1, result.size());
+            distinct.add(result);
+        }
+        Assert.assertEquals(8, distinct.size());
+
+        // Done reading, the next call reads again.
+        client.findInstances();
+        Assert.assertEquals(2, client.reads.get());
+    }
+
+    @Test
+    public void testMaxStaleness() {
+        CountingDiscoveryClient client = new CountingDiscoveryClient();
+        client.withMaxStaleness(60000);
+
+        client.findInstances().clear();
+        Assert.assertEquals(1, client.findInstances().size());
+        Assert.assertEquals(1, client.reads.get());
+
+        // A changed filter set is not answered from the last result.
+        client.withCriteria("/other/**");
+        client.findInstances();
+        Assert.assertEquals(2, client.reads.get());
+
+        // Neither is a changed base path.
+        client.usingBasePath("/other");
+        client.findInstances();
+        Assert.assertEquals(3, client.reads.get());
+
+        client.withMaxStaleness(0);
+        client.findInstances();
+        Assert.assertEquals(4, client.reads.get());
+    }
+
+    @Test
+    public void testOperationBudget() {
+        DiscoveryClient client = new BudgetedDiscoveryClient();
+        Map<String, MetaData> complete = client.findInstances();
+        Assert.assertEquals(10, complete.size());
+        Assert.assertFalse(client.isStale());
+
+        // Subtrees beyond the budget are served from the last result.
+        client.withOperationBudget(2);
+        Assert.assertEquals(complete.keySet(), client.findInstances().keySet());
+        Assert.assertTrue(client.isStale());
+        // This walk starts at b: its first directory is read, the other three and a are not.
+        Assert.assertEquals(4, client.getStaleSubtrees().size());
+        Assert.assertTrue(client.getStaleSubtrees().contains(basePath + "/a"));
+
+        // The next one starts at a, so b is read again rather than carried over for good.
+        Assert.assertEquals(complete.keySet(), client.findInstances().keySet());
+        Assert.assertEquals(3, client.getStaleSubtrees().size());
+        Assert.assertTrue(client.getStaleSubtrees().contains(basePath + "/b"));
+
+        // Without one they are missing, and still flagged.
+        DiscoveryClient fresh = new BudgetedDiscoveryClient().withOperationBudget(2);
+        Assert.assertEquals(1, fresh.findInstances().size());
+        Assert.assertTrue(fresh.isStale());
+
+        client.withOperationBudget(0);
+        client.findInstances();
+        Assert.assertFalse(client.isStale());
+    }
+
+    @Test
+    public void testDeadline() {
+        DiscoveryClient client = new BudgetedDiscoveryClient() {
+
+            @Override
+            protected void findSubNodes(Map<String, MetaData> instances, String currentRoot) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                super.findSubNodes(instances, currentRoot);
+            }
+        }.withDeadline(50);
+
+        Map<String, MetaData> instances = client.findInstances();
+        Assert.assertTrue(instances.size() < 10);
+        Assert.assertTrue(client.isStale());
+        Assert.assertFalse(client.getStaleSubtrees().isEmpty());
+    }
+
+    /** Walks the test resources, one operation per directory. */
+    class BudgetedDiscoveryClient extends TestableDiscoveryClient {
+
+        BudgetedDiscoveryClient() {
+            super(null);
+            usingBasePath(basePath).withCriteria("/a/**").withCriteria("/b/**");
+        }
+
+        @Override
+        protected boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        protected void findSubNodes(Map<String, MetaData> instances, String currentRoot) {
+            try {
+                spend(currentRoot);
+            } catch (BudgetExceededException e) {
+                markStale(currentRoot, e);
+                return;
+            }
+            super.findSubNodes(instances, currentRoot);
+        }
+    }
+
+    class CountingDiscoveryClient extends DiscoveryClient {
+        AtomicInteger reads = new AtomicInteger();
+
+        CountingDiscoveryClient() {
+            super(null);
+            usingBasePath("/services").withCriteria("**");
+        }
+
+        @Override
+        protected void init() {
+        }
+
+        @Override
+        protected Map<String, MetaData> findLiveInstances() {
+            reads.incrementAndGet();
+
+            Map<String, MetaData> instances = new TreeMap<String, MetaData>();
+            instances.put("/services/a/b/http/1", new MetaData());
+            return instances;
+        }
+    }
 
     class TestableDiscoveryClient extends DiscoveryClient {
 
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class InstanceProviderTest {
+
+    private Map<String, MetaData> registry;
+    private DiscoveryClient client;
+
+    @BeforeMethod
+    public void setUp() {
+        registry = new TreeMap<String, MetaData>();
+        add("region1/zone1/guide/http/a", "10.0.0.1");
+        add("region1/zone1/guide/http/b", "10.0.0.2");
+        add("region1/zone2/guide/http/c", "10.0.1.1");
+        add("region2/zone1/guide/http/d", "10.1.0.1");
+        add("region1/zone1/guide/https/a", "10.0.0.1");
+
+        client = new StaticDiscoveryClient(registry);
+    }
+
+    @Test
+    public void testRoundRobin() {
+        InstanceProvider provider = new InstanceProvider(client, new RoundRobinStrategy());
+        provider.refresh();
+
+        Set<String> picked = new HashSet<String>();
+        for (int i = 0; i < 4; i++) {
+            picked.add(provider.pick("guide", "http").getId());
+        }
+        assertEquals(picked.size(), 4);
+        assertEquals(provider.pick("guide", "https").getAddress(), "10.0.0.1");
+        assertNull(provider.pick("guide", "ftp"));
+    }
+
+    @Test
+    public void testRandom() {
+        InstanceProvider provider = new InstanceProvider(client, new RandomStrategy(new Random(1)));
+        provider.refresh();
+
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 4000; i++) {
+            String id = provider.pick("guide", "http").getId();
+            counts.put(id, counts.containsKey(id) ? counts.get(id) + 1 : 1);
+        }
+        for (int count : counts.values()) {
+            assertTrue((count > 800) && (count < 1200), "uniform: " + counts);
+        }
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesAvoidsLoaded() {
+        InstanceProvider provider = new InstanceProvider(client, new PowerOfTwoChoicesStrategy(new Random(1)));
+        provider.refresh();
+
+        // Load all but one instance.
+        Instance idle = null;
+        for (int i = 0; i < 100; i++) {
+            Instance instance = provider.pick("guide", "http");
+            if (!instance.getId().equals("a")) {
+                instance.acquire();
+            } else {
+                idle = instance;
+            }
+        }
+
+        int idlePicks = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (provider.pick("guide", "http") == idle) {
+                idlePicks++;
+            }
+        }
+        // Picked whenever sampled, i.e. in about half of all picks rather than a quarter.
+        assertTrue(idlePicks > 400, "idle picks: " + idlePicks);
+    }
+
+    @Test
+    public void testInFlightSurvivesRefresh() {
+        InstanceProvider provider = new InstanceProvider(client, new RoundRobinStrategy());
+        provider.refresh();
+
+        Instance instance = provider.pick("guide", "https").acquire();
+        provider.refresh();
+        Instance refreshed = provider.pick("guide", "https");
+
+        assertEquals(refreshed.getInFlight(), 1);
+        instance.release();
+        assertEquals(refreshed.getInFlight(), 0);
+    }
+
+    @Test
+    public void testZoneAffinity() {
+        InstanceProvider provider = new InstanceProvider(client, new RoundRobinStrategy())
+            .withZoneAffinity("region1", "zone1", 2);
+        provider.refresh();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(provider.pick("guide", "http").getZone(), "zone1");
+        }
+
+        // Too few in the zone, the region is added.
+        registry.remove("/services/region1/zone1/guide/http/b");
+        provider.refresh();
+        Set<String> picked = new HashSet<String>();
+        for (int i = 0; i < 10; i++) {
+            picked.add(provider.pick("guide", "http").getId());
+        }
+        assertEquals(picked, new HashSet<String>(Arrays.asList("a", "c")));
+    }
+
+    @Test
+    public void testDrainingNotPicked() {
+        registry.get("/services/region1/zone1/guide/https/a").setDraining(true);
+        InstanceProvider provider = new InstanceProvider(client, new RoundRobinStrategy());
+        provider.refresh();
+
+        assertNull(provider.pick("guide", "https"));
+    }
+
+    @Test
+    public void testFlavorsNotMixed() {
+        add("region1/zone1/search/http/e", "10.0.2.1");
+        InstanceProvider provider = new InstanceProvider(client, new RoundRobinStrategy());
+        provider.refresh();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(provider.pick("guide", "http").getFlavor(), "guide");
+            assertEquals(provider.pick("search", "http").getAddress(), "10.0.2.1");
+        }
+        assertNull(provider.pick("search", "https"));
+    }
+
+    @Test
+    public void testKeepsViewOnFailure() {
+        StaticDiscoveryClient flaky = new StaticDiscoveryClient(registry);
+        InstanceProvider provider = new InstanceProvider(flaky, new RoundRobinStrategy());
+        provider.refresh();
+        Instance instance = provider.pick("guide", "https");
+
+        flaky.failWith(new IllegalStateException("connection loss"));
+        provider.run();
+        assertSame(provider.pick("guide", "https"), instance);
+    }
+
+    private void add(String path, String address) {
+        registry.put("/services/" + path, new MetaData(UUID.randomUUID(), address, 8080, path.split("/")[3]));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class LocalSnapshotStoreTest {
+
+    private File file;
+    private Map<String, MetaData> instances;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = File.createTempFile("registry", ".snapshot");
+        file.delete();
+        instances = new TreeMap<String, MetaData>();
+        instances.put("/services/east/a/x/guide/1", new MetaData(UUID.randomUUID(), "10.0.0.1", 8080, "guide"));
+        instances.put("/services/east/a/x/guide/2", new MetaData(UUID.randomUUID(), "10.0.0.2", 8080, "guide"));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        LocalSnapshotStore store = new LocalSnapshotStore(file);
+        assertNull(store.load());
+
+        store.save(new RegistrySnapshot(3, 42, 17, instances));
+        RegistrySnapshot snapshot = store.load();
+
+        assertEquals(snapshot.getVersion(), 3L);
+        assertEquals(snapshot.getZxid(), 17L);
+        assertEquals(snapshot.getInstances().keySet(), instances.keySet());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testCorruptFileIgnored() throws IOException {
+        LocalSnapshotStore store = new LocalSnapshotStore(file);
+        store.save(new RegistrySnapshot(3, 42, instances));
+
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.seek(output.length() - 1);
+        output.write(output.read() ^ 0xff);
+        output.close();
+        assertNull(store.load());
+
+        output = new RandomAccessFile(file, "rw");
+        output.setLength(10);
+        output.close();
+        assertNull(store.load());
+    }
+
+    @Test
+    public void testClientServesLocalSnapshotUntilSynced() throws IOException {
+        new LocalSnapshotStore(file).save(new RegistrySnapshot(3, 42, instances));
+
+        FakeClient client = new FakeClient();
+        client.usingBasePath("/services").withLocalSnapshot(file);
+
+        // Not connected yet, answered from disk without touching ZooKeeper.
+        assertEquals(client.findInstances().size(), 2);
+        assertTrue(client.isStale());
+        assertEquals(client.reads, 0);
+
+        client.connected = true;
+        client.live.put("/services/east/a/x/guide/3", new MetaData(UUID.randomUUID(), "10.0.0.3", 8080, "guide"));
+        assertEquals(client.findInstances().size(), 1);
+        assertFalse(client.isStale());
+
+        RegistrySnapshot saved = new LocalSnapshotStore(file).load();
+        assertEquals(saved.getVersion(), 4L);
+        assertEquals(saved.size(), 1);
+
+        // Unchanged, not saved again.
+        client.findInstances();
+        assertEquals(new LocalSnapshotStore(file).load().getVersion(), 4L);
+
+        // Outage after the first sync, the last good result is served.
+        client.failing = true;
+        assertEquals(client.findInstances().keySet(), client.live.keySet());
+        assertTrue(client.isStale());
+
+        // Disconnected after the first sync, answered from disk without touching ZooKeeper.
+        client.failing = false;
+        client.connected = false;
+        int reads = client.reads;
+        assertEquals(client.findInstances().keySet(), client.live.keySet());
+        assertTrue(client.isStale());
+        assertEquals(client.reads, reads);
+    }
+
+    @Test
+    public void testWalkBoundedByConnectionTimeout() {
+        final boolean[] timedOut = { false };
+        FakeClient client = new FakeClient() {
+
+            @Override
+            protected Map<String, MetaData> findLiveInstances() {
+                try {
+                    Thread.sleep(60);
+                    spend("/services");
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                } catch (BudgetExceededException e) {
+                    timedOut[0] = true;
+                }
+                return super.findLiveInstances();
+            }
+        };
+        client.usingBasePath("/services").withLocalSnapshot(file);
+        client.connected = true;
+        client.findInstances();
+
+        assertTrue(timedOut[0]);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testNoLocalSnapshotPropagatesErrors() {
+        FakeClient client = new FakeClient();
+        client.usingBasePath("/services").withLocalSnapshot(file);
+        client.failing = true;
+        client.findInstances();
+    }
+
+    private static class FakeClient extends DiscoveryClient {
+        Map<String, MetaData> live = new TreeMap<String, MetaData>();
+        boolean connected = false;
+        boolean failing = false;
+        int reads = 0;
+
+        FakeClient() {
+            super(null);
+        }
+
+        @Override
+        protected void init() {
+        }
+
+        @Override
+        protected boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        protected long getConnectionTimeoutMillis() {
+            return 50;
+        }
+
+        @Override
+        protected Map<String, MetaData> findLiveInstances() {
+            reads++;
+
+            if (failing) {
+                throw new IllegalStateException("connection loss");
+            }
+
+            return new TreeMap<String, MetaData>(live);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class OutlierDetectorTest {
+
+    private OutlierDetector detector;
+    private Instance instance;
+
+    @BeforeMethod
+    public void setUp() {
+        detector = new OutlierDetector();
+        detector.setMaxConsecutiveFailures(3);
+        detector.setBaseEjectionMillis(1000);
+        detector.setMaxEjectionMillis(3000);
+        instance = new Instance("/services/region1/zone1/guide/http/a",
+                new MetaData(UUID.randomUUID(), "10.0.0.1", 8080, "http"), null);
+    }
+
+    @Test
+    public void testEjectOnConsecutiveFailures() {
+        detector.reportFailure(instance, 100, 0);
+        detector.reportFailure(instance, 100, 0);
+        detector.reportSuccess(instance, 10, 0);
+        detector.reportFailure(instance, 100, 0);
+        detector.reportFailure(instance, 100, 0);
+        assertTrue(detector.isAdmitted(instance, 0));
+
+        detector.reportFailure(instance, 100, 0);
+        assertFalse(detector.isAdmitted(instance, 0));
+        assertFalse(detector.isAdmitted(instance, 999));
+    }
+
+    @Test
+    public void testGradualReadmission() {
+        eject(0);
+
+        // A tenth just after the ejection.
+        assertEquals(admitted(1000, 100), 10);
+        // Half way through the ramp.
+        assertEquals(admitted(1500, 100), 55);
+        assertEquals(admitted(2000, 100), 100);
+    }
+
+    @Test
+    public void testBackoffDoubles() {
+        eject(0);
+        eject(1000);
+        assertFalse(detector.isAdmitted(instance, 2999));
+        assertEquals(admitted(3000, 100), 10);
+
+        // Capped at the maximum.
+        eject(3000);
+        assertFalse(detector.isAdmitted(instance, 5999));
+        assertEquals(admitted(6000, 100), 10);
+    }
+
+    @Test
+    public void testHealthyRampResetsBackoff() {
+        eject(0);
+        detector.reportSuccess(instance, 10, 2000);
+        eject(2000);
+
+        assertEquals(admitted(3000, 100), 10);
+    }
+
+    @Test
+    public void testEjectOnLatency() {
+        detector.setMaxLatencyMillis(200);
+        detector.setAlpha(0.5);
+
+        detector.reportSuccess(instance, 100, 0);
+        detector.reportSuccess(instance, 300, 0);
+        assertTrue(detector.isAdmitted(instance, 0));
+        assertEquals(instance.getLatency(), 200.0);
+
+        detector.reportSuccess(instance, 400, 0);
+        assertFalse(detector.isAdmitted(instance, 0));
+        // The next judgement is on new samples only.
+        assertEquals(instance.getLatency(), 0.0);
+    }
+
+    @Test
+    public void testProviderSkipsEjected() {
+        final Map<String, MetaData> registry = new TreeMap<String, MetaData>();
+        registry.put("/services/region1/zone1/guide/http/a", new MetaData(UUID.randomUUID(), "10.0.0.1", 8080, "http"));
+        registry.put("/services/region1/zone1/guide/http/b", new MetaData(UUID.randomUUID(), "10.0.0.2", 8080, "http"));
+        DiscoveryClient client = new StaticDiscoveryClient(registry);
+
+        InstanceProvider provider = new InstanceProvider(client, new RoundRobinStrategy())
+            .withOutlierDetection(detector);
+        provider.refresh();
+
+        Instance sick = provider.pick("guide", "http");
+        for (int i = 0; i < 3; i++) {
+            provider.reportFailure(sick, 5000);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertFalse(provider.pick("guide", "http") == sick);
+        }
+
+        // Ejection survives a refresh.
+        provider.refresh();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(provider.pick("guide", "http").getPath().equals(sick.getPath()));
+        }
+
+        // All ejected, still picks.
+        Instance other = provider.pick("guide", "http");
+        for (int i = 0; i < 3; i++) {
+            provider.reportFailure(other, 5000);
+        }
+        assertTrue(provider.pick("guide", "http") != null);
+    }
+
+    private void eject(long now) {
+        for (int i = 0; i < 3; i++) {
+            detector.reportFailure(instance, 100, now);
+        }
+    }
+
+    private int admitted(long now, int picks) {
+        int admitted = 0;
+
+        for (int i = 0; i < picks; i++) {
+            if (detector.isAdmitted(instance, now)) {
+                admitted++;
+            }
+        }
+
+        return admitted;
+    }
+}
@@ -134,6 +134,32 @@ public class RegistrationClientIT extends AbstractITBase {
         client.advertiseAvailability();
     }
 
+    /**
+     * Test two phase de-registration.
+     *
+     * @throws  Exception  the exception
+     */
+    @Test
+    public void testDrain() throws Exception {
+        RegistrationClient workerAdvertiser =
+            new RegistrationClient(getCurator(), basePath, "drain", "127.0.0.1", "foo:2181").advertiseAvailability();
+
+        ServiceDiscovery<MetaData> serviceDiscovery =
+            ServiceDiscoveryBuilder.builder(MetaData.class).client(getCurator()).basePath(basePath + "/drain").build();
+
+        ServiceInstance<MetaData> worker = serviceDiscovery.queryForInstances("foo").iterator().next();
+        assertFalse(worker.getPayload().isDraining());
+        assertTrue(worker.getPayload().getRegistrationTime() > 0);
+
+        workerAdvertiser.drain();
+
+        worker = serviceDiscovery.queryForInstances("foo").iterator().next();
+        assertTrue(worker.getPayload().isDraining());
+
+        workerAdvertiser.drainAndDeAdvertise(100);
+        assertEquals(serviceDiscovery.queryForInstances("foo").size(), 0);
+    }
+
     /**
      * Shutdown.
      */
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RegistryHttpServerTest {
+
+    private Map<String, MetaData> registry;
+    private RegistrySnapshotHolder snapshots;
+    private RegistryHttpServer server;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        registry = new TreeMap<String, MetaData>();
+        registry.put("/services/east/a/x/guide/1", new MetaData(UUID.randomUUID(), "10.0.0.1", 8080, "guide"));
+        registry.put("/services/west/a/x/guide/2", new MetaData(UUID.randomUUID(), "10.1.0.1", 8080, "guide"));
+
+        snapshots = new RegistrySnapshotHolder(new StaticDiscoveryClient(registry));
+        server = new RegistryHttpServer(snapshots, "/services", new InetSocketAddress("127.0.0.1", 0), 4);
+        server.start();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testNotReadyUntilFirstRefresh() throws IOException {
+        assertEquals(get("/instances", null).getResponseCode(), 503);
+    }
+
+    @Test
+    public void testInstancesAndETag() throws IOException {
+        refresh();
+
+        HttpURLConnection connection = get("/instances?filter=east/**", null);
+        assertEquals(connection.getResponseCode(), 200);
+        String etag = connection.getHeaderField("ETag");
+        assertTrue(etag.endsWith("-1\""), etag);
+        String body = read(connection);
+        assertTrue(body.contains("\"version\":1"));
+        assertTrue(body.contains("/services/east/a/x/guide/1"));
+        assertFalse(body.contains("/services/west/a/x/guide/2"));
+
+        assertEquals(get("/instances", etag).getResponseCode(), 304);
+
+        // Unchanged content keeps the version.
+        refresh();
+        assertEquals(get("/instances", etag).getResponseCode(), 304);
+
+        registry.remove("/services/west/a/x/guide/2");
+        refresh();
+        connection = get("/instances", etag);
+        assertEquals(connection.getResponseCode(), 200);
+        assertEquals(connection.getHeaderField("ETag"), etag.replace("-1\"", "-2\""));
+    }
+
+    @Test
+    public void testRestartChangesETag() throws IOException {
+        refresh();
+        String etag = get("/instances", null).getHeaderField("ETag");
+
+        // Starts over at version 1, with other content.
+        registry.remove("/services/west/a/x/guide/2");
+        RegistrySnapshotHolder restarted = new RegistrySnapshotHolder(new StaticDiscoveryClient(registry));
+        restarted.refresh();
+        server.close();
+        server = new RegistryHttpServer(restarted, "/services", new InetSocketAddress("127.0.0.1", 0), 4);
+        server.start();
+        server.run();
+
+        HttpURLConnection connection = get("/instances", etag);
+        assertEquals(connection.getResponseCode(), 200);
+        assertFalse(connection.getHeaderField("ETag").equals(etag));
+
+        // A long poll with the old ETag is answered right away, though the version is the same.
+        long start = System.currentTimeMillis();
+        assertEquals(get("/instances?waitForChangeAfter=1&timeout=5000", etag).getResponseCode(), 200);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testLongPoll() throws Exception {
+        refresh();
+
+        // Nothing changes, answered with 304 after the timeout.
+        long start = System.currentTimeMillis();
+        assertEquals(get("/instances?waitForChangeAfter=1&timeout=200", null).getResponseCode(), 304);
+        assertTrue(System.currentTimeMillis() - start >= 200);
+
+        // Already newer, answered right away.
+        assertEquals(get("/instances?waitForChangeAfter=0", null).getResponseCode(), 200);
+
+        // Ahead of the version served, e.g. seen before a restart, answered right away as well.
+        start = System.currentTimeMillis();
+        assertEquals(get("/instances?waitForChangeAfter=5&timeout=5000", null).getResponseCode(), 200);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignore) {
+                }
+                registry.remove("/services/east/a/x/guide/1");
+                refresh();
+            }
+        }.start();
+
+        HttpURLConnection connection = get("/instances?waitForChangeAfter=1&timeout=10000", null);
+        assertEquals(connection.getResponseCode(), 200);
+        assertTrue(connection.getHeaderField("ETag").endsWith("-2\""));
+    }
+
+    @Test
+    public void testLongPollsHoldNoThreads() throws Exception {
+        refresh();
+
+        // Twice as many long polls as threads.
+        final List<Integer> codes = new ArrayList<Integer>();
+        List<Thread> polls = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            Thread poll = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        int code = get("/instances?waitForChangeAfter=1&timeout=10000", null).getResponseCode();
+
+                        synchronized (codes) {
+                            codes.add(code);
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            polls.add(poll);
+            poll.start();
+        }
+        Thread.sleep(300);
+
+        // Still answered while they wait.
+        assertEquals(get("/instances", null).getResponseCode(), 200);
+        assertTrue(codes.isEmpty());
+
+        registry.remove("/services/east/a/x/guide/1");
+        refresh();
+        for (Thread poll : polls) {
+            poll.join(10000);
+        }
+        assertEquals(codes, Collections.nCopies(8, 200));
+    }
+
+    @Test
+    public void testBadRequests() throws IOException {
+        refresh();
+
+        assertEquals(get("/instances?waitForChangeAfter=x", null).getResponseCode(), 400);
+        assertEquals(get("/instances/other", null).getResponseCode(), 404);
+    }
+
+    @Test
+    public void testParseQuery() throws IOException {
+        Map<String, List<String>> parameters = RegistryHttpServer.parseQuery("filter=a%2F**&filter=b&x");
+
+        assertEquals(parameters.get("filter").size(), 2);
+        assertEquals(parameters.get("filter").get(0), "a/**");
+        assertEquals(parameters.get("x").get(0), "");
+    }
+
+    private void refresh() {
+        snapshots.run();
+        server.run();
+    }
+
+    private HttpURLConnection get(String path, String ifNoneMatch) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        if (ifNoneMatch != null) {
+            connection.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+
+        return connection;
+    }
+
+    private String read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+
+        try {
+            return new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+        } finally {
+            in.close();
+        }
+    }
+}
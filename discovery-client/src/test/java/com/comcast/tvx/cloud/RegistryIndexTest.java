@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RegistryIndexTest {
+
+    private RegistryIndex index;
+
+    @BeforeMethod
+    public void setUp() {
+        Map<String, MetaData> instances = new TreeMap<String, MetaData>();
+        add(instances, "region1/zone1/guide/http/a", "http", "2.3");
+        add(instances, "region1/zone2/guide/http/b", "http", "2.3");
+        add(instances, "region1/zone2/guide/http/c", "http", "2.2");
+        add(instances, "region1/zone2/guide/https/d", " HTTPS ", "2.3");
+        add(instances, "region2/zone2/guide/http/e", "http", "2.3");
+        add(instances, "region2/zone2/search/http/f", "http", null);
+        instances.put("/services/region2/zone1/guide/http/g", null);
+
+        index = new RegistrySnapshot(7, 0, instances).index("version");
+    }
+
+    @Test
+    public void testFindByClassifierAndParameter() {
+        Map<String, MetaData> found = index.find(new ServiceClassifier().setRegion("region1").setZone("zone2")
+            .setName("http"), Collections.singletonMap("version", "2.3"));
+
+        assertEquals(new ArrayList<String>(found.keySet()),
+                Arrays.asList("/services/region1/zone2/guide/http/b"));
+        assertEquals(index.getVersion(), 7);
+    }
+
+    @Test
+    public void testFindByDimension() {
+        assertEquals(index.find(new ServiceClassifier().setGroup("search")).keySet(),
+                Collections.singleton("/services/region2/zone2/search/http/f"));
+        assertEquals(index.find(new ServiceClassifier().setZone("zone2").setName("**")).size(), 5);
+        assertEquals(index.find(new ServiceClassifier()).size(), 7);
+        assertTrue(index.find(new ServiceClassifier().setRegion("region3")).isEmpty());
+    }
+
+    @Test
+    public void testFindByServiceName() {
+        assertEquals(index.findByServiceName("HTTP").size(), 5);
+        assertEquals(index.findByServiceName("https").keySet(),
+                Collections.singleton("/services/region1/zone2/guide/https/d"));
+        assertEquals(index.getServiceNames().size(), 2);
+    }
+
+    @Test
+    public void testResultsInPathOrder() {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("version", "2.3");
+
+        assertEquals(new ArrayList<String>(index.find(new ServiceClassifier(), parameters).keySet()),
+                Arrays.asList("/services/region1/zone1/guide/http/a", "/services/region1/zone2/guide/http/b",
+                    "/services/region1/zone2/guide/https/d", "/services/region2/zone2/guide/http/e"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testParameterNotIndexed() {
+        index.find(new ServiceClassifier(), Collections.singletonMap("capacity", "10"));
+    }
+
+    private void add(Map<String, MetaData> instances, String path, String serviceName, String version) {
+        MetaData metaData = new MetaData(UUID.randomUUID(), "10.0.0.1", 8080, serviceName);
+
+        if (version != null) {
+            metaData.setParameters(Collections.singletonMap("version", version));
+        }
+        instances.put("/services/" + path, metaData);
+    }
+}
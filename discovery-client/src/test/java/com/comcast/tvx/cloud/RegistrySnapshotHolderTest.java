@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RegistrySnapshotHolderTest {
+
+    private Map<String, MetaData> registry;
+    private StaticDiscoveryClient client;
+    private RegistrySnapshotHolder holder;
+
+    @BeforeMethod
+    public void setUp() {
+        registry = new TreeMap<String, MetaData>();
+        registry.put("/services/region1/zone1/guide/http/a", new MetaData(UUID.randomUUID(), "10.0.0.1", 8080, "http"));
+        client = new StaticDiscoveryClient(registry);
+        client.setZxid(10);
+        holder = new RegistrySnapshotHolder(client);
+    }
+
+    @Test
+    public void testVersionsOnlyMoveOnChange() {
+        assertNull(holder.get());
+        assertEquals(holder.getVersion(), 0);
+
+        assertTrue(holder.refresh());
+        RegistrySnapshot first = holder.get();
+        assertEquals(first.getVersion(), 1);
+        assertEquals(first.getZxid(), 10);
+
+        client.setZxid(11);
+        assertFalse(holder.refresh());
+        assertSame(holder.get(), first);
+        assertFalse(holder.hasChangedSince(1));
+
+        registry.put("/services/region1/zone1/guide/http/b", new MetaData(UUID.randomUUID(), "10.0.0.2", 8080, "http"));
+        client.setZxid(12);
+        assertTrue(holder.refresh());
+        assertTrue(holder.hasChangedSince(1));
+        assertEquals(holder.get().getVersion(), 2);
+        assertEquals(holder.get().getZxid(), 12);
+        assertEquals(holder.get().size(), 2);
+
+        // Published snapshots are not affected by later changes.
+        assertEquals(first.size(), 1);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testSnapshotImmutable() {
+        holder.refresh();
+        holder.get().getInstances().clear();
+    }
+
+    @Test
+    public void testKeepsSnapshotOnFailure() {
+        holder.refresh();
+        RegistrySnapshot snapshot = holder.get();
+
+        client.failWith(new IllegalStateException("connection loss"));
+        holder.run();
+        assertSame(holder.get(), snapshot);
+    }
+
+    @Test
+    public void testUpdateComparesPayloads() {
+        RegistrySnapshotHolder updated = new RegistrySnapshotHolder();
+        assertTrue(updated.update(registry, false, 10));
+        assertEquals(updated.get().getZxid(), 10);
+
+        Map<String, MetaData> copy = new TreeMap<String, MetaData>();
+        for (Map.Entry<String, MetaData> entry : registry.entrySet()) {
+            MetaData metaData = entry.getValue();
+            copy.put(entry.getKey(), new MetaData(metaData.getWorkerId(), metaData.getListenAddress(),
+                    metaData.getListenPort(), metaData.getServiceName()));
+        }
+        assertFalse(updated.update(copy, false, 11));
+        assertEquals(updated.getVersion(), 1);
+
+        // A payload change alone is a change.
+        copy.values().iterator().next().setDraining(true);
+        assertTrue(updated.update(copy, false, 12));
+        assertEquals(updated.getVersion(), 2);
+        assertEquals(updated.get().getZxid(), 12);
+    }
+
+    @Test
+    public void testContinuesVersions() {
+        // From a loaded snapshot: unchanged content keeps it.
+        holder.continueFrom(new RegistrySnapshot(7, 1000, registry));
+        assertFalse(holder.refresh());
+        assertEquals(holder.getVersion(), 7);
+
+        registry.clear();
+        assertTrue(holder.refresh());
+        assertEquals(holder.getVersion(), 8);
+
+        // After a version of unknown content: the next refresh publishes either way.
+        holder.continueAfter(20);
+        assertTrue(holder.refresh());
+        assertEquals(holder.getVersion(), 21);
+        assertFalse(holder.refresh());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Publishes snapshots of a canned registry and reads them back.
+ */
+@Test(groups = "RegistrySnapshotIT")
+public class RegistrySnapshotIT extends AbstractITBase {
+
+    private CuratorFramework curator;
+    private Map<String, MetaData> registry = new TreeMap<String, MetaData>();
+    private RegistrySnapshotPublisher publisher;
+    private String snapshotPath = basePath + "/snapshot";
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        curator = getCurator();
+
+        DiscoveryClient source = new DiscoveryClient(curator) {
+
+            @Override
+            public Map<String, MetaData> findInstances() {
+                return registry;
+            }
+        };
+        publisher = new RegistrySnapshotPublisher(curator, source, snapshotPath);
+        publisher.start();
+
+        for (int i = 0; (i < 50) && !publisher.isLeader(); i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception {
+        publisher.close();
+        curator.close();
+    }
+
+    @Test
+    public void testPublishAndRead() throws Exception {
+        RegistrySnapshotReader reader = new RegistrySnapshotReader(curator, snapshotPath);
+        assertTrue(publisher.isLeader());
+
+        register(10);
+        assertTrue(publisher.publish());
+        RegistrySnapshot first = reader.get();
+        assertEquals(first.size(), 10);
+
+        // Unchanged registry, nothing is published and the cached snapshot is used.
+        assertFalse(publisher.publish());
+        assertSame(reader.get(), first);
+
+        register(20);
+        assertTrue(publisher.publish());
+        waitForVersion(reader, first.getVersion() + 1);
+        assertEquals(reader.get().size(), 20);
+
+        DiscoveryClient client = new DiscoveryClient(curator).usingBasePath("/services").withCriteria("east/**")
+            .usingSnapshot(snapshotPath);
+        assertEquals(client.findInstances().size(), 20);
+
+        // Read in the background once the snapshot changed.
+        register(15);
+        assertTrue(publisher.publish());
+        waitForVersion(reader, first.getVersion() + 2);
+        assertEquals(client.findInstancesAsync(10, TimeUnit.SECONDS).get().size(), 15);
+        assertEquals(new DiscoveryClient(curator).usingBasePath("/services").withCriteria("west/**")
+                     .usingSnapshot(snapshotPath).findInstances().size(), 0);
+    }
+
+    @Test(dependsOnMethods = "testPublishAndRead")
+    public void testChunked() throws Exception {
+        RegistrySnapshotReader reader = new RegistrySnapshotReader(curator, snapshotPath);
+        publisher.setChunkSize(256);
+
+        register(200);
+        assertTrue(publisher.publish());
+        long version = reader.get().getVersion();
+        assertTrue(curator.getChildren().forPath(snapshotPath + "/" + SnapshotZNode.CHUNKS).size() > 1);
+        assertEquals(reader.get().size(), 200);
+        RegistrySnapshotReader asyncReader = new RegistrySnapshotReader(curator, snapshotPath);
+        assertEquals(asyncReader.getAsync().get(10, TimeUnit.SECONDS).size(), 200);
+
+        // Back to an inline snapshot, chunks of the previous version are removed.
+        publisher.setChunkSize(SnapshotZNode.DEFAULT_CHUNK_SIZE);
+        register(5);
+        assertTrue(publisher.publish());
+        waitForVersion(reader, version + 1);
+        assertEquals(reader.get().size(), 5);
+        assertEquals(curator.getChildren().forPath(snapshotPath + "/" + SnapshotZNode.CHUNKS).size(), 0);
+    }
+
+    @Test
+    public void testNothingPublished() throws Exception {
+        assertNull(new RegistrySnapshotReader(curator, basePath + "/none").get());
+        assertNull(new RegistrySnapshotReader(curator, basePath + "/none").getAsync().get(10, TimeUnit.SECONDS));
+    }
+
+    private void register(int count) {
+        registry.clear();
+
+        for (int i = 0; i < count; i++) {
+            registry.put("/services/east/a/x/guide/" + i, new MetaData(UUID.randomUUID(), "10.0.0." + i, 8080,
+                    "guide"));
+        }
+    }
+
+    private void waitForVersion(RegistrySnapshotReader reader, long version) throws InterruptedException {
+        for (int i = 0; (i < 50) && (reader.get().getVersion() < version); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(reader.get().getVersion(), version);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RegistrySnapshotTest {
+
+    private static final String ROOT = "/services";
+
+    private Map<String, MetaData> instances;
+
+    @BeforeMethod
+    public void setUp() {
+        instances = new TreeMap<String, MetaData>();
+        add("east/a/x/guide/1", "10.0.0.1", 8080);
+        add("east/a/x/guide/2", "10.0.0.2", 8080);
+        add("east/b/x/guide/3", "10.0.1.1", 8080);
+        add("east/b/y/search/4", "10.0.1.2", 9090);
+        add("west/a/x/guide/5", "10.1.0.1", 8080);
+    }
+
+    @Test
+    public void testCodecRoundTrip() throws IOException {
+        MetaData metaData = instances.get(ROOT + "/east/a/x/guide/1");
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("weight", "50");
+        metaData.setParameters(parameters);
+        metaData.setRegistrationTime(1234L);
+        metaData.setDraining(true);
+        instances.put(ROOT + "/east/a/x/guide/6", new MetaData(null, null, 0, null));
+        instances.put(ROOT + "/east/a/x/guide/7", null);
+
+        RegistrySnapshot decoded = SnapshotCodec.decode(SnapshotCodec.encode(new RegistrySnapshot(7, 42, 99,
+                instances)));
+
+        assertEquals(decoded.getVersion(), 7L);
+        assertEquals(decoded.getTimestamp(), 42L);
+        assertEquals(decoded.getZxid(), 99L);
+        assertEquals(decoded.getInstances().keySet(), instances.keySet());
+
+        MetaData copy = decoded.getInstances().get(ROOT + "/east/a/x/guide/1");
+        assertEquals(copy.getWorkerId(), metaData.getWorkerId());
+        assertEquals(copy.getListenAddress(), "10.0.0.1");
+        assertEquals(copy.getListenPort(), 8080);
+        assertEquals(copy.getServiceName(), "guide");
+        assertEquals(copy.getParameters(), parameters);
+        assertEquals(copy.getRegistrationTime(), 1234L);
+        assertTrue(copy.isDraining());
+
+        MetaData empty = decoded.getInstances().get(ROOT + "/east/a/x/guide/6");
+        assertNull(empty.getWorkerId());
+        assertNull(empty.getListenAddress());
+        assertNull(empty.getParameters());
+        assertFalse(empty.isDraining());
+        assertNull(decoded.getInstances().get(ROOT + "/east/a/x/guide/7"));
+    }
+
+    @Test
+    public void testEqualContentEncodesEqually() {
+        assertTrue(Arrays.equals(SnapshotCodec.encode(new RegistrySnapshot(1, 0, instances)),
+                SnapshotCodec.encode(new RegistrySnapshot(1, 0, new HashMap<String, MetaData>(instances)))));
+    }
+
+    @Test
+    public void testDecodeWithoutZxid() throws IOException {
+        // Format 1, written before the zxid was encoded.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes));
+        out.writeInt(SnapshotCodec.MAGIC);
+        out.writeByte(1);
+        out.writeLong(5);
+        out.writeLong(42);
+        out.writeInt(1);
+        out.writeShort(0);
+        out.writeUTF(ROOT + "/east/a/x/guide/1");
+        out.writeByte(128);
+        out.close();
+
+        RegistrySnapshot decoded = SnapshotCodec.decode(bytes.toByteArray());
+        assertEquals(decoded.getVersion(), 5L);
+        assertEquals(decoded.getZxid(), 0L);
+        assertTrue(decoded.getInstances().containsKey(ROOT + "/east/a/x/guide/1"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testDecodeGarbage() throws IOException {
+        SnapshotCodec.decode(new byte[] { 1, 2, 3 });
+    }
+
+    @Test
+    public void testSelectAll() {
+        RegistrySnapshot snapshot = new RegistrySnapshot(1, 0, instances);
+
+        assertEquals(snapshot.select(ROOT, Arrays.<String>asList()).size(), 5);
+        assertEquals(snapshot.select(ROOT + "/", Arrays.asList("/**")).size(), 5);
+        assertEquals(snapshot.select(ROOT, Arrays.asList("east/**")).size(), 4);
+        assertEquals(snapshot.select(ROOT, Arrays.asList("east/b/**", "west/**")).size(), 3);
+    }
+
+    @Test
+    public void testSelectDirectory() {
+        RegistrySnapshot snapshot = new RegistrySnapshot(1, 0, instances);
+
+        // Exactly serviceName/id below the directory, like the tree traversal.
+        Map<String, MetaData> selected = snapshot.select(ROOT, Arrays.asList("east/a/x"));
+        assertEquals(selected.size(), 2);
+        assertTrue(selected.containsKey(ROOT + "/east/a/x/guide/2"));
+        assertEquals(snapshot.select(ROOT, Arrays.asList("east/a")).size(), 0);
+    }
+
+    @Test
+    public void testSelectWildcards() {
+        RegistrySnapshot snapshot = new RegistrySnapshot(1, 0, instances);
+
+        assertEquals(snapshot.select(ROOT, Arrays.asList("*/a/x")).size(), 3);
+        assertEquals(snapshot.select(ROOT, Arrays.asList("east/*/x")).size(), 3);
+        assertEquals(snapshot.select(ROOT, Arrays.asList("east/*/*")).size(), 4);
+        assertEquals(snapshot.select(ROOT, Arrays.asList("*/b/**")).size(), 2);
+        assertEquals(snapshot.select("/other", Arrays.asList("**")).size(), 0);
+    }
+
+    private void add(String path, String address, int port) {
+        String[] segments = path.split("/");
+        instances.put(ROOT + "/" + path, new MetaData(UUID.randomUUID(), address, port, segments[3]));
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SharedRegistryTest {
+
+    private File file;
+    private SharedRegistryWriter writer;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = File.createTempFile("registry", ".shm");
+        writer = new SharedRegistryWriter(file, 8);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        writer.close();
+        file.delete();
+    }
+
+    @Test
+    public void testWriteAndSelect() throws IOException {
+        Map<String, MetaData> instances = instances("east", 3);
+        instances.putAll(instances("west", 2));
+        MetaData draining = instances.get("/services/east/a/x/guide/0");
+        draining.setDraining(true);
+        draining.setRegistrationTime(1234L);
+
+        assertEquals(writer.write(new RegistrySnapshot(7, 0, instances)), 5);
+
+        SharedRegistryReader reader = new SharedRegistryReader(file);
+        assertEquals(reader.getVersion(), 7L);
+        assertEquals(reader.select("/services", Arrays.asList("west/**")).size(), 2);
+
+        Map<String, MetaData> selected = reader.select("/services", Arrays.asList("*/a/x"));
+        assertEquals(selected.size(), 5);
+
+        MetaData copy = selected.get("/services/east/a/x/guide/0");
+        assertEquals(copy.getWorkerId(), draining.getWorkerId());
+        assertEquals(copy.getListenAddress(), "10.0.0.0");
+        assertEquals(copy.getListenPort(), 8080);
+        assertEquals(copy.getServiceName(), "guide");
+        assertEquals(copy.getRegistrationTime(), 1234L);
+        assertTrue(copy.isDraining());
+        assertNull(copy.getParameters());
+        reader.close();
+    }
+
+    @Test
+    public void testOversizedAndOverflow() throws IOException {
+        Map<String, MetaData> instances = instances("east", 10);
+        char[] longName = new char[400];
+        Arrays.fill(longName, 'x');
+        instances.put("/services/east/a/x/" + new String(longName) + "/1", new MetaData());
+
+        assertEquals(writer.write(new RegistrySnapshot(1, 0, instances)), 8);
+
+        SharedRegistryReader reader = new SharedRegistryReader(file);
+        assertEquals(reader.select("/services", Arrays.<String>asList()).size(), 8);
+        reader.close();
+    }
+
+    @Test
+    public void testConsistentReadsDuringWrites() throws Exception {
+        final RegistrySnapshot small = new RegistrySnapshot(1, 0, instances("east", 2));
+        final RegistrySnapshot large = new RegistrySnapshot(2, 0, instances("west", 8));
+        final AtomicBoolean done = new AtomicBoolean(false);
+        writer.write(small);
+
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                for (int i = 0; !done.get(); i++) {
+                    writer.write((i % 2 == 0) ? large : small);
+                }
+            }
+        };
+        thread.start();
+
+        SharedRegistryReader reader = new SharedRegistryReader(file);
+
+        try {
+            for (int i = 0; i < 2000; i++) {
+                // Never a mix of both snapshots.
+                Map<String, MetaData> instances = reader.select("/services", Arrays.asList("**"));
+                RegistrySnapshot expected = (instances.size() == 2) ? small : large;
+                assertEquals(instances.keySet(), expected.getInstances().keySet());
+            }
+        } finally {
+            done.set(true);
+            thread.join();
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testPublisherAndClient() throws IOException {
+        final Map<String, MetaData> registry = instances("east", 3);
+        RegistrySnapshotHolder snapshots = new RegistrySnapshotHolder(new StaticDiscoveryClient(registry));
+        SharedRegistryPublisher publisher = new SharedRegistryPublisher(snapshots, writer);
+
+        assertFalse(publisher.publish());
+        snapshots.refresh();
+        assertTrue(publisher.publish());
+        assertFalse(snapshots.refresh());
+        assertFalse(publisher.publish());
+
+        DiscoveryClient client = new SharedRegistryDiscoveryClient(file).usingBasePath("/services")
+            .withCriteria("east/a/x");
+        assertEquals(client.findInstances().keySet(), registry.keySet());
+
+        registry.remove("/services/east/a/x/guide/1");
+        assertTrue(snapshots.refresh());
+        assertTrue(publisher.publish());
+        assertEquals(client.findInstances().size(), 2);
+
+        // Everything else reads the file too, rather than a ZooKeeper session it does not have.
+        assertEquals(client.findInstancesAsync().join().keySet(), registry.keySet());
+        assertEquals(client.countInstances("*/a/x"), 2);
+        assertTrue(client.hasInstances("east/**"));
+        assertFalse(client.hasInstances("west/**"));
+
+        final List<String> visited = new ArrayList<String>();
+        assertEquals(client.visitInstances(instance -> visited.add(instance.getPath())), 2);
+        assertEquals(visited, new ArrayList<String>(registry.keySet()));
+    }
+
+    @Test
+    public void testPrefixLookup() throws IOException {
+        Map<String, MetaData> instances = instances("east", 2);
+        instances.putAll(instances("eastern", 2));
+        instances.putAll(instances("west", 3));
+        instances.put("/services/east/a/x/guide/http/1", new MetaData(UUID.randomUUID(), "10.0.1.1", 80, "http"));
+        writer.write(new RegistrySnapshot(1, 0, instances));
+
+        SharedRegistryReader reader = new SharedRegistryReader(file);
+
+        try {
+            // Not the instances of "eastern", nor those nested deeper without "**".
+            assertEquals(reader.select("/services", Arrays.asList("east/a/x")).keySet(),
+                    instances("east", 2).keySet());
+            assertEquals(reader.select("/services", Arrays.asList("east/**")).size(), 3);
+            assertEquals(reader.select("/services", Arrays.asList("*/a/x")).size(), 7);
+            assertEquals(reader.select("/services", Arrays.asList("west/**", "*/a/x")).size(), 7);
+            assertEquals(reader.select("/services", Arrays.asList("north/**")).size(), 0);
+            assertEquals(reader.select("/other", Arrays.<String>asList()).size(), 0);
+            assertEquals(reader.count("/services", "**"), 8);
+            assertEquals(reader.count("/services/west", "a/x"), 3);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRemapsGrownOrSupersededFile() throws IOException {
+        writer.write(new RegistrySnapshot(1, 0, instances("east", 2)));
+        SharedRegistryReader reader = new SharedRegistryReader(file);
+
+        try {
+            assertEquals(reader.count("/services", "**"), 2);
+
+            // Grown in place by a writer with a larger capacity.
+            writer.close();
+            writer = new SharedRegistryWriter(file, 16);
+            writer.write(new RegistrySnapshot(2, 0, instances("east", 12)));
+            assertEquals(reader.count("/services", "**"), 12);
+
+            // Never shrunk by a writer with a smaller one, the reader keeps its mapping.
+            writer.close();
+            writer = new SharedRegistryWriter(file, 4);
+            assertEquals(file.length(), SharedRegistryFile.size(16));
+            assertEquals(writer.write(new RegistrySnapshot(3, 0, instances("east", 14))), 14);
+            assertEquals(reader.count("/services", "**"), 14);
+
+            // Replaced by a new file, as a writer does with a file of another layout.
+            writer.close();
+            File next = File.createTempFile("registry", ".next", file.getParentFile());
+            writer = new SharedRegistryWriter(next, 32);
+            writer.write(new RegistrySnapshot(1, 0, instances("west", 20)));
+            RandomAccessFile previous = new RandomAccessFile(file, "rw");
+            Files.move(next.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            assertEquals(reader.count("/services", "**"), 14);
+
+            previous.seek(SharedRegistryFile.SUPERSEDED);
+            previous.writeInt(1);
+            previous.close();
+            assertEquals(reader.select("/services", Arrays.asList("west/**")).size(), 20);
+            assertEquals(reader.getVersion(), 1L);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testReplacesOtherLayout() throws IOException {
+        writer.write(new RegistrySnapshot(1, 0, instances("east", 2)));
+        writer.close();
+
+        RandomAccessFile previous = new RandomAccessFile(file, "rw");
+
+        try {
+            previous.seek(4);
+            previous.writeInt(SharedRegistryFile.FORMAT - 1);
+
+            writer = new SharedRegistryWriter(file, 8);
+            writer.write(new RegistrySnapshot(2, 0, instances("west", 3)));
+
+            // Readers of the previous file are told to map the new one.
+            previous.seek(SharedRegistryFile.SUPERSEDED);
+            assertEquals(previous.readInt(), 1);
+
+            SharedRegistryReader reader = new SharedRegistryReader(file);
+            assertEquals(reader.count("/services", "west/**"), 3);
+            reader.close();
+        } finally {
+            previous.close();
+        }
+    }
+
+    @Test
+    public void testLookupView() throws IOException {
+        Map<String, MetaData> registry = instances("east", 3);
+        registry.get("/services/east/a/x/guide/1").setDraining(true);
+        writer.write(new RegistrySnapshot(1, 0, registry));
+        SharedRegistryReader reader = new SharedRegistryReader(file);
+
+        try {
+            // Overlapping filters select each record once.
+            SharedRegistryView view = reader.lookup("/services", Arrays.asList("east/**", "east/a/x"));
+            assertEquals(view.size(), 3);
+            assertEquals(view.getPath(1), "/services/east/a/x/guide/1");
+            assertEquals(view.getListenPort(1), 8080);
+            assertTrue(view.isDraining(1));
+            assertFalse(view.isDraining(2));
+            assertEquals(view.getMetaData(0), registry.get("/services/east/a/x/guide/0"));
+            assertTrue(view.isValid());
+
+            writer.write(new RegistrySnapshot(2, 0, instances("east", 1)));
+            assertFalse(view.isValid());
+            assertEquals(reader.lookup("/services", Collections.<String>emptyList()).size(), 1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testPublisherContinuesVersion() throws IOException {
+        Map<String, MetaData> registry = instances("east", 3);
+        RegistrySnapshotHolder snapshots = new RegistrySnapshotHolder(new StaticDiscoveryClient(registry));
+        snapshots.refresh();
+        new SharedRegistryPublisher(snapshots, writer).publish();
+        assertEquals(writer.getVersion(), 1L);
+
+        // Restarted on the same file, with the same registry.
+        writer.close();
+        writer = new SharedRegistryWriter(file, 8);
+        snapshots = new RegistrySnapshotHolder(new StaticDiscoveryClient(registry));
+        SharedRegistryPublisher publisher = new SharedRegistryPublisher(snapshots, writer);
+        snapshots.refresh();
+        assertTrue(publisher.publish());
+        assertEquals(writer.getVersion(), 2L);
+
+        SharedRegistryReader reader = new SharedRegistryReader(file);
+        assertEquals(reader.getVersion(), 2L);
+        reader.close();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotASharedRegistry() throws IOException {
+        File other = File.createTempFile("registry", ".other");
+
+        try {
+            new SharedRegistryReader(other);
+        } finally {
+            other.delete();
+        }
+    }
+
+    private Map<String, MetaData> instances(String region, int count) {
+        Map<String, MetaData> instances = new TreeMap<String, MetaData>();
+
+        for (int i = 0; i < count; i++) {
+            instances.put("/services/" + region + "/a/x/guide/" + i, new MetaData(UUID.randomUUID(), "10.0.0." + i,
+                    8080, "guide"));
+        }
+
+        return instances;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the instances of a map the test changes as it goes, without ZooKeeper.
+ */
+class StaticDiscoveryClient extends DiscoveryClient {
+
+    private final Map<String, MetaData> registry;
+    private volatile RuntimeException failure;
+    private volatile long zxid;
+
+    StaticDiscoveryClient(Map<String, MetaData> registry) {
+        super(null);
+        this.registry = registry;
+    }
+
+    /**
+     * @param failure thrown by every find from now on, null to find again
+     */
+    void failWith(RuntimeException failure) {
+        this.failure = failure;
+    }
+
+    void setZxid(long zxid) {
+        this.zxid = zxid;
+    }
+
+    @Override
+    public Map<String, MetaData> findInstances() {
+        RuntimeException current = failure;
+
+        if (current != null) {
+            throw current;
+        }
+        return new TreeMap<String, MetaData>(registry);
+    }
+
+    @Override
+    public long getZxid() {
+        return zxid;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.cloud;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorListener;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Walks the registry within an operation budget and a deadline.
+ */
+@Test(groups = "WalkBudgetIT")
+public class WalkBudgetIT extends AbstractITBase {
+
+    private CuratorFramework curator;
+    private String root = basePath + "/" + System.currentTimeMillis();
+    private List<RegistrationClient> registrations = new ArrayList<RegistrationClient>();
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        curator = getCurator();
+
+        for (int zone = 1; zone <= 3; zone++) {
+            registrations.add(new RegistrationClient(curator, root + "/region1/zone" + zone, "guide",
+                    "127.0.0." + zone, "http:80").advertiseAvailabilityAsync().get());
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception {
+        for (RegistrationClient registration : registrations) {
+            registration.deAdvertiseAvailabilityAsync().get();
+        }
+        curator.close();
+    }
+
+    @Test
+    public void testOperationBudget() {
+        DiscoveryClient client = new DiscoveryClient(curator).usingBasePath(root);
+        Map<String, MetaData> complete = client.findInstances();
+        assertEquals(complete.size(), 3);
+        assertFalse(client.isStale());
+
+        // Subtrees beyond the budget are served from the last result.
+        client.withOperationBudget(4);
+        assertEquals(client.findInstances().keySet(), complete.keySet());
+        assertTrue(client.isStale());
+        assertFalse(client.getStaleSubtrees().isEmpty());
+
+        // Without one they are missing, and still flagged.
+        DiscoveryClient fresh = new DiscoveryClient(curator).usingBasePath(root).withOperationBudget(4);
+        assertTrue(fresh.findInstances().size() < 3);
+        assertTrue(fresh.isStale());
+    }
+
+    @Test
+    public void testDeadline() {
+        // Each read is waited for in the background, at most until the deadline.
+        DiscoveryClient client = new DiscoveryClient(curator).usingBasePath(root).withDeadline(10000);
+        assertEquals(client.findInstances().size(), 3);
+        assertFalse(client.isStale());
+        assertEquals(client.findInstances().get(root + "/region1/zone2/guide/http/127.0.0.2:80").getListenPort(), 80);
+    }
+
+    @Test
+    public void testDeadlineOnEventThread() throws Exception {
+        // A listener is called on the ZooKeeper event thread, which background results are also delivered on.
+        final DiscoveryClient client = new DiscoveryClient(curator).usingBasePath(root).withDeadline(10000);
+        final CompletableFuture<Map<String, MetaData>> found = new CompletableFuture<Map<String, MetaData>>();
+        final CompletableFuture<Long> counted = new CompletableFuture<Long>();
+        CuratorListener listener = (framework, event) -> {
+            try {
+                found.complete(client.findInstances());
+                counted.complete(client.countInstances("region1/*/guide"));
+            } catch (Exception e) {
+                found.completeExceptionally(e);
+                counted.completeExceptionally(e);
+            }
+        };
+
+        curator.getCuratorListenable().addListener(listener);
+        try {
+            long started = System.currentTimeMillis();
+            curator.checkExists().inBackground().forPath(root);
+            assertEquals(found.get(20, TimeUnit.SECONDS).size(), 3);
+            assertEquals(counted.get(20, TimeUnit.SECONDS).longValue(), 3);
+            assertTrue(System.currentTimeMillis() - started < 5000);
+            assertFalse(client.isStale());
+        } finally {
+            curator.getCuratorListenable().removeListener(listener);
+        }
+    }
+}
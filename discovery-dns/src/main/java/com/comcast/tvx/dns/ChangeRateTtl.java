@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.dns;
+
+/**
+ * Derives the TTL of DNS records from how often the registry changes: a quarter of the expected
+ * time to the next change, between a minimum and a maximum.  The expected time is a moving
+ * average of the intervals between changes, or the time since the last change if that is
+ * longer, so a quiet registry gets longer TTLs and a busy one shorter.
+ */
+public class ChangeRateTtl {
+
+    private int minTtl;
+    private int maxTtl;
+    private double alpha = 0.3;
+
+    private long lastChange = -1;
+    private double averageInterval = -1;
+
+    /**
+     * @param minTtl shortest TTL in seconds
+     * @param maxTtl longest TTL in seconds
+     */
+    public ChangeRateTtl(int minTtl, int maxTtl) {
+        if ((minTtl < 0) || (maxTtl < minTtl)) {
+            throw new IllegalArgumentException("Invalid TTL range: " + minTtl + " - " + maxTtl);
+        }
+        this.minTtl = minTtl;
+        this.maxTtl = maxTtl;
+    }
+
+    /**
+     * @param now milliseconds since the epoch the registry changed at
+     */
+    public void changed(long now) {
+        if (lastChange >= 0) {
+            long interval = Math.max(0, now - lastChange);
+            averageInterval = (averageInterval < 0) ? interval : alpha * interval + (1 - alpha) * averageInterval;
+        }
+        lastChange = now;
+    }
+
+    /**
+     * @param now milliseconds since the epoch
+     * @return the TTL in seconds.
+     */
+    public int ttl(long now) {
+        if (lastChange < 0) {
+            return minTtl;
+        }
+
+        double expected = Math.max(averageInterval, now - lastChange);
+        long ttl = (long) (expected / 4 / 1000);
+
+        return (int) Math.max(minTtl, Math.min(maxTtl, ttl));
+    }
+}
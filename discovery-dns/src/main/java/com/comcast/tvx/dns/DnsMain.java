@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.dns;
+
+import java.net.InetSocketAddress;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.comcast.tvx.cloud.Constants;
+import com.comcast.tvx.cloud.CuratorClient;
+import com.comcast.tvx.cloud.DiscoveryClient;
+import com.comcast.tvx.cloud.RegistrySnapshot;
+import com.comcast.tvx.cloud.RegistrySnapshotHolder;
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
+
+/**
+ * Main driver for the DNS responder.  Rebuilds the zone from the registry every interval, when
+ * the registry or the TTL derived from its change rate changed.
+ */
+public class DnsMain {
+
+    private static final Logger log = LoggerFactory.getLogger(DnsMain.class);
+
+    @Argument(alias = "z", description = "ZooKeeper connection string", required = true)
+    private static String zooKeeperConnectionString = null;
+
+    @Argument(alias = "r", description = "Registration root path", required = false)
+    private static String registrationRoot = Constants.DEFAULT_REGISTRATION_ROOT;
+
+    @Argument(alias = "d", description = "Domain to answer for", required = false)
+    private static String domain = "discovery";
+
+    @Argument(alias = "b", description = "Address to listen on", required = false)
+    private static String bindAddress = "127.0.0.1";
+
+    @Argument(alias = "p", description = "UDP and TCP port", required = false)
+    private static Integer port = 8053;
+
+    @Argument(alias = "s", description = "Milliseconds between registry refreshes", required = false)
+    private static Integer sleepInterval = 5 * 1000;
+
+    @Argument(alias = "tmin", description = "Shortest TTL in seconds", required = false)
+    private static Integer minTtl = 1;
+
+    @Argument(alias = "tmax", description = "Longest TTL in seconds", required = false)
+    private static Integer maxTtl = 60;
+
+    @Argument(alias = "rs", description = "ZooKeeper path of a published registry snapshot to read instead of the registry", required = false)
+    private static String snapshotPath = null;
+
+    /**
+     * @param args Needs: <ul>
+     *  <li> -zooKeeperConnectionString connection string (hostname:port) </li>
+     *  <li> [-registrationRoot] Zookeeper directory root to use </li>
+     *  <li> [-domain] domain to answer for </li>
+     *  <li> [-bindAddress] and [-port] to listen on </li>
+     *  <li> [-sleepInterval] milliseconds between refreshes </li>
+     *  <li> [-minTtl] and [-maxTtl] in seconds </li>
+     *  <li> [-snapshotPath] published registry snapshot </li>
+     *  </ul>
+     *
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        try {
+            Args.parse(DnsMain.class, args);
+        } catch (IllegalArgumentException e) {
+            Args.usage(DnsMain.class);
+            System.exit(1);
+
+            return;
+        }
+
+        final CuratorFramework curatorFramework = CuratorClient.getCuratorFramework(zooKeeperConnectionString);
+        DiscoveryClient client = new DiscoveryClient(curatorFramework).usingBasePath(registrationRoot);
+
+        if (snapshotPath != null) {
+            client.usingSnapshot(snapshotPath);
+        }
+
+        final DnsServer server = new DnsServer(new InetSocketAddress(bindAddress, port));
+        server.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                log.info("Normal shutdown executing.");
+                server.close();
+                curatorFramework.close();
+            }
+        });
+
+        ChangeRateTtl ttlPolicy = new ChangeRateTtl(minTtl, maxTtl);
+        RegistrySnapshotHolder snapshots = new RegistrySnapshotHolder(client);
+
+        while (true) {
+            try {
+                boolean changed = snapshots.refresh();
+                RegistrySnapshot snapshot = snapshots.get();
+                long now = System.currentTimeMillis();
+
+                if (changed) {
+                    ttlPolicy.changed(now);
+                }
+
+                DnsZone zone = server.getZone();
+                int ttl = ttlPolicy.ttl(now);
+
+                if ((zone == null) || (zone.getVersion() != snapshot.getVersion()) || (zone.getTtl() != ttl)) {
+                    zone = new DnsZone(snapshot.getInstances(), registrationRoot, domain, snapshot.getVersion(), ttl);
+                    server.setZone(zone);
+                    log.info("serving " + zone);
+                }
+            } catch (Exception e) {
+                log.error("An error occurred refreshing the DNS zone", e);
+            }
+
+            try {
+                Thread.sleep(sleepInterval);
+            } catch (InterruptedException e) {
+                log.error(e.getMessage(), e);
+
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.dns;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers DNS queries over UDP and TCP from the current {@link DnsZone}.  Responses are the
+ * precomputed records of the zone behind a copy of the question, so no per query work beyond
+ * parsing the question name is done.  The zone can be replaced at any time.  UDP responses that
+ * do not fit 512 bytes are truncated, and clients retry over TCP on the same port (RFC 7766).
+ */
+public class DnsServer implements Runnable, Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(DnsServer.class);
+
+    static final int NOERROR = 0;
+    static final int FORMERR = 1;
+    static final int SERVFAIL = 2;
+    static final int NXDOMAIN = 3;
+    static final int NOTIMP = 4;
+    static final int REFUSED = 5;
+
+    private static final int QR = 0x8000;
+    private static final int AA = 0x0400;
+    private static final int TC = 0x0200;
+    private static final int RD = 0x0100;
+
+    /** Connections answered at once, others wait to be accepted. */
+    private static final int TCP_THREADS = 4;
+
+    /** Milliseconds an idle TCP connection is kept open. */
+    private static final int TCP_IDLE_TIMEOUT = 10 * 1000;
+
+    private DatagramSocket socket;
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+    private volatile DnsZone zone;
+
+    /**
+     * @param address address to listen on, for both UDP and TCP
+     * @throws IOException if the address cannot be bound
+     */
+    public DnsServer(InetSocketAddress address) throws IOException {
+        this.socket = new DatagramSocket(address);
+
+        try {
+            // The port the UDP socket was given, if any.
+            this.serverSocket = new ServerSocket(socket.getLocalPort(), 50, address.getAddress());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.connections = Executors.newFixedThreadPool(TCP_THREADS, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "dns-tcp-responder");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    public void setZone(DnsZone zone) {
+        this.zone = zone;
+    }
+
+    public DnsZone getZone() {
+        return zone;
+    }
+
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Answer queries on daemon threads until closed.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "dns-responder");
+        thread.setDaemon(true);
+        thread.start();
+
+        thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "dns-tcp-acceptor");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("answering DNS queries on " + socket.getLocalSocketAddress());
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket connection = serverSocket.accept();
+
+                try {
+                    connections.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            answer(connection);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    connection.close();
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.warn("An error occurred accepting a DNS connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer the queries of one connection, each message preceded by its two byte length.
+     */
+    private void answer(Socket connection) {
+        try {
+            connection.setSoTimeout(TCP_IDLE_TIMEOUT);
+            DataInputStream in = new DataInputStream(connection.getInputStream());
+            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+            byte[] query = new byte[DnsZone.MAX_TCP_SIZE];
+
+            while (true) {
+                int length;
+
+                try {
+                    length = in.readUnsignedShort();
+                } catch (EOFException e) {
+                    return;
+                }
+                in.readFully(query, 0, length);
+
+                byte[] response = respond(query, length, zone, true);
+
+                if (response == null) {
+                    return;
+                }
+                out.writeShort(response.length);
+                out.write(response);
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.debug("An error occurred answering a DNS connection: " + e.getMessage());
+        } finally {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                logger.debug(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[DnsZone.MAX_UDP_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+
+                byte[] response = respond(buffer, packet.getLength(), zone, false);
+
+                if (response != null) {
+                    socket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    logger.warn("An error occurred answering a DNS query: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param query the query message
+     * @param length the length of the query
+     * @param zone the zone to answer from, null if not yet available
+     * @param tcp whether the query came over TCP, which takes the complete answer
+     * @return the response, null if the message is to be dropped.
+     */
+    static byte[] respond(byte[] query, int length, DnsZone zone, boolean tcp) {
+        if ((length < DnsZone.HEADER_SIZE) || ((query[2] & 0x80) != 0)) {
+            // Too short to answer, or a response.
+            return null;
+        }
+
+        int flags = ((query[2] & 0xff) << 8) | (query[3] & 0xff);
+        int opcode = (flags >>> 11) & 0xf;
+        int questions = ((query[4] & 0xff) << 8) | (query[5] & 0xff);
+
+        if (opcode != 0) {
+            return error(query, flags, NOTIMP);
+        }
+        if (questions != 1) {
+            return error(query, flags, FORMERR);
+        }
+
+        StringBuilder name = new StringBuilder();
+        int offset = DnsZone.HEADER_SIZE;
+
+        while (true) {
+            if (offset >= length) {
+                return error(query, flags, FORMERR);
+            }
+
+            int label = query[offset++] & 0xff;
+
+            if (label == 0) {
+                break;
+            }
+            if (((label & 0xc0) != 0) || (offset + label > length)) {
+                return error(query, flags, FORMERR);
+            }
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = 0; i < label; i++) {
+                name.append(Character.toLowerCase((char) (query[offset + i] & 0xff)));
+            }
+            offset += label;
+        }
+
+        if (offset + 4 > length) {
+            return error(query, flags, FORMERR);
+        }
+
+        int type = ((query[offset] & 0xff) << 8) | (query[offset + 1] & 0xff);
+        int queryClass = ((query[offset + 2] & 0xff) << 8) | (query[offset + 3] & 0xff);
+        int questionEnd = offset + 4;
+        String qname = name.toString();
+
+        if (zone == null) {
+            return response(query, questionEnd, flags, SERVFAIL, null);
+        }
+        if (((queryClass != DnsZone.CLASS_IN) && (queryClass != DnsZone.TYPE_ANY)) || !zone.isAuthoritative(qname)) {
+            return response(query, questionEnd, flags, REFUSED, null);
+        }
+
+        DnsZone.Answer answer = zone.lookup(qname, type);
+
+        if (answer == null) {
+            return response(query, questionEnd, flags, zone.exists(qname) ? NOERROR : NXDOMAIN, null);
+        }
+
+        return response(query, questionEnd, flags, NOERROR, tcp ? answer.complete : answer);
+    }
+
+    private static byte[] response(byte[] query, int questionEnd, int queryFlags, int rcode, DnsZone.Answer answer) {
+        int recordsLength = (answer == null) ? 0 : answer.records.length;
+        byte[] response = new byte[questionEnd + recordsLength];
+
+        System.arraycopy(query, 0, response, 0, questionEnd);
+
+        int flags = QR | AA | (queryFlags & RD) | rcode;
+        if ((answer != null) && answer.truncated) {
+            flags |= TC;
+        }
+
+        putShort(response, 2, flags);
+        putShort(response, 4, 1);
+        putShort(response, 6, (answer == null) ? 0 : answer.answers);
+        putShort(response, 8, 0);
+        putShort(response, 10, (answer == null) ? 0 : answer.additionals);
+
+        if (answer != null) {
+            System.arraycopy(answer.records, 0, response, questionEnd, recordsLength);
+        }
+
+        return response;
+    }
+
+    private static byte[] error(byte[] query, int queryFlags, int rcode) {
+        byte[] response = new byte[DnsZone.HEADER_SIZE];
+
+        response[0] = query[0];
+        response[1] = query[1];
+        putShort(response, 2, QR | (queryFlags & (RD | 0x7800)) | rcode);
+
+        return response;
+    }
+
+    private static void putShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.debug(e.getMessage());
+        }
+        connections.shutdownNow();
+    }
+}
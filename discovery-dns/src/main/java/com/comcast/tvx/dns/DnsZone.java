@@ -0,0 +1,425 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.dns;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.comcast.tvx.cloud.MetaData;
+
+/**
+ * Immutable DNS view of the registry with every response precomputed.  For an instance
+ * registered at <code>basePath/region/zone/flavor/service/id</code> it answers:
+ *
+ * <ul>
+ * <li>SRV <code>_service._tcp.flavor.zone.region.domain</code> with a record per instance
+ * pointing to its target name, and the A record of each target as additional data;</li>
+ * <li>A <code>service.flavor.zone.region.domain</code> with the addresses of all instances;</li>
+ * <li>A <code>label.flavor.zone.region.domain</code>, the target of the instance, where the label
+ * is its id with every run of characters other than letters, digits and hyphens replaced by a
+ * hyphen, e.g. <code>127-0-0-1-80</code> for <code>127.0.0.1:80</code>.</li>
+ * </ul>
+ *
+ * Names above these, e.g. <code>zone.region.domain</code>, exist without records, so that they
+ * answer NOERROR with no data rather than NXDOMAIN (RFC 8020).
+ *
+ * Draining instances keep their SRV record with weight 0 but are left out of the service A
+ * records.  Responses are kept within the 512 bytes of a plain UDP message; records that do not
+ * fit are left out and the response is flagged as truncated, so that the client retries over TCP,
+ * where the complete answer of up to 64 KiB is given.
+ */
+public final class DnsZone {
+
+    private static Logger logger = LoggerFactory.getLogger(DnsZone.class);
+
+    static final int TYPE_A = 1;
+    static final int TYPE_SRV = 33;
+    static final int TYPE_ANY = 255;
+    static final int CLASS_IN = 1;
+
+    static final int HEADER_SIZE = 12;
+    static final Charset ASCII = Charset.forName("US-ASCII");
+    static final int MAX_UDP_SIZE = 512;
+    static final int MAX_TCP_SIZE = 65535;
+
+    /** Compression pointer to the question name, which always follows the header. */
+    private static final int QUESTION_NAME = 0xc000 | HEADER_SIZE;
+
+    /** Offsets from here on cannot be pointed to. */
+    private static final int MAX_POINTER = 0x4000;
+
+    /**
+     * Precomputed answer and additional sections for one name and type.
+     */
+    static final class Answer {
+        final byte[] records;
+        final int answers;
+        final int additionals;
+        final boolean truncated;
+
+        /** The answer given over TCP, this one unless truncated to fit UDP. */
+        final Answer complete;
+
+        Answer(byte[] records, int answers, int additionals, boolean truncated, Answer complete) {
+            this.records = records;
+            this.answers = answers;
+            this.additionals = additionals;
+            this.truncated = truncated;
+            this.complete = (complete == null) ? this : complete;
+        }
+    }
+
+    private final String domain;
+    private final long version;
+    private final int ttl;
+    private final Map<String, Answer> srv = new HashMap<String, Answer>();
+    private final Map<String, Answer> a = new HashMap<String, Answer>();
+
+    /** Every name with records and the names between them and the domain. */
+    private final Set<String> names = new HashSet<String>();
+
+    /**
+     * @param instances full instance paths to payload, as returned by a DiscoveryClient
+     * @param basePath the registration root the paths start with
+     * @param domain the domain answered for, e.g. "discovery"
+     * @param version version of the registry content
+     * @param ttl time to live of all records, in seconds
+     */
+    public DnsZone(Map<String, MetaData> instances, String basePath, String domain, long version, int ttl) {
+        this.domain = normalize(domain);
+        this.version = version;
+        this.ttl = ttl;
+
+        Map<String, List<Target>> services = new LinkedHashMap<String, List<Target>>();
+        Map<String, Set<String>> addresses = new LinkedHashMap<String, Set<String>>();
+        String root = basePath.replaceAll("/+$", "") + "/";
+
+        for (Map.Entry<String, MetaData> entry : instances.entrySet()) {
+            MetaData metaData = entry.getValue();
+
+            if (!entry.getKey().startsWith(root) || (metaData == null)) {
+                continue;
+            }
+
+            // region/zone/flavor/service/id
+            String[] segments = entry.getKey().substring(root.length()).split("/");
+
+            if (segments.length != 5) {
+                continue;
+            }
+
+            String location = segments[2] + "." + segments[1] + "." + segments[0] + "." + this.domain;
+            String target = normalize(label(segments[4]) + "." + location);
+            byte[] address = parseIPv4(metaData.getListenAddress());
+
+            if (!isValid(target) || (address == null)) {
+                logger.debug("no DNS records for " + entry.getKey());
+                continue;
+            }
+
+            String srvName = normalize("_" + segments[3] + "._tcp." + location);
+            String aName = normalize(segments[3] + "." + location);
+
+            if (!services.containsKey(srvName)) {
+                services.put(srvName, new ArrayList<Target>());
+            }
+            services.get(srvName).add(new Target(target, metaData.getListenPort(), address, metaData.isDraining()));
+
+            if (!metaData.isDraining()) {
+                if (!addresses.containsKey(aName)) {
+                    addresses.put(aName, new LinkedHashSet<String>());
+                }
+                addresses.get(aName).add(metaData.getListenAddress());
+            }
+
+            Set<String> targetAddress = Collections.singleton(metaData.getListenAddress());
+            a.put(target, addressAnswer(target, targetAddress, MAX_UDP_SIZE, null));
+        }
+
+        for (Map.Entry<String, List<Target>> entry : services.entrySet()) {
+            Answer complete = srvAnswer(entry.getKey(), entry.getValue(), MAX_TCP_SIZE, null);
+            Answer answer = srvAnswer(entry.getKey(), entry.getValue(), MAX_UDP_SIZE, complete);
+            srv.put(entry.getKey(), answer.truncated ? answer : complete);
+        }
+
+        for (Map.Entry<String, Set<String>> entry : addresses.entrySet()) {
+            if (isValid(entry.getKey())) {
+                Answer complete = addressAnswer(entry.getKey(), entry.getValue(), MAX_TCP_SIZE, null);
+                Answer answer = addressAnswer(entry.getKey(), entry.getValue(), MAX_UDP_SIZE, complete);
+                a.put(entry.getKey(), answer.truncated ? answer : complete);
+            }
+        }
+
+        addNames(srv.keySet());
+        addNames(a.keySet());
+    }
+
+    private void addNames(Set<String> owners) {
+        for (String owner : owners) {
+            for (String name = owner; names.add(name) && !name.equals(domain); ) {
+                int dot = name.indexOf('.');
+
+                if (dot < 0) {
+                    break;
+                }
+                name = name.substring(dot + 1);
+            }
+        }
+    }
+
+    /**
+     * @param id an instance id, usually address:port
+     * @return a host name label for the id, empty if it has no letters or digits.
+     */
+    static String label(String id) {
+        return id.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9-]+", "-").replaceAll("^-+|-+$", "");
+    }
+
+    private static final class Target {
+        final String name;
+        final int port;
+        final byte[] address;
+        final boolean draining;
+
+        Target(String name, int port, byte[] address, boolean draining) {
+            this.name = name;
+            this.port = port;
+            this.address = address;
+            this.draining = draining;
+        }
+    }
+
+    /**
+     * @param limit the size the response is kept within
+     * @param complete the answer given over TCP if this one is truncated, null if this one
+     */
+    private Answer srvAnswer(String name, List<Target> targets, int limit, Answer complete) {
+        int start = HEADER_SIZE + wireLength(name) + 4;
+        ByteArrayOutputStream answers = new ByteArrayOutputStream();
+        ByteArrayOutputStream additionals = new ByteArrayOutputStream();
+        int count = 0;
+
+        for (Target target : targets) {
+            byte[] targetName = encodeName(target.name);
+            // The target name starts after owner, type, class, ttl, length, priority, weight and port.
+            int targetOffset = start + answers.size() + 12 + 6;
+            // Large TCP answers repeat names beyond the reach of a compression pointer.
+            int ownerLength = (targetOffset < MAX_POINTER) ? 2 : targetName.length;
+            int srvLength = 12 + 6 + targetName.length;
+
+            if (start + answers.size() + additionals.size() + srvLength + ownerLength + 14 > limit) {
+                return new Answer(concat(answers, additionals), count, count, true, complete);
+            }
+
+            writeRecordHeader(answers, QUESTION_NAME, TYPE_SRV, 6 + targetName.length);
+            writeShort(answers, 0);
+            writeShort(answers, target.draining ? 0 : 1);
+            writeShort(answers, target.port);
+            answers.write(targetName, 0, targetName.length);
+
+            if (targetOffset < MAX_POINTER) {
+                writeShort(additionals, 0xc000 | targetOffset);
+            } else {
+                additionals.write(targetName, 0, targetName.length);
+            }
+            writeRecordData(additionals, TYPE_A, 4);
+            additionals.write(target.address, 0, 4);
+            count++;
+        }
+
+        // Additional records follow all answers, so their pointers stay valid.
+        return new Answer(concat(answers, additionals), count, count, false, complete);
+    }
+
+    private Answer addressAnswer(String name, Set<String> addresses, int limit, Answer complete) {
+        int start = HEADER_SIZE + wireLength(name) + 4;
+        ByteArrayOutputStream answers = new ByteArrayOutputStream();
+        int count = 0;
+
+        for (String address : addresses) {
+            if (start + answers.size() + 16 > limit) {
+                return new Answer(answers.toByteArray(), count, 0, true, complete);
+            }
+
+            writeRecordHeader(answers, QUESTION_NAME, TYPE_A, 4);
+            answers.write(parseIPv4(address), 0, 4);
+            count++;
+        }
+
+        return new Answer(answers.toByteArray(), count, 0, false, complete);
+    }
+
+    private void writeRecordHeader(ByteArrayOutputStream out, int pointer, int type, int length) {
+        writeShort(out, pointer);
+        writeRecordData(out, type, length);
+    }
+
+    /** Everything after the owner name: type, class, TTL and data length. */
+    private void writeRecordData(ByteArrayOutputStream out, int type, int length) {
+        writeShort(out, type);
+        writeShort(out, CLASS_IN);
+        writeShort(out, ttl >>> 16);
+        writeShort(out, ttl & 0xffff);
+        writeShort(out, length);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write((value >>> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+
+    private static byte[] concat(ByteArrayOutputStream first, ByteArrayOutputStream second) {
+        byte[] result = new byte[first.size() + second.size()];
+        System.arraycopy(first.toByteArray(), 0, result, 0, first.size());
+        System.arraycopy(second.toByteArray(), 0, result, first.size(), second.size());
+
+        return result;
+    }
+
+    /**
+     * @param name a lower case name without trailing dot
+     * @param type the query type
+     * @return the precomputed answer, null if there is none for the name and type.
+     */
+    Answer lookup(String name, int type) {
+        switch (type) {
+        case TYPE_SRV:
+            return srv.get(name);
+        case TYPE_A:
+            return a.get(name);
+        case TYPE_ANY:
+            return srv.containsKey(name) ? srv.get(name) : a.get(name);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the name exists, with records of any type or as an empty non-terminal.
+     */
+    boolean exists(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * @return true if the name is in the domain answered for.
+     */
+    boolean isAuthoritative(String name) {
+        return name.equals(domain) || name.endsWith("." + domain);
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return the number of names answered for.
+     */
+    public int size() {
+        return srv.size() + a.size();
+    }
+
+    static String normalize(String name) {
+        return name.replaceAll("\\.+$", "").toLowerCase(Locale.ENGLISH);
+    }
+
+    private static boolean isValid(String name) {
+        if (wireLength(name) > 255) {
+            return false;
+        }
+
+        for (String label : name.split("\\.")) {
+            if ((label.length() == 0) || (label.length() > 63)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static int wireLength(String name) {
+        return name.length() + 2;
+    }
+
+    static byte[] encodeName(String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(ASCII);
+            out.write(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.write(0);
+
+        return out.toByteArray();
+    }
+
+    static byte[] parseIPv4(String address) {
+        if (address == null) {
+            return null;
+        }
+
+        String[] parts = address.split("\\.");
+
+        if (parts.length != 4) {
+            return null;
+        }
+
+        byte[] bytes = new byte[4];
+
+        try {
+            for (int i = 0; i < 4; i++) {
+                int value = Integer.parseInt(parts[i]);
+
+                if ((value < 0) || (value > 255)) {
+                    return null;
+                }
+                bytes[i] = (byte) value;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "DnsZone [domain=" + domain + ", version=" + version + ", ttl=" + ttl + ", names=" + size() + "]";
+    }
+}
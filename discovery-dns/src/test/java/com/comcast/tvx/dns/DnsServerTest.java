@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.dns;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.comcast.tvx.cloud.MetaData;
+
+public class DnsServerTest {
+
+    private Map<String, MetaData> instances;
+    private DnsServer server;
+    private DatagramSocket client;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        instances = new TreeMap<String, MetaData>();
+        add("region1/zone1/guide/http/a", "10.0.0.1", 8080, false);
+        add("region1/zone1/guide/http/b", "10.0.0.2", 8081, false);
+        add("region1/zone1/guide/http/c", "10.0.0.3", 8082, true);
+        add("region1/zone1/guide/https/a", "10.0.0.1", 8443, false);
+
+        server = new DnsServer(new InetSocketAddress("127.0.0.1", 0));
+        server.setZone(new DnsZone(instances, "/services", "discovery", 1, 5));
+        server.start();
+
+        client = new DatagramSocket();
+        client.setSoTimeout(5000);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testSrv() throws Exception {
+        byte[] response = query("_http._tcp.guide.zone1.region1.discovery", DnsZone.TYPE_SRV);
+
+        assertEquals(rcode(response), DnsServer.NOERROR);
+        assertTrue((response[2] & 0x04) != 0, "authoritative");
+        assertEquals(count(response, 6), 3);
+        assertEquals(count(response, 10), 3);
+
+        // First answer follows the question: pointer, type, class, ttl, length, priority, weight, port.
+        int answer = 12 + "_http._tcp.guide.zone1.region1.discovery".length() + 2 + 4;
+        assertEquals(count(response, answer), 0xc00c);
+        assertEquals(count(response, answer + 2), DnsZone.TYPE_SRV);
+        assertEquals(count(response, answer + 8), 5);
+        assertEquals(count(response, answer + 14), 1);
+        assertEquals(count(response, answer + 16), 8080);
+        assertEquals(name(response, answer + 18), "a.guide.zone1.region1.discovery");
+    }
+
+    @Test
+    public void testDrainingWeight() throws Exception {
+        byte[] response = query("_http._tcp.guide.zone1.region1.discovery", DnsZone.TYPE_SRV);
+        int answer = 12 + "_http._tcp.guide.zone1.region1.discovery".length() + 2 + 4;
+        int length = 12 + 6 + "a.guide.zone1.region1.discovery".length() + 2;
+
+        assertEquals(count(response, answer + 2 * length + 14), 0);
+        assertEquals(count(response, answer + 2 * length + 16), 8082);
+    }
+
+    @Test
+    public void testServiceAddresses() throws Exception {
+        byte[] response = query("HTTP.Guide.Zone1.Region1.Discovery.", DnsZone.TYPE_A);
+
+        assertEquals(rcode(response), DnsServer.NOERROR);
+        // The draining instance is left out.
+        assertEquals(count(response, 6), 2);
+
+        response = query("b.guide.zone1.region1.discovery", DnsZone.TYPE_A);
+        assertEquals(count(response, 6), 1);
+        assertEquals(response[response.length - 1], 2);
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertEquals(rcode(query("_ftp._tcp.guide.zone1.region1.discovery", DnsZone.TYPE_SRV)), DnsServer.NXDOMAIN);
+        assertEquals(rcode(query("www.example.com", DnsZone.TYPE_A)), DnsServer.REFUSED);
+
+        // Known name without records of the type.
+        byte[] response = query("_http._tcp.guide.zone1.region1.discovery", DnsZone.TYPE_A);
+        assertEquals(rcode(response), DnsServer.NOERROR);
+        assertEquals(count(response, 6), 0);
+
+        assertEquals(DnsServer.respond(new byte[] { 1, 2, 0, 0 }, 4, server.getZone(), false), null);
+    }
+
+    @Test
+    public void testAddressPortId() throws Exception {
+        add("region1/zone2/guide/http/10.0.1.1:8080", "10.0.1.1", 8080, false);
+        server.setZone(new DnsZone(instances, "/services", "discovery", 2, 5));
+
+        byte[] response = query("_http._tcp.guide.zone2.region1.discovery", DnsZone.TYPE_SRV);
+        int answer = 12 + "_http._tcp.guide.zone2.region1.discovery".length() + 2 + 4;
+        assertEquals(name(response, answer + 18), "10-0-1-1-8080.guide.zone2.region1.discovery");
+
+        response = query("10-0-1-1-8080.guide.zone2.region1.discovery", DnsZone.TYPE_A);
+        assertEquals(rcode(response), DnsServer.NOERROR);
+        assertEquals(count(response, 6), 1);
+    }
+
+    @Test
+    public void testEmptyNonTerminals() throws Exception {
+        for (String name : new String[] { "discovery", "region1.discovery", "zone1.region1.discovery",
+                "guide.zone1.region1.discovery", "_tcp.guide.zone1.region1.discovery" }) {
+            byte[] response = query(name, DnsZone.TYPE_A);
+
+            assertEquals(rcode(response), DnsServer.NOERROR, name);
+            assertEquals(count(response, 6), 0, name);
+        }
+        assertEquals(rcode(query("zone9.region1.discovery", DnsZone.TYPE_A)), DnsServer.NXDOMAIN);
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            add("region1/zone2/guide/http/instance" + i, "10.0.1." + i, 8080, false);
+        }
+        server.setZone(new DnsZone(instances, "/services", "discovery", 2, 5));
+
+        byte[] response = query("_http._tcp.guide.zone2.region1.discovery", DnsZone.TYPE_SRV);
+        assertTrue((response[2] & 0x02) != 0, "truncated");
+        assertTrue(response.length <= DnsZone.MAX_UDP_SIZE);
+        assertTrue(count(response, 6) > 0);
+
+        response = query("http.guide.zone2.region1.discovery", DnsZone.TYPE_A);
+        assertTrue((response[2] & 0x02) != 0, "truncated");
+        assertEquals(count(response, 6), (response.length - 12 - 36 - 4) / 16);
+
+        response = query("instance7.guide.zone2.region1.discovery", DnsZone.TYPE_A);
+        assertFalse((response[2] & 0x02) != 0, "truncated");
+    }
+
+    @Test
+    public void testTcp() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            add("region1/zone2/guide/http/instance" + i, "10.0.1." + i, 8080 + i, false);
+        }
+        server.setZone(new DnsZone(instances, "/services", "discovery", 2, 5));
+
+        String name = "_http._tcp.guide.zone2.region1.discovery";
+        byte[] response = query(name, DnsZone.TYPE_SRV);
+        assertTrue((response[2] & 0x02) != 0, "truncated");
+        assertTrue(count(response, 6) < 20);
+
+        // The client retries over TCP, which takes every instance.
+        Socket connection = new Socket("127.0.0.1", server.getLocalPort());
+        try {
+            connection.setSoTimeout(5000);
+            response = query(connection, name, DnsZone.TYPE_SRV);
+            assertFalse((response[2] & 0x02) != 0, "truncated");
+            assertEquals(count(response, 6), 20);
+            assertEquals(count(response, 10), 20);
+            assertTrue(response.length > DnsZone.MAX_UDP_SIZE);
+
+            // Answers follow the path order, the last additional record is the address of instance9.
+            assertEquals(response[response.length - 1], 9);
+
+            // The connection answers further queries.
+            response = query(connection, "http.guide.zone2.region1.discovery", DnsZone.TYPE_A);
+            assertEquals(count(response, 6), 20);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testTcpBeyondPointers() throws Exception {
+        // Targets past 16 KiB cannot be pointed to and are repeated in full.
+        for (int i = 0; i < 300; i++) {
+            add("region1/zone2/guide/http/instance" + i, "10.0." + (i / 256) + "." + (i % 256), 8080, false);
+        }
+        server.setZone(new DnsZone(instances, "/services", "discovery", 2, 5));
+
+        Socket connection = new Socket("127.0.0.1", server.getLocalPort());
+        try {
+            connection.setSoTimeout(5000);
+            byte[] response = query(connection, "_http._tcp.guide.zone2.region1.discovery", DnsZone.TYPE_SRV);
+            assertEquals(count(response, 6), 300);
+            assertTrue(response.length > 0x4000);
+
+            // Last additional record: name, type, class, ttl, length and address.
+            String target = "instance99.guide.zone2.region1.discovery";
+            int additional = response.length - (target.length() + 2) - 14;
+            assertEquals(name(response, additional), target);
+            assertEquals(count(response, additional + target.length() + 2), DnsZone.TYPE_A);
+            assertEquals(response[response.length - 1], 99);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testChangeRateTtl() {
+        ChangeRateTtl ttl = new ChangeRateTtl(1, 60);
+        assertEquals(ttl.ttl(0), 1);
+
+        ttl.changed(0);
+        ttl.changed(8000);
+        assertEquals(ttl.ttl(8000), 2);
+
+        // Quiet for a long time.
+        assertEquals(ttl.ttl(1000000), 60);
+    }
+
+    private byte[] query(String name, int type) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 0x12, 0x34, 0x01, 0x00, 0, 1, 0, 0, 0, 0, 0, 0 });
+        out.write(DnsZone.encodeName(name.replaceAll("\\.$", "")));
+        out.write(new byte[] { 0, (byte) type, 0, 1 });
+
+        byte[] query = out.toByteArray();
+        client.send(new DatagramPacket(query, query.length, InetAddress.getByName("127.0.0.1"), server.getLocalPort()));
+
+        byte[] buffer = new byte[DnsZone.MAX_UDP_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        client.receive(packet);
+
+        byte[] response = new byte[packet.getLength()];
+        System.arraycopy(buffer, 0, response, 0, response.length);
+        assertEquals(response[0], 0x12);
+        assertEquals(response[1], 0x34);
+
+        return response;
+    }
+
+    private byte[] query(Socket connection, String name, int type) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 0x12, 0x34, 0x01, 0x00, 0, 1, 0, 0, 0, 0, 0, 0 });
+        out.write(DnsZone.encodeName(name));
+        out.write(new byte[] { 0, (byte) type, 0, 1 });
+
+        DataOutputStream request = new DataOutputStream(connection.getOutputStream());
+        request.writeShort(out.size());
+        out.writeTo(request);
+        request.flush();
+
+        DataInputStream in = new DataInputStream(connection.getInputStream());
+        byte[] response = new byte[in.readUnsignedShort()];
+        in.readFully(response);
+        assertEquals(response[0], 0x12);
+        assertEquals(response[1], 0x34);
+
+        return response;
+    }
+
+    private int rcode(byte[] response) {
+        return response[3] & 0xf;
+    }
+
+    private int count(byte[] response, int offset) {
+        return ((response[offset] & 0xff) << 8) | (response[offset + 1] & 0xff);
+    }
+
+    private String name(byte[] response, int offset) {
+        StringBuilder name = new StringBuilder();
+
+        for (int label = response[offset]; label != 0; label = response[offset]) {
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            name.append(new String(response, offset + 1, label));
+            offset += label + 1;
+        }
+
+        return name.toString();
+    }
+
+    private void add(String path, String address, int port, boolean draining) {
+        MetaData metaData = new MetaData(UUID.randomUUID(), address, port, path.split("/")[3]);
+        metaData.setDraining(draining);
+        instances.put("/services/" + path, metaData);
+    }
+}
@@ -45,6 +45,8 @@ public abstract class AbstractMappingsProvider implements MappingsProvider {
                 if ((parts[1] == null) || (parts[1]).trim().length() == 0) {
                     throw new IllegalArgumentException(line + " is missing path definition, cannot continue");
                 }
+                // Fail on bad options now rather than when rendering.
+                PortMapping.parse(parts[1]);
                 mappings.put(Integer.parseInt(parts[0]), parts[1]);
             }
         }
@@ -23,10 +23,18 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
+import javax.management.JMException;
+
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.utils.EnsurePath;
 import org.slf4j.Logger;
@@ -35,6 +43,11 @@ import org.slf4j.LoggerFactory;
 import com.comcast.tvx.cloud.Constants;
 import com.comcast.tvx.cloud.CuratorClient;
 import com.comcast.tvx.cloud.DiscoveryClient;
+import com.comcast.tvx.cloud.RegistryHttpServer;
+import com.comcast.tvx.cloud.RegistrySnapshotHolder;
+import com.comcast.tvx.cloud.RegistrySnapshotPublisher;
+import com.comcast.tvx.cloud.SharedRegistryPublisher;
+import com.comcast.tvx.cloud.SharedRegistryWriter;
 import com.google.common.base.Throwables;
 import com.sampullara.cli.Args;
 import com.sampullara.cli.Argument;
@@ -69,6 +82,87 @@ public class ConfiguratorMain {
     @Argument(alias = "x", description = "Mappings root to scan in ZK for port mappings.", required = false)
     private static String mappingsRoot = null;
 
+    @Argument(alias = "lr", description = "Region of this configurator. Enables locality preference.", required = false)
+    private static String localRegion = null;
+
+    @Argument(alias = "lz", description = "Availability zone of this configurator.", required = false)
+    private static String localZone = null;
+
+    @Argument(alias = "ml", description = "Minimum local servers before remote servers are promoted from backup.", required = false)
+    private static Integer minLocalServers = 1;
+
+    @Argument(alias = "ht", description = "Milliseconds a removed instance is kept before it is dropped.", required = false)
+    private static Long holdTime = 0L;
+
+    @Argument(alias = "sp", description = "Largest percentage a service or the whole configuration may shrink in one cycle.", required = false)
+    private static Integer maxShrinkPercent = 100;
+
+    @Argument(alias = "gt", description = "Milliseconds a larger shrink must persist before it is accepted.", required = false)
+    private static Long guardTime = 5 * 60 * 1000L;
+
+    @Argument(alias = "nt", description = "HAProxy threads, 0 for one per core. Renders a global section when set.", required = false)
+    private static Integer threads = null;
+
+    @Argument(alias = "cpu", description = "First CPU HAProxy threads are pinned to, one CPU per thread.", required = false)
+    private static Integer firstCpu = null;
+
+    @Argument(alias = "mc", description = "HAProxy process wide maxconn.", required = false)
+    private static Integer maxConn = null;
+
+    @Argument(alias = "ss", description = "Path of an admin level HAProxy stats socket.", required = false)
+    private static String statsSocket = null;
+
+    @Argument(alias = "sl", description = "Share a single listener between all threads instead of one bind per thread.", required = false)
+    private static Boolean sharedListener = false;
+
+    @Argument(alias = "sa", description = "host:port of an admin level TCP stats socket. Enables stats feedback.", required = false)
+    private static String statsAddress = null;
+
+    @Argument(alias = "fi", description = "Milliseconds between stats feedback runs.", required = false)
+    private static Long feedbackInterval = 10 * 1000L;
+
+    @Argument(alias = "fe", description = "Error rate (0 - 1) above which a server is drained.", required = false)
+    private static Double maxErrorRate = 0.2;
+
+    @Argument(alias = "fq", description = "Queue time in ms above which a server is drained.", required = false)
+    private static Long maxQueueTime = 1000L;
+
+    @Argument(alias = "fw", description = "Lowest weight in percent given to slow servers.", required = false)
+    private static Integer minWeightPercent = 10;
+
+    @Argument(alias = "fd", description = "Most servers of a backend drained at the same time, in percent.", required = false)
+    private static Integer maxDrainPercent = 25;
+
+    @Argument(alias = "si", description = "Static shard index of this configurator, 0 based. Requires -sc.", required = false)
+    private static Integer shardIndex = null;
+
+    @Argument(alias = "sc", description = "Static number of shards.", required = false)
+    private static Integer shardCount = null;
+
+    @Argument(alias = "sg", description = "ZooKeeper path of the configurator group to shard mappings across.", required = false)
+    private static String shardGroup = null;
+
+    @Argument(alias = "sn", description = "Unique name of this configurator in the group, defaults to the host name.", required = false)
+    private static String shardName = null;
+
+    @Argument(alias = "rs", description = "ZooKeeper path of the registry snapshot to read and, when elected, publish.", required = false)
+    private static String snapshotPath = null;
+
+    @Argument(alias = "ls", description = "Local file keeping the last good registry, used while ZooKeeper is unavailable.", required = false)
+    private static String localSnapshotFile = null;
+
+    @Argument(alias = "sm", description = "Memory-mapped file to share the registry with processes on this host.", required = false)
+    private static String sharedRegistryFile = null;
+
+    @Argument(alias = "smc", description = "Most instances the shared registry file holds.", required = false)
+    private static Integer sharedRegistryCapacity = 16 * 1024;
+
+    @Argument(alias = "hp", description = "Port to serve the registry as JSON over HTTP on.", required = false)
+    private static Integer httpPort = null;
+
+    @Argument(alias = "hc", description = "Most HTTP requests, including long polls, served at the same time.", required = false)
+    private static Integer httpThreads = 64;
+
     /**
      * @param args
      */
@@ -81,6 +175,10 @@ public class ConfiguratorMain {
                 throw new IllegalArgumentException(
                     "You must specify one of mappingRoot or mappingFile.");
             }
+
+            if ((shardIndex == null) != (shardCount == null)) {
+                throw new IllegalArgumentException("You must specify both shardIndex and shardCount.");
+            }
         } catch (IllegalArgumentException e) {
             Args.usage(ConfiguratorMain.class);
             System.exit(1);
@@ -106,6 +204,10 @@ public class ConfiguratorMain {
 
         ZkEventHandler eventHandler = null;
         MappingsProvider mappingsProvider = null;
+        RegistrySnapshotPublisher snapshotPublisher = null;
+        SharedRegistryPublisher sharedRegistryPublisher = null;
+        RegistryHttpServer httpServer = null;
+        RegistrySnapshotHolder registry = null;
 
         /*
          * Instantiate Zookeeper mappings configuration.
@@ -126,20 +228,149 @@ public class ConfiguratorMain {
             Throwables.propagate(e);
         }
 
-        while (true) {
+        if (localRegion != null) {
+            logger.info("preferring servers local to region: " + localRegion + ", zone: " + localZone);
+            eventHandler.setLocalityPolicy(new LocalityPolicy(localRegion, localZone, minLocalServers));
+        }
+
+        if ((holdTime > 0) || (maxShrinkPercent < 100)) {
+            logger.info("holding removed instances for " + holdTime + " ms, guarding shrinks over "
+                    + maxShrinkPercent + "% for " + guardTime + " ms");
+            RemovalGuard guard = new RemovalGuard(holdTime, maxShrinkPercent, guardTime);
+            eventHandler.setRemovalGuard(guard);
 
             try {
-                new EnsurePath(registrationRoot).ensure(curatorFramework.getZookeeperClient());
+                guard.register();
+            } catch (JMException e) {
+                logger.warn("Could not export the removal guard statistics over JMX", e);
+            }
+        }
+
+        if (threads != null) {
+            HAGlobal global = new HAGlobal((threads > 0) ? threads : HAGlobal.defaultThreads(), firstCpu);
+            global.setMaxConn(maxConn);
+            global.setStatsSocket(statsSocket);
+            global.setShardBinds(!sharedListener);
+            logger.info("rendering HAProxy global section with " + global.getThreads() + " threads");
+            eventHandler.setGlobal(global);
+        }
+
+        if (shardGroup != null) {
+            String name = (shardName != null) ? shardName : localHostName();
+            logger.info("sharding mappings across group: " + shardGroup + " as: " + name);
+            eventHandler.setShardAssignment(new ShardAssignment(new ZkShardMembership(curatorFramework, shardGroup,
+                    name)));
+        } else if (shardIndex != null) {
+            logger.info("rendering shard " + shardIndex + " of " + shardCount);
+            eventHandler.setShardAssignment(new ShardAssignment(new StaticShardMembership(shardIndex, shardCount)));
+        }
+
+        if (statsAddress != null) {
+            StatsFeedbackController controller = new StatsFeedbackController(new HAProxySocketRuntime(statsAddress));
+            controller.setMaxErrorRate(maxErrorRate);
+            controller.setMaxQueueTime(maxQueueTime);
+            controller.setMinWeightPercent(minWeightPercent);
+            controller.setMaxDrainPercent(maxDrainPercent);
+            logger.info("feeding back stats from " + statsAddress + " every " + feedbackInterval + " ms");
+            // A daemon, so that it never keeps the configurator alive.
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "stats-feedback");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }).scheduleWithFixedDelay(controller, feedbackInterval, feedbackInterval, TimeUnit.MILLISECONDS);
+        }
+
+        if (snapshotPath != null) {
+            logger.info("reading registry snapshot at: " + snapshotPath + ", publishing it when elected");
+            // Publish the whole registry so that readers with other filters can share the snapshot.
+            snapshotPublisher = new RegistrySnapshotPublisher(curatorFramework,
+                    new DiscoveryClient(curatorFramework).usingBasePath(registrationRoot), snapshotPath);
+
+            try {
+                snapshotPublisher.start();
             } catch (Exception e) {
-                logger.error("Error calling createPath for: " + registrationRoot, e);
+                logger.error("An exception occurred joining the snapshot publisher election at: " + snapshotPath, e);
+                Throwables.propagate(e);
             }
+            client.usingSnapshot(snapshotPath);
+        }
+
+        if ((sharedRegistryFile != null) || (httpPort != null)) {
+            // The whole registry, read from the published snapshot if there is one, and read once
+            // per interval for both.
+            DiscoveryClient whole = new DiscoveryClient(curatorFramework).usingBasePath(registrationRoot);
+
+            if (snapshotPath != null) {
+                whole.usingSnapshot(snapshotPath);
+            }
+            registry = new RegistrySnapshotHolder(whole);
+        }
+
+        if (sharedRegistryFile != null) {
+            logger.info("sharing the registry with local processes in: " + sharedRegistryFile);
+
+            try {
+                sharedRegistryPublisher = new SharedRegistryPublisher(registry,
+                        new SharedRegistryWriter(new File(sharedRegistryFile), sharedRegistryCapacity));
+            } catch (IOException e) {
+                logger.error("An exception occurred mapping the shared registry file: " + sharedRegistryFile, e);
+                Throwables.propagate(e);
+            }
+        }
+
+        if (httpPort != null) {
+            try {
+                httpServer = new RegistryHttpServer(registry, registrationRoot, new InetSocketAddress(httpPort),
+                        httpThreads);
+                httpServer.start();
+            } catch (IOException e) {
+                logger.error("An exception occurred binding the registry HTTP server to port: " + httpPort, e);
+                Throwables.propagate(e);
+            }
+        }
 
+        // Ensured once, then a no-op.
+        EnsurePath ensureRegistrationRoot = new EnsurePath(registrationRoot);
+
+        while (true) {
+
+            // Render first: with a local snapshot the client answers from it while ZooKeeper is
+            // unavailable, and nothing below should hold that up.
             try {
                 eventHandler.process();
             } catch (Exception e) {
                 logger.error("An exception occurred calling the HaProxy handler. ", e);
             }
 
+            // Waits out the retry policy while disconnected, so only try while connected.
+            if (curatorFramework.getZookeeperClient().isConnected()) {
+                try {
+                    ensureRegistrationRoot.ensure(curatorFramework.getZookeeperClient());
+                } catch (Exception e) {
+                    logger.error("Error calling createPath for: " + registrationRoot, e);
+                }
+            }
+
+            if (snapshotPublisher != null) {
+                snapshotPublisher.run();
+            }
+
+            if (registry != null) {
+                registry.run();
+            }
+
+            if (sharedRegistryPublisher != null) {
+                sharedRegistryPublisher.run();
+            }
+
+            if (httpServer != null) {
+                httpServer.run();
+            }
+
             try {
                 Thread.sleep(sleepInterval);
             } catch (InterruptedException e) {
@@ -152,6 +383,14 @@ public class ConfiguratorMain {
 
     }
 
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     protected static DiscoveryClient initClient(CuratorFramework curatorFramework) {
         DiscoveryClient client = null;
 
@@ -162,6 +401,11 @@ public class ConfiguratorMain {
             for (String filter : filters) {
                 client.withCriteria(filter);
             }
+
+            if (localSnapshotFile != null) {
+                logger.info("keeping the last good registry in: " + localSnapshotFile);
+                client.withLocalSnapshot(new File(localSnapshotFile));
+            }
         } catch (IOException e) {
             logger.error("An exception occurred processing the filtersFile: " + filtersFile + ", cannot continue", e);
             Throwables.propagate(e);
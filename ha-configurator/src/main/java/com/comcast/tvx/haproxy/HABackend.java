@@ -16,21 +16,39 @@
 
 package com.comcast.tvx.haproxy;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 public class HABackend extends HARenderer {
 
+    /** Algorithms that hash a request property onto a server. */
+    private static final Pattern HASH_BALANCE = Pattern.compile(
+            "source|uri|url_param\\(\\S+\\)|hdr\\(\\S+\\)|rdp-cookie(\\(\\S+\\))?");
+
     protected Integer port;
     protected String healthCheck;
     protected List<HABackendServer> servers;
     private String protocol;
+    protected MappingOptions options;
 
     public HABackend(Integer port, String healthCheck, List<HABackendServer> servers, String protocol) {
+        this(port, healthCheck, servers, protocol, new MappingOptions());
+    }
+
+    public HABackend(Integer port, String healthCheck, List<HABackendServer> servers, String protocol,
+            MappingOptions options) {
         super();
         this.port = port;
         this.healthCheck = healthCheck;
         this.servers = servers;
         this.protocol = protocol;
+        this.options = (options == null) ? new MappingOptions() : options;
+
+        if ("consistent".equals(getHashType())) {
+            assignStableIds();
+        }
     }
 
     public String getName() {
@@ -41,13 +59,82 @@ public class HABackend extends HARenderer {
         return ((protocol != null) && (!protocol.equalsIgnoreCase("xre"))) ? protocol : "tcp";
     }
 
+    public MappingOptions getOptions() {
+        return options;
+    }
+
+    public String getBalance() {
+        return options.get(MappingOptions.BALANCE, "roundrobin");
+    }
+
+    /**
+     * @return the hash type, consistent by default for hashing algorithms, null otherwise.
+     */
+    public String getHashType() {
+        if (options.has(MappingOptions.HASH_TYPE))
+            return options.get(MappingOptions.HASH_TYPE);
+        return HASH_BALANCE.matcher(getBalance()).matches() ? "consistent" : null;
+    }
+
+    /*
+     * Mapping options cannot contain white space, url_param(name) stands for "url_param name".
+     */
+    private String renderBalance() {
+        String balance = getBalance();
+
+        if (balance.startsWith("url_param(")) {
+            return "url_param " + balance.substring("url_param(".length(), balance.length() - 1);
+        }
+        return balance;
+    }
+
+    /*
+     * HAProxy places servers on the consistent hash ring by id, which defaults to the
+     * position in the backend.  Derive ids from address and port instead so adding or
+     * removing a server only moves its own share of the keys.
+     */
+    private void assignStableIds() {
+        Set<Integer> used = new HashSet<Integer>();
+
+        for (HABackendServer server : servers) {
+            int id = server.getStableId();
+
+            while (!used.add(id)) {
+                id = (id == Integer.MAX_VALUE) ? 1 : id + 1;
+            }
+            server.setId(id);
+        }
+    }
+
     public String toString() {
         StringBuilder result = new StringBuilder().append(wrap("backend " + getName()))
-                .append(wrap(" mode " + getMode())).append(wrap(" balance roundrobin"));
+                .append(wrap(" mode " + getMode())).append(wrap(" balance " + renderBalance()));
 
-        if (getMode().equalsIgnoreCase("http"))
+        if (getHashType() != null)
+            result.append(wrap(" hash-type " + getHashType()));
+
+        if (getMode().equalsIgnoreCase("http")) {
             result.append(wrap(" option forwardfor "));
 
+            if (options.has(MappingOptions.KEEP_ALIVE))
+                result.append(wrap(" " + renderKeepAlive(options.get(MappingOptions.KEEP_ALIVE))));
+
+            if (options.has(MappingOptions.HTTP_REUSE))
+                result.append(wrap(" http-reuse " + options.get(MappingOptions.HTTP_REUSE)));
+        }
+
+        if (options.has(MappingOptions.TIMEOUT_CONNECT))
+            result.append(wrap(" timeout connect " + options.get(MappingOptions.TIMEOUT_CONNECT)));
+
+        if (options.has(MappingOptions.TIMEOUT_SERVER))
+            result.append(wrap(" timeout server " + options.get(MappingOptions.TIMEOUT_SERVER)));
+
+        if (options.has(MappingOptions.TIMEOUT_QUEUE))
+            result.append(wrap(" timeout queue " + options.get(MappingOptions.TIMEOUT_QUEUE)));
+
+        if (hasBackupServers())
+            result.append(wrap(" option allbackups"));
+
         if ((healthCheck != null) && (healthCheck.trim().length() != 0) && (getMode().equalsIgnoreCase("http"))) {
             result.append(wrap(" option httpchk GET " + healthCheck));
         }
@@ -59,6 +146,24 @@ public class HABackend extends HARenderer {
         return result.toString();
     }
 
+    /*
+     * Shared with the front end, keep-alive must be configured on both sides.
+     */
+    protected static String renderKeepAlive(String keepAlive) {
+        return Boolean.parseBoolean(keepAlive) ? "option http-keep-alive" : "option http-server-close";
+    }
+
+    /*
+     * Spread load over all backups rather than the first one when no primary is left.
+     */
+    protected boolean hasBackupServers() {
+        for (HABackendServer server : servers) {
+            if (server.isBackup())
+                return true;
+        }
+        return false;
+    }
+
     @Override
     public int compareTo(HAConfigurationSection o) {
         if (!(o instanceof HABackend))
@@ -16,35 +16,109 @@
 
 package com.comcast.tvx.haproxy;
 
+import java.util.zip.CRC32;
+
 /*
  * Encapsulates this: 
  * server server1 127.0.0.1:81 check
  */
 public class HABackendServer extends HARenderer {
 
+    /** HAProxy's default server weight. */
+    public static final int DEFAULT_WEIGHT = 100;
+
     private Integer port;
     private Boolean healthCheck;
     private String ipAddress;
     private String protocol;
+    private boolean backup = false;
+    private MappingOptions options;
+    private Integer weight = null;
+    private Integer id = null;
 
     public HABackendServer(String ipAddress, Integer port, Boolean healthCheck, String protocol) {
+        this(ipAddress, port, healthCheck, protocol, new MappingOptions());
+    }
+
+    public HABackendServer(String ipAddress, Integer port, Boolean healthCheck, String protocol,
+            MappingOptions options) {
         super();
         this.ipAddress = ipAddress;
         this.port = port;
         this.healthCheck = healthCheck;
         this.protocol = protocol;
+        this.options = (options == null) ? new MappingOptions() : options;
     }
 
     public String toString() {
         // acl is_80 path_beg -i /healthCheck/80
         StringBuilder result = new StringBuilder().append(" server ").append(makeName(ipAddress)).append(" ")
                 .append(ipAddress + ":" + port.toString());
+        if (id != null)
+            result.append(" id ").append(id);
+        if (weight != null)
+            result.append(" weight ").append(weight);
+        if (options.has(MappingOptions.SERVER_MAXCONN))
+            result.append(" maxconn ").append(options.get(MappingOptions.SERVER_MAXCONN));
         // hack... if xre server, DON'T specify check interval, it won't work
-        if (!getProtocol().equalsIgnoreCase("xre"))
-            result.append(" check inter 5000");
+        if (!getProtocol().equalsIgnoreCase("xre")) {
+            result.append(" check inter ").append(options.get(MappingOptions.CHECK_INTER, MappingOptions.DEFAULT_CHECK_INTER));
+            if (options.has(MappingOptions.CHECK_RISE))
+                result.append(" rise ").append(options.get(MappingOptions.CHECK_RISE));
+            if (options.has(MappingOptions.CHECK_FALL))
+                result.append(" fall ").append(options.get(MappingOptions.CHECK_FALL));
+            if (options.has(MappingOptions.SLOWSTART))
+                result.append(" slowstart ").append(options.get(MappingOptions.SLOWSTART));
+        }
+        if (backup)
+            result.append(" backup");
         return result.toString();
     }
 
+    public Integer getId() {
+        return id;
+    }
+
+    /*
+     * Numeric server id, unique within a backend.  null lets HAProxy number servers by position.
+     */
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    /**
+     * @return a positive id derived from address and port only.
+     */
+    public int getStableId() {
+        CRC32 crc = new CRC32();
+        crc.update((ipAddress + ":" + port).getBytes());
+        int stableId = (int) (crc.getValue() & Integer.MAX_VALUE);
+
+        return (stableId == 0) ? 1 : stableId;
+    }
+
+    public Integer getWeight() {
+        return weight;
+    }
+
+    /*
+     * Relative weight (0 - 256), null renders HAProxy's default of DEFAULT_WEIGHT.
+     */
+    public void setWeight(Integer weight) {
+        this.weight = weight;
+    }
+
+    public boolean isBackup() {
+        return backup;
+    }
+
+    /*
+     * Backup servers only receive traffic once all primary servers are down.
+     */
+    public void setBackup(boolean backup) {
+        this.backup = backup;
+    }
+
     private String getProtocol() {
 
         return (protocol == null) ? "tcp" : protocol;
@@ -20,6 +20,7 @@ public class HAFrontEnd extends HARenderer {
 
     private Integer port;
     private HABackend backend;
+    private int bindShards = 1;
 
     public HAFrontEnd(Integer port, HABackend backend) {
         super();
@@ -27,6 +28,17 @@ public class HAFrontEnd extends HARenderer {
         this.backend = backend;
     }
 
+    public int getBindShards() {
+        return bindShards;
+    }
+
+    /*
+     * Number of listeners, each served by its own thread of process 1.
+     */
+    public void setBindShards(int bindShards) {
+        this.bindShards = bindShards;
+    }
+
     @Override
     public int compareTo(HAConfigurationSection o) {
 
@@ -43,12 +55,50 @@ public class HAFrontEnd extends HARenderer {
     @Override
     public String toString() {
         StringBuilder result = new StringBuilder();
-        result.append(wrap("frontend frontend_" + port.toString() + " *:" + port.toString()));
+        if (bindShards > 1) {
+            result.append(wrap("frontend frontend_" + port.toString()));
+            for (int thread = 1; thread <= bindShards; thread++)
+                result.append(wrap("bind *:" + port.toString() + " process 1/" + thread));
+        } else {
+            result.append(wrap("frontend frontend_" + port.toString() + " *:" + port.toString()));
+        }
         result.append(wrap("mode " + backend.getMode()));
+
+        MappingOptions options = backend.getOptions();
+        if (options.has(MappingOptions.MAXCONN))
+            result.append(wrap("maxconn " + options.get(MappingOptions.MAXCONN)));
+        if (options.has(MappingOptions.RATE_LIMIT))
+            result.append(renderRateLimit(options));
+        if (options.has(MappingOptions.KEEP_ALIVE) && backend.getMode().equalsIgnoreCase("http"))
+            result.append(wrap(HABackend.renderKeepAlive(options.get(MappingOptions.KEEP_ALIVE))));
+        if (options.has(MappingOptions.TIMEOUT_CLIENT))
+            result.append(wrap("timeout client " + options.get(MappingOptions.TIMEOUT_CLIENT)));
         result.append(wrap("default_backend " + backend.getName()));
         return result.toString();
     }
 
+    /*
+     * Track the request (http) or connection (tcp) rate per source address, and
+     * reject clients above the limit before they reach a backend.
+     */
+    private String renderRateLimit(MappingOptions options) {
+        String limit = options.get(MappingOptions.RATE_LIMIT);
+        String period = options.get(MappingOptions.RATE_PERIOD, MappingOptions.DEFAULT_RATE_PERIOD);
+        StringBuilder result = new StringBuilder();
+
+        if (backend.getMode().equalsIgnoreCase("http")) {
+            result.append(wrap("stick-table type ip size 100k expire " + period + " store http_req_rate(" + period + ")"));
+            result.append(wrap("http-request track-sc0 src"));
+            result.append(wrap("http-request deny deny_status 429 if { sc_http_req_rate(0) gt " + limit + " }"));
+        } else {
+            result.append(wrap("stick-table type ip size 100k expire " + period + " store conn_rate(" + period + ")"));
+            result.append(wrap("tcp-request connection track-sc0 src"));
+            result.append(wrap("tcp-request connection reject if { sc_conn_rate(0) gt " + limit + " }"));
+        }
+
+        return result.toString();
+    }
+
     public void validate() {
 
         super.validate();
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+/*
+ * global
+ * nbthread 4
+ * cpu-map auto:1/1-4 0-3
+ * maxconn 100000
+ * stats socket /var/run/haproxy/discovery.sock mode 600 level admin
+ *
+ * Threading topology of the HAProxy process, rendered ahead of the generated
+ * front/backends.  discovery.cfg is loaded after haproxy.cfg, so these settings
+ * override the packaged global section.  Requires HAProxy 1.8 or later.
+ */
+public class HAGlobal extends HARenderer {
+
+    /** HAProxy's compile time thread limit on 64 bit hosts. */
+    public static final int MAX_THREADS = 64;
+
+    private Integer threads;
+    private Integer firstCpu;
+    private Integer maxConn = null;
+    private String statsSocket = null;
+    private boolean shardBinds = true;
+
+    /**
+     * @param threads Number of threads, see defaultThreads().
+     * @param firstCpu First CPU threads are pinned to, null disables pinning.
+     */
+    public HAGlobal(Integer threads, Integer firstCpu) {
+        super();
+        this.threads = threads;
+        this.firstCpu = firstCpu;
+    }
+
+    /**
+     * One thread per core of this host, within MAX_THREADS.
+     */
+    public static int defaultThreads() {
+        return Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+    }
+
+    public Integer getThreads() {
+        return threads;
+    }
+
+    public Integer getFirstCpu() {
+        return firstCpu;
+    }
+
+    public Integer getMaxConn() {
+        return maxConn;
+    }
+
+    /*
+     * Process wide connection limit, null keeps the packaged setting.
+     */
+    public void setMaxConn(Integer maxConn) {
+        this.maxConn = maxConn;
+    }
+
+    public String getStatsSocket() {
+        return statsSocket;
+    }
+
+    /*
+     * Admin level stats socket, null renders none.
+     */
+    public void setStatsSocket(String statsSocket) {
+        this.statsSocket = statsSocket;
+    }
+
+    public boolean isShardBinds() {
+        return shardBinds;
+    }
+
+    /*
+     * Render one bind per thread for each frontend, letting the kernel spread
+     * accepted connections instead of all threads contending on one listener.
+     */
+    public void setShardBinds(boolean shardBinds) {
+        this.shardBinds = shardBinds;
+    }
+
+    /**
+     * @return number of binds each frontend should render, 1 for a single shared listener.
+     */
+    public int getBindShards() {
+        return shardBinds ? threads : 1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(wrap("global"));
+        result.append(wrap("nbthread " + threads));
+
+        if (firstCpu != null) {
+            result.append(wrap("cpu-map auto:1/1-" + threads + " " + firstCpu + "-" + (firstCpu + threads - 1)));
+        }
+
+        if (maxConn != null) {
+            result.append(wrap("maxconn " + maxConn));
+        }
+
+        if (statsSocket != null) {
+            result.append(wrap("stats socket " + statsSocket + " mode 600 level admin"));
+        }
+
+        return result.toString();
+    }
+
+    @Override
+    public void validate() {
+        super.validate();
+
+        if ((threads == null) || (threads < 1) || (threads > MAX_THREADS)) {
+            throw new RuntimeException("Number of threads must be between 1 and " + MAX_THREADS + ": " + threads);
+        }
+
+        if ((firstCpu != null) && (firstCpu < 0)) {
+            throw new RuntimeException("First CPU cannot be negative: " + firstCpu);
+        }
+    }
+
+    @Override
+    public int compareTo(HAConfigurationSection o) {
+        if (!(o instanceof HAGlobal))
+            return 1;
+
+        return render().equals(o.render()) ? 0 : 1;
+    }
+}
@@ -49,6 +49,9 @@ public class HAHealthCheckBackEnd extends HABackend {
                 // reqrep ^([^\ ]*\ /)healthCheck\/80[/]?(.*) \1healthCheck\2
                 .append(wrap("reqrep ^([^\\ ]*\\ /)healthCheck\\/" + port.toString() + "[/]?(.*)    \\1"
                         + healthCheckIfy(healthCheck) + "\\2"));
+        if (hasBackupServers()) {
+            result.append(wrap("option allbackups"));
+        }
         for (HABackendServer server : servers) {
             result.append(wrap(server.toString()));
         }
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.io.IOException;
+
+/**
+ * HAProxy runtime API, i.e. commands accepted on an admin level stats socket such as
+ * "show stat" or "set weight backend/server 50%".
+ */
+public interface HAProxyRuntime {
+
+    /**
+     * @param command A single runtime API command.
+     * @return the complete response.
+     * @throws IOException if HAProxy cannot be reached.
+     */
+    String execute(String command) throws IOException;
+}
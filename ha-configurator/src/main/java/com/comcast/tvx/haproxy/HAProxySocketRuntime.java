@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Runtime API over a TCP stats socket, e.g. "stats socket ipv4@127.0.0.1:9999 level admin".
+ * HAProxy closes the connection after each command in non interactive mode.
+ */
+public class HAProxySocketRuntime implements HAProxyRuntime {
+
+    private static final int TIMEOUT = 5000;
+
+    private String host;
+    private int port;
+
+    /**
+     * @param address host:port of the stats socket.
+     */
+    public HAProxySocketRuntime(String address) {
+        int index = address.lastIndexOf(':');
+
+        if (index < 1) {
+            throw new IllegalArgumentException("Stats socket must be specified as host:port: " + address);
+        }
+
+        this.host = address.substring(0, index);
+        this.port = Integer.parseInt(address.substring(index + 1));
+    }
+
+    @Override
+    public String execute(String command) throws IOException {
+        Socket socket = new Socket();
+
+        try {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+            socket.setSoTimeout(TIMEOUT);
+
+            OutputStream out = socket.getOutputStream();
+            out.write((command + "\n").getBytes("US-ASCII"));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            return IOUtils.toString(in, "US-ASCII");
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
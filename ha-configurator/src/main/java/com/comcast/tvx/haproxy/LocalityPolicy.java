@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.util.List;
+
+/**
+ * Decides which backend servers are preferred by this configurator based on the region and zone
+ * encoded in their registration path (.../region/zone/flavor/service/id).
+ *
+ * Servers in the local zone are always primary.  Servers in the local region are promoted to
+ * primary when fewer than minLocalServers zone local servers are registered, and all remaining
+ * servers are promoted when the region still cannot provide minLocalServers.  Anything not
+ * promoted is rendered as a backup server.
+ */
+public class LocalityPolicy {
+
+    static final int ZONE = 0;
+    static final int REGION = 1;
+    static final int REMOTE = 2;
+
+    private String region;
+    private String zone;
+    private int minLocalServers;
+
+    /**
+     * @param region Region of this configurator.
+     * @param zone Availability zone of this configurator, may be null to prefer the whole region.
+     * @param minLocalServers Minimum primary servers before the next tier is promoted.
+     */
+    public LocalityPolicy(String region, String zone, int minLocalServers) {
+        if ((region == null) || (region.trim().length() == 0)) {
+            throw new IllegalArgumentException("A region must be specified for locality preference");
+        }
+
+        this.region = region;
+        this.zone = zone;
+        this.minLocalServers = minLocalServers;
+    }
+
+    /**
+     * Classify a registration path relative to this configurator.
+     *
+     * @param registrationPath full path of a registered instance.
+     * @return ZONE, REGION or REMOTE
+     */
+    int tierOf(String registrationPath) {
+        String[] segments = registrationPath.split("/+");
+
+        // region/zone/flavor/service/id
+        if (segments.length < 5) {
+            return REMOTE;
+        }
+
+        String pathRegion = segments[segments.length - 5];
+        String pathZone = segments[segments.length - 4];
+
+        if (!region.equalsIgnoreCase(pathRegion)) {
+            return REMOTE;
+        }
+
+        if ((zone == null) || zone.equalsIgnoreCase(pathZone)) {
+            return ZONE;
+        }
+
+        return REGION;
+    }
+
+    /**
+     * Mark servers as backups according to this policy.
+     *
+     * @param servers Servers of a single backend.
+     * @param tiers Tier of each server, in the same order as servers.
+     */
+    void apply(List<HABackendServer> servers, List<Integer> tiers) {
+        int[] counts = new int[REMOTE + 1];
+
+        for (Integer tier : tiers) {
+            counts[tier]++;
+        }
+
+        // Find the widest tier needed to reach the minimum.
+        int promoted = ZONE;
+        int primaries = counts[ZONE];
+
+        while ((primaries < minLocalServers) && (promoted < REMOTE)) {
+            primaries += counts[++promoted];
+        }
+
+        for (int i = 0; i < servers.size(); i++) {
+            servers.get(i).setBackup(tiers.get(i) > promoted);
+        }
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public int getMinLocalServers() {
+        return minLocalServers;
+    }
+}
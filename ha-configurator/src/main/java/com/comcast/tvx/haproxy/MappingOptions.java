@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Optional key=value tuning options of a single port mapping.  e.g.
+ *
+ * <pre>
+ * 14013:/services/.../chariot-xre/.*::xre balance=leastconn inter=2000 fall=2 timeout-server=1h
+ * </pre>
+ */
+public class MappingOptions {
+
+    public static final String BALANCE = "balance";
+    public static final String HASH_TYPE = "hash-type";
+    public static final String HTTP_REUSE = "http-reuse";
+    public static final String KEEP_ALIVE = "keep-alive";
+    public static final String CHECK_INTER = "inter";
+    public static final String CHECK_RISE = "rise";
+    public static final String CHECK_FALL = "fall";
+    public static final String TIMEOUT_CONNECT = "timeout-connect";
+    public static final String TIMEOUT_SERVER = "timeout-server";
+    public static final String TIMEOUT_CLIENT = "timeout-client";
+    public static final String SLOWSTART = "slowstart";
+    public static final String MAXCONN = "maxconn";
+    public static final String SERVER_MAXCONN = "server-maxconn";
+    public static final String RATE_LIMIT = "rate-limit";
+    public static final String RATE_PERIOD = "rate-period";
+    public static final String TIMEOUT_QUEUE = "timeout-queue";
+
+    /** Default check interval when none is given. */
+    public static final String DEFAULT_CHECK_INTER = "5000";
+
+    /** Default period rate-limit applies to. */
+    public static final String DEFAULT_RATE_PERIOD = "10s";
+
+    private static final Pattern TIME = Pattern.compile("(\\d+)(us|ms|s|m|h|d)?");
+    private static final Pattern COUNT = Pattern.compile("\\d+");
+    private static final Pattern BALANCE_ALGORITHM = Pattern.compile(
+            "roundrobin|static-rr|leastconn|first|source|uri|url_param\\(\\S+\\)|hdr\\(\\S+\\)|rdp-cookie(\\(\\S+\\))?");
+    private static final Set<String> HASH_TYPES = new HashSet<String>(Arrays.asList("consistent", "map-based"));
+    private static final Set<String> HTTP_REUSE_MODES = new HashSet<String>(Arrays.asList(
+            "never", "safe", "aggressive", "always"));
+    private static final Set<String> BOOLEANS = new HashSet<String>(Arrays.asList("true", "false"));
+
+    private Map<String, String> options = new TreeMap<String, String>();
+
+    /**
+     * Parse white space separated key=value pairs.
+     *
+     * @param spec Options, may be null or empty.
+     * @return the parsed options.
+     * @exception IllegalArgumentException if an option is unknown or has an invalid value.
+     */
+    public static MappingOptions parse(String spec) {
+        MappingOptions result = new MappingOptions();
+
+        if ((spec == null) || (spec.trim().length() == 0)) {
+            return result;
+        }
+
+        for (String option : spec.trim().split("\\s+")) {
+            int index = option.indexOf('=');
+
+            if (index < 1 || index == option.length() - 1) {
+                throw new IllegalArgumentException("Invalid mapping option: " + option + ", expected key=value");
+            }
+
+            result.put(option.substring(0, index), option.substring(index + 1));
+        }
+
+        return result;
+    }
+
+    protected void put(String key, String value) {
+        validate(key, value);
+        options.put(key, value);
+    }
+
+    /*
+     * Fail fast on typos, HAProxy would otherwise refuse the generated configuration.
+     */
+    protected void validate(String key, String value) {
+        if (BALANCE.equals(key)) {
+            check(key, value, BALANCE_ALGORITHM.matcher(value).matches());
+        } else if (HASH_TYPE.equals(key)) {
+            check(key, value, HASH_TYPES.contains(value));
+        } else if (HTTP_REUSE.equals(key)) {
+            check(key, value, HTTP_REUSE_MODES.contains(value));
+        } else if (KEEP_ALIVE.equals(key)) {
+            check(key, value, BOOLEANS.contains(value));
+        } else if (CHECK_INTER.equals(key) || TIMEOUT_CONNECT.equals(key) || TIMEOUT_SERVER.equals(key)
+                || TIMEOUT_CLIENT.equals(key) || SLOWSTART.equals(key) || RATE_PERIOD.equals(key)
+                || TIMEOUT_QUEUE.equals(key)) {
+            check(key, value, TIME.matcher(value).matches());
+        } else if (CHECK_RISE.equals(key) || CHECK_FALL.equals(key) || MAXCONN.equals(key)
+                || SERVER_MAXCONN.equals(key) || RATE_LIMIT.equals(key)) {
+            check(key, value, COUNT.matcher(value).matches());
+        } else {
+            throw new IllegalArgumentException("Unknown mapping option: " + key);
+        }
+    }
+
+    protected static void check(String key, String value, boolean valid) {
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid value for mapping option " + key + ": " + value);
+        }
+    }
+
+    public String get(String key) {
+        return options.get(key);
+    }
+
+    public String get(String key, String defaultValue) {
+        String value = options.get(key);
+        return (value == null) ? defaultValue : value;
+    }
+
+    /**
+     * Convert a time option to milliseconds.  As in HAProxy, a value without unit is in
+     * milliseconds.
+     *
+     * @param key Option name.
+     * @return the value in milliseconds, 0 if the option is not set.
+     */
+    public long getMillis(String key) {
+        String value = options.get(key);
+
+        if (value == null) {
+            return 0;
+        }
+
+        Matcher matcher = TIME.matcher(value);
+        matcher.matches();
+        long amount = Long.parseLong(matcher.group(1));
+        String unit = (matcher.group(2) == null) ? "ms" : matcher.group(2);
+
+        if (unit.equals("us")) {
+            return amount / 1000;
+        } else if (unit.equals("s")) {
+            return TimeUnit.SECONDS.toMillis(amount);
+        } else if (unit.equals("m")) {
+            return TimeUnit.MINUTES.toMillis(amount);
+        } else if (unit.equals("h")) {
+            return TimeUnit.HOURS.toMillis(amount);
+        } else if (unit.equals("d")) {
+            return TimeUnit.DAYS.toMillis(amount);
+        }
+
+        return amount;
+    }
+
+    public boolean has(String key) {
+        return options.containsKey(key);
+    }
+
+    public boolean isEmpty() {
+        return options.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return (other instanceof MappingOptions) && ((MappingOptions) other).options.equals(options);
+    }
+
+    @Override
+    public int hashCode() {
+        return options.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+
+        for (Map.Entry<String, String> entry : options.entrySet()) {
+            if (buff.length() > 0) {
+                buff.append(" ");
+            }
+            buff.append(entry.getKey()).append("=").append(entry.getValue());
+        }
+
+        return buff.toString();
+    }
+}
@@ -145,6 +145,7 @@ public class MappingsLoaderMain {
             if (line != null && line.length() > 0) {
                 String[] parts = line.split(":", 2);
                 logger.info(parts[0] + ":" + parts[1]);
+                PortMapping.parse(parts[1]);
                 mappings.put(Integer.parseInt(parts[0]), parts[1]);
             }
         }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+/**
+ * Parsed value of a mappings line, i.e. everything after the external port:
+ *
+ * <pre>
+ * path[:healthCheck[:protocol]][ key=value ...]
+ * </pre>
+ */
+public class PortMapping {
+
+    private String path;
+    private String healthCheck;
+    private String protocol;
+    private MappingOptions options;
+
+    PortMapping(String path, String healthCheck, String protocol, MappingOptions options) {
+        this.path = path;
+        this.healthCheck = healthCheck;
+        this.protocol = protocol;
+        this.options = options;
+    }
+
+    /**
+     * @param value Mapping value without the leading port.
+     * @return the parsed mapping.
+     * @exception IllegalArgumentException if the options cannot be parsed.
+     */
+    public static PortMapping parse(String value) {
+        String spec = value.trim();
+        String optionSpec = null;
+        String[] split = spec.split("\\s+", 2);
+
+        if (split.length > 1) {
+            spec = split[0];
+            optionSpec = split[1];
+        }
+
+        String[] parts = spec.split(":");
+        String healthCheck = (parts.length > 1) ? parts[1] : null;
+        String protocol = (parts.length > 2) ? parts[2] : null;
+
+        return new PortMapping(parts[0], healthCheck, protocol, MappingOptions.parse(optionSpec));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the health check URI, null if the mapping has none.
+     */
+    public String getHealthCheck() {
+        return healthCheck;
+    }
+
+    /**
+     * @return the protocol, null if the mapping has none.
+     */
+    public String getProtocol() {
+        return ((protocol == null) || (protocol.length() == 0)) ? null : protocol;
+    }
+
+    public MappingOptions getOptions() {
+        return options;
+    }
+}
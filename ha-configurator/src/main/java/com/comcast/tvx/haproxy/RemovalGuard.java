@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.comcast.tvx.cloud.MetaData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Damps removals of registered instances between configurator cycles.  Ephemeral nodes of many
+ * reagents can vanish at once when their ZooKeeper sessions expire together, which must not
+ * empty a backend only to refill it on the next cycle.
+ *
+ * <ul>
+ * <li>An instance missing from the registry is kept for holdTime before it is dropped.</li>
+ * <li>When dropping would shrink a service, or all services together, by more than
+ * maxShrinkPercent in one cycle, the previous instances are kept until the shrink has
+ * persisted for guardTime.</li>
+ * </ul>
+ *
+ * Additions are never delayed.
+ */
+public class RemovalGuard implements RemovalGuardMBean {
+
+    private static Logger logger = LoggerFactory.getLogger(RemovalGuard.class);
+
+    /** Guard key of the whole configuration. */
+    static final String TOTAL = "";
+
+    /** JMX name the guard statistics are exported under. */
+    public static final String OBJECT_NAME = "com.comcast.tvx.haproxy:type=RemovalGuard";
+
+    private long holdTime;
+    private int maxShrinkPercent;
+    private long guardTime;
+
+    private Map<String, MetaData> accepted = null;
+    private Map<String, Long> missingSince = new HashMap<String, Long>();
+    private Map<String, Long> guardedSince = new HashMap<String, Long>();
+    private AtomicLong guardTriggered = new AtomicLong();
+
+    /**
+     * @param holdTime Milliseconds a removed instance is kept, 0 to drop it immediately.
+     * @param maxShrinkPercent Largest shrink accepted in one cycle, 100 disables the guard.
+     * @param guardTime Milliseconds a larger shrink must persist before it is accepted.
+     */
+    public RemovalGuard(long holdTime, int maxShrinkPercent, long guardTime) {
+        if ((maxShrinkPercent < 0) || (maxShrinkPercent > 100)) {
+            throw new IllegalArgumentException("maxShrinkPercent must be between 0 and 100: " + maxShrinkPercent);
+        }
+
+        this.holdTime = holdTime;
+        this.maxShrinkPercent = maxShrinkPercent;
+        this.guardTime = guardTime;
+    }
+
+    /**
+     * Apply hold time and shrink guard to the instances found in this cycle.
+     *
+     * @param instances registration path to instance, as returned by DiscoveryClient.findInstances()
+     * @return the instances to render.
+     */
+    public synchronized Map<String, MetaData> filter(Map<String, MetaData> instances) {
+        long now = currentTimeMillis();
+        Map<String, MetaData> result = new TreeMap<String, MetaData>(instances);
+
+        if (accepted == null) {
+            accepted = result;
+            return result;
+        }
+
+        holdRemoved(result, now);
+        guardShrink(result, now);
+
+        accepted = result;
+        return new TreeMap<String, MetaData>(result);
+    }
+
+    private void holdRemoved(Map<String, MetaData> result, long now) {
+        missingSince.keySet().retainAll(accepted.keySet());
+
+        for (Entry<String, MetaData> e : accepted.entrySet()) {
+            if (result.containsKey(e.getKey())) {
+                missingSince.remove(e.getKey());
+                continue;
+            }
+
+            Long since = missingSince.get(e.getKey());
+
+            if (since == null) {
+                since = now;
+                missingSince.put(e.getKey(), since);
+            }
+
+            if (now - since < holdTime) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private void guardShrink(Map<String, MetaData> result, long now) {
+        Map<String, Integer> before = countByService(accepted);
+        Map<String, Integer> after = countByService(result);
+
+        guardedSince.keySet().retainAll(before.keySet());
+
+        // Every scope is evaluated so that each guard times out on its own clock.
+        for (String key : before.keySet()) {
+            if (isGuarded(key, before, after, now)) {
+                restore(result, key);
+            }
+        }
+    }
+
+    private boolean isGuarded(String key, Map<String, Integer> before, Map<String, Integer> after, long now) {
+        String name = TOTAL.equals(key) ? "configuration" : "service " + key;
+        int previous = count(before, key);
+        int remaining = count(after, key);
+
+        if (!exceedsShrink(previous, remaining)) {
+            guardedSince.remove(key);
+            return false;
+        }
+
+        Long since = guardedSince.get(key);
+
+        if (since == null) {
+            since = now;
+            guardedSince.put(key, since);
+            guardTriggered.incrementAndGet();
+            logger.warn("Refusing to shrink " + name + " from " + previous + " to " + remaining
+                    + " instances for " + guardTime + " ms");
+        }
+
+        if (now - since >= guardTime) {
+            logger.warn("Shrink of " + name + " persisted, accepting " + remaining + " instances");
+            return false;
+        }
+
+        return true;
+    }
+
+    private void restore(Map<String, MetaData> result, String key) {
+        for (Entry<String, MetaData> instance : accepted.entrySet()) {
+            if (TOTAL.equals(key) || key.equals(instance.getValue().getServiceName())) {
+                if (!result.containsKey(instance.getKey())) {
+                    result.put(instance.getKey(), instance.getValue());
+                }
+            }
+        }
+    }
+
+    private boolean exceedsShrink(int before, int after) {
+        return (after < before) && ((before - after) * 100 > maxShrinkPercent * before);
+    }
+
+    private Map<String, Integer> countByService(Map<String, MetaData> instances) {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+
+        for (MetaData metaData : instances.values()) {
+            increment(counts, metaData.getServiceName());
+            increment(counts, TOTAL);
+        }
+
+        return counts;
+    }
+
+    private int count(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        return (count == null) ? 0 : count;
+    }
+
+    private void increment(Map<String, Integer> counts, String key) {
+        counts.put(key, count(counts, key) + 1);
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Export the guard statistics through the platform MBean server as {@link #OBJECT_NAME}.
+     *
+     * @throws JMException if the name is taken or the server rejects the bean
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Remove the guard statistics from the platform MBean server.
+     *
+     * @throws JMException if they are not registered
+     */
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+
+    @Override
+    public long getGuardTriggeredCount() {
+        return guardTriggered.get();
+    }
+
+    @Override
+    public long getHoldTime() {
+        return holdTime;
+    }
+
+    @Override
+    public int getMaxShrinkPercent() {
+        return maxShrinkPercent;
+    }
+
+    @Override
+    public long getGuardTime() {
+        return guardTime;
+    }
+}
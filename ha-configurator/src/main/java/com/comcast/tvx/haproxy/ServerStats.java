@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Server row of the HAProxy stats CSV ("show stat").  Columns are looked up by the
+ * names of the header line so that older and newer HAProxy versions parse alike;
+ * counters missing in a version read as 0.
+ */
+public class ServerStats {
+
+    private String proxy;
+    private String server;
+    private String status;
+    private long sessions;
+    private long errors;
+    private long queueTime;
+    private long responseTime;
+
+    ServerStats(String proxy, String server, String status, long sessions, long errors, long queueTime,
+            long responseTime) {
+        this.proxy = proxy;
+        this.server = server;
+        this.status = status;
+        this.sessions = sessions;
+        this.errors = errors;
+        this.queueTime = queueTime;
+        this.responseTime = responseTime;
+    }
+
+    /**
+     * @param csv Output of "show stat", starting with the "# pxname,svname,..." header.
+     * @return a row per server, frontend and backend summary rows are skipped.
+     */
+    public static List<ServerStats> parse(String csv) {
+        List<ServerStats> result = new ArrayList<ServerStats>();
+        String[] lines = csv.split("\r?\n");
+
+        if ((lines.length == 0) || !lines[0].startsWith("#")) {
+            throw new IllegalArgumentException("Missing stats header: " + ((lines.length == 0) ? "" : lines[0]));
+        }
+
+        Map<String, Integer> columns = new HashMap<String, Integer>();
+        String[] header = lines[0].substring(1).trim().split(",");
+
+        for (int i = 0; i < header.length; i++) {
+            columns.put(header[i].trim(), i);
+        }
+
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].trim().length() == 0) {
+                continue;
+            }
+
+            String[] fields = lines[i].split(",", -1);
+            String server = field(fields, columns, "svname");
+
+            if ("FRONTEND".equals(server) || "BACKEND".equals(server)) {
+                continue;
+            }
+
+            result.add(new ServerStats(field(fields, columns, "pxname"), server, field(fields, columns, "status"),
+                    counter(fields, columns, "stot"),
+                    counter(fields, columns, "econ") + counter(fields, columns, "eresp")
+                            + counter(fields, columns, "hrsp_5xx"),
+                    counter(fields, columns, "qtime"), counter(fields, columns, "rtime")));
+        }
+
+        return result;
+    }
+
+    private static String field(String[] fields, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+
+        return ((index == null) || (index >= fields.length)) ? "" : fields[index];
+    }
+
+    private static long counter(String[] fields, Map<String, Integer> columns, String name) {
+        String value = field(fields, columns, name);
+
+        return (value.length() == 0) ? 0 : Long.parseLong(value);
+    }
+
+    public String getProxy() {
+        return proxy;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * @return the runtime API name, backend/server.
+     */
+    public String getName() {
+        return proxy + "/" + server;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return total sessions since start.
+     */
+    public long getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return connection, response and 5xx errors since start.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return average queue time in ms over the last 1024 requests.
+     */
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    /**
+     * @return average response time in ms over the last 1024 requests.
+     */
+    public long getResponseTime() {
+        return responseTime;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns each mapping to one shard of the configurator fleet by rendezvous hashing on its
+ * external port: the member with the highest hash of (member, port) owns the mapping.  When
+ * a member joins or leaves only the mappings it gains or owned move, the others stay put.
+ */
+public class ShardAssignment {
+
+    private static Logger logger = LoggerFactory.getLogger(ShardAssignment.class);
+
+    private ShardMembership membership;
+    private Collection<String> lastMembers = null;
+
+    public ShardAssignment(ShardMembership membership) {
+        this.membership = membership;
+    }
+
+    /**
+     * @param mappings All port mappings.
+     * @return the mappings owned by this configurator.
+     * @exception IllegalStateException if the members have never been read.
+     */
+    public Map<Integer, String> filter(Map<Integer, String> mappings) {
+        Collection<String> members = readMembers();
+
+        if (members == null) {
+            throw new IllegalStateException("Shard members are unknown, cannot assign mappings");
+        }
+
+        Map<Integer, String> result = new TreeMap<Integer, String>();
+
+        for (Entry<Integer, String> mapping : mappings.entrySet()) {
+            if (membership.getSelf().equals(ownerOf(mapping.getKey(), members))) {
+                result.put(mapping.getKey(), mapping.getValue());
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * Keep the last known members when ZooKeeper cannot be read rather than dropping or
+     * duplicating every mapping.
+     */
+    private synchronized Collection<String> readMembers() {
+        try {
+            Collection<String> members = membership.getMembers();
+
+            if (!members.equals(lastMembers)) {
+                logger.info("shard members are now: " + members + ", this configurator is: " + membership.getSelf());
+            }
+            lastMembers = members;
+        } catch (Exception e) {
+            logger.error("An error occurred reading shard members, using: " + lastMembers, e);
+        }
+
+        return lastMembers;
+    }
+
+    /**
+     * @param port External port of a mapping.
+     * @param members Members of the fleet.
+     * @return the owning member, null if there are no members.
+     */
+    static String ownerOf(int port, Collection<String> members) {
+        String owner = null;
+        int highest = 0;
+
+        for (String member : members) {
+            int hash = Hashing.murmur3_32().hashString(member + ":" + port, Charsets.UTF_8).asInt();
+
+            if ((owner == null) || (hash > highest) || ((hash == highest) && (member.compareTo(owner) < 0))) {
+                owner = member;
+                highest = hash;
+            }
+        }
+
+        return owner;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.util.List;
+
+/**
+ * Members of the configurator fleet sharing the mapped services between them.
+ */
+public interface ShardMembership {
+
+    /**
+     * @return the name of this configurator within the fleet.
+     */
+    String getSelf();
+
+    /**
+     * @return names of all current members, including this one.
+     * @throws Exception if the membership cannot be read.
+     */
+    List<String> getMembers() throws Exception;
+}
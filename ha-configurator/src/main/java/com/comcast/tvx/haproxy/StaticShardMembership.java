@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed fleet of count shards, this configurator being shard index.
+ */
+public class StaticShardMembership implements ShardMembership {
+
+    private int index;
+    private List<String> members = new ArrayList<String>();
+
+    /**
+     * @param index Shard index of this configurator, 0 based.
+     * @param count Number of shards.
+     */
+    public StaticShardMembership(int index, int count) {
+        if ((index < 0) || (index >= count)) {
+            throw new IllegalArgumentException("Shard index must be between 0 and " + (count - 1) + ": " + index);
+        }
+
+        this.index = index;
+
+        for (int i = 0; i < count; i++) {
+            members.add(Integer.toString(i));
+        }
+    }
+
+    @Override
+    public String getSelf() {
+        return Integer.toString(index);
+    }
+
+    @Override
+    public List<String> getMembers() {
+        return members;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds live HAProxy statistics back into the load balancing of the generated backends.
+ * Every run scrapes "show stat" and keeps exponentially weighted moving averages of the
+ * error rate, queue time and response time of each server.  Then, within configured bounds:
+ *
+ * <ul>
+ * <li>servers slower than the median of their backend get a proportionally lower weight,
+ * never below minWeightPercent;</li>
+ * <li>servers above maxErrorRate or maxQueueTime are drained, at most maxDrainPercent of a
+ * backend at a time, and made ready again once both are below half of their limit.</li>
+ * </ul>
+ *
+ * Changes are made through the runtime API, so they do not survive a reload; counters
+ * restarting from zero reset the state of a server.
+ */
+public class StatsFeedbackController implements Runnable {
+
+    private static Logger logger = LoggerFactory.getLogger(StatsFeedbackController.class);
+
+    /** Weights are changed in steps of this many percent to avoid churn. */
+    static final int WEIGHT_STEP = 10;
+
+    private HAProxyRuntime runtime;
+    private String backendPrefix = "backend_";
+    private double alpha = 0.3;
+    private double maxErrorRate = 0.2;
+    private long maxQueueTime = 1000;
+    private int minWeightPercent = 10;
+    private int maxDrainPercent = 25;
+
+    private Map<String, ServerState> states = new HashMap<String, ServerState>();
+
+    static class ServerState {
+        long sessions;
+        long errors;
+        double errorRate = 0;
+        double queueTime = 0;
+        double responseTime = 0;
+        int weightPercent = 100;
+        boolean drained = false;
+        boolean fresh = true;
+    }
+
+    public StatsFeedbackController(HAProxyRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    @Override
+    public void run() {
+        try {
+            control(ServerStats.parse(runtime.execute("show stat")));
+        } catch (Exception e) {
+            // Keep the schedule alive, HAProxy may just be reloading.
+            logger.error("An error occurred reading stats from HAProxy at " + runtime, e);
+        }
+    }
+
+    protected synchronized void control(List<ServerStats> stats) {
+        Map<String, List<ServerStats>> backends = new TreeMap<String, List<ServerStats>>();
+        Set<String> seen = new HashSet<String>();
+
+        for (ServerStats server : stats) {
+            if (!server.getProxy().startsWith(backendPrefix)) {
+                continue;
+            }
+
+            List<ServerStats> servers = backends.get(server.getProxy());
+            if (servers == null) {
+                servers = new ArrayList<ServerStats>();
+                backends.put(server.getProxy(), servers);
+            }
+            servers.add(server);
+            seen.add(server.getName());
+            update(server);
+        }
+
+        states.keySet().retainAll(seen);
+
+        for (List<ServerStats> servers : backends.values()) {
+            controlBackend(servers);
+        }
+    }
+
+    private void update(ServerStats server) {
+        ServerState state = states.get(server.getName());
+
+        if ((state == null) || (server.getSessions() < state.sessions)) {
+            // New server, or HAProxy was reloaded and dropped runtime changes.
+            state = new ServerState();
+            state.sessions = server.getSessions();
+            state.errors = server.getErrors();
+            state.queueTime = server.getQueueTime();
+            state.responseTime = server.getResponseTime();
+            states.put(server.getName(), state);
+            return;
+        }
+
+        state.fresh = false;
+        long sessions = server.getSessions() - state.sessions;
+        long errors = server.getErrors() - state.errors;
+        state.sessions = server.getSessions();
+        state.errors = server.getErrors();
+
+        if (sessions > 0) {
+            state.errorRate = ewma(state.errorRate, Math.min(1.0, (double) errors / sessions));
+            state.queueTime = ewma(state.queueTime, server.getQueueTime());
+            state.responseTime = ewma(state.responseTime, server.getResponseTime());
+        } else {
+            // An idle, e.g. drained, server has no failures to report.
+            state.errorRate = ewma(state.errorRate, 0);
+            state.queueTime = ewma(state.queueTime, 0);
+        }
+
+        if (state.drained && !"DRAIN".equals(server.getStatus())) {
+            state.drained = false;
+        }
+    }
+
+    private double ewma(double average, double sample) {
+        return alpha * sample + (1 - alpha) * average;
+    }
+
+    private void controlBackend(List<ServerStats> servers) {
+        List<Double> responseTimes = new ArrayList<Double>();
+        int drained = 0;
+
+        for (ServerStats server : servers) {
+            ServerState state = states.get(server.getName());
+
+            if (state.drained) {
+                drained++;
+            } else if (!state.fresh && isActive(server)) {
+                responseTimes.add(state.responseTime);
+            }
+        }
+
+        double median = median(responseTimes);
+
+        for (ServerStats server : servers) {
+            ServerState state = states.get(server.getName());
+
+            // Counters of a fresh server have no previous sample to compare with.
+            if (state.fresh || !isActive(server)) {
+                continue;
+            }
+
+            if (!state.drained && isUnhealthy(state)) {
+                if ((drained + 1) * 100 <= maxDrainPercent * servers.size()) {
+                    logger.warn("Draining " + server.getName() + ", error rate: " + state.errorRate
+                            + ", queue time: " + state.queueTime);
+                    command("set server " + server.getName() + " state drain");
+                    state.drained = true;
+                    drained++;
+                    continue;
+                }
+                logger.warn("Not draining " + server.getName() + ", " + drained + " of " + servers.size()
+                        + " servers are drained already");
+            } else if (state.drained && isRecovered(state)) {
+                logger.info("Making " + server.getName() + " ready again");
+                command("set server " + server.getName() + " state ready");
+                state.drained = false;
+            }
+
+            if (!state.drained) {
+                int weightPercent = weightPercent(state.responseTime, median);
+
+                if (weightPercent != state.weightPercent) {
+                    command("set weight " + server.getName() + " " + weightPercent + "%");
+                    state.weightPercent = weightPercent;
+                }
+            }
+        }
+    }
+
+    private boolean isActive(ServerStats server) {
+        String status = server.getStatus();
+
+        return !(status.startsWith("DOWN") || status.startsWith("MAINT"));
+    }
+
+    private boolean isUnhealthy(ServerState state) {
+        return (state.errorRate > maxErrorRate) || (state.queueTime > maxQueueTime);
+    }
+
+    private boolean isRecovered(ServerState state) {
+        return (state.errorRate <= maxErrorRate / 2) && (state.queueTime <= maxQueueTime / 2);
+    }
+
+    /*
+     * Weight inversely proportional to response time relative to the backend median.
+     */
+    int weightPercent(double responseTime, double median) {
+        if ((responseTime <= 0) || (median <= 0) || (responseTime <= median)) {
+            return 100;
+        }
+
+        int percent = (int) (100 * median / responseTime) / WEIGHT_STEP * WEIGHT_STEP;
+
+        return Math.max(percent, minWeightPercent);
+    }
+
+    private double median(List<Double> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+
+        Collections.sort(values);
+        int middle = values.size() / 2;
+
+        return (values.size() % 2 == 1) ? values.get(middle) : (values.get(middle - 1) + values.get(middle)) / 2;
+    }
+
+    private void command(String command) {
+        try {
+            String response = runtime.execute(command);
+
+            if ((response != null) && (response.trim().length() > 0)) {
+                logger.warn("HAProxy responded to '" + command + "': " + response.trim());
+            }
+        } catch (Exception e) {
+            logger.error("An error occurred sending '" + command + "' to HAProxy at " + runtime, e);
+        }
+    }
+
+    /*
+     * Smoothing factor of the moving averages, 0 < alpha <= 1.
+     */
+    public void setAlpha(double alpha) {
+        if ((alpha <= 0) || (alpha > 1)) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+        }
+        this.alpha = alpha;
+    }
+
+    /*
+     * Fraction of failed sessions above which a server is drained.
+     */
+    public void setMaxErrorRate(double maxErrorRate) {
+        this.maxErrorRate = maxErrorRate;
+    }
+
+    /*
+     * Average queue time in ms above which a server is drained.
+     */
+    public void setMaxQueueTime(long maxQueueTime) {
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    /*
+     * Lowest weight given to slow servers, in percent of the configured weight.
+     */
+    public void setMinWeightPercent(int minWeightPercent) {
+        if ((minWeightPercent < 1) || (minWeightPercent > 100)) {
+            throw new IllegalArgumentException("minWeightPercent must be between 1 and 100: " + minWeightPercent);
+        }
+        this.minWeightPercent = minWeightPercent;
+    }
+
+    /*
+     * Most servers of a backend drained at the same time, in percent.
+     */
+    public void setMaxDrainPercent(int maxDrainPercent) {
+        if ((maxDrainPercent < 0) || (maxDrainPercent > 100)) {
+            throw new IllegalArgumentException("maxDrainPercent must be between 0 and 100: " + maxDrainPercent);
+        }
+        this.maxDrainPercent = maxDrainPercent;
+    }
+
+    ServerState getState(String name) {
+        return states.get(name);
+    }
+}
@@ -32,6 +32,8 @@ import java.util.TreeMap;
 import com.comcast.tvx.cloud.DiscoveryClient;
 import com.comcast.tvx.cloud.MetaData;
 import com.comcast.tvx.cloud.RegistrationChangeHandler;
+import com.comcast.tvx.cloud.RegistryIndex;
+import com.comcast.tvx.cloud.RegistrySnapshot;
 import com.google.common.base.Throwables;
 
 import org.apache.curator.x.discovery.ServiceInstance;
@@ -53,6 +55,13 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
     private HAServersConfiguration currentRules = null;
     private MappingsProvider mappingsProvider = null;
     private HAProxyService haProxyService;
+    private LocalityPolicy localityPolicy = null;
+    private RemovalGuard removalGuard = null;
+    private HAGlobal global = null;
+    private ShardAssignment shardAssignment = null;
+
+    /** Number of weight steps servers are ramped through during their slowstart window. */
+    static final int RAMP_STEPS = 4;
 
     public ZkEventHandler(DiscoveryClient client, MappingsProvider mappingsProvider,
             String outputFile, HAProxyService haProxyService) {
@@ -68,6 +77,36 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
         this(client,mappingsFileProvider, outputFile,new HAProxyServiceController());
     }
 
+    /*
+     * Prefer servers in our own region/zone, rendering the others as backups.  A null policy
+     * renders every server as a primary.
+     */
+    public void setLocalityPolicy(LocalityPolicy localityPolicy) {
+        this.localityPolicy = localityPolicy;
+    }
+
+    /*
+     * Damp removals of instances, a null guard renders exactly what is registered.
+     */
+    public void setRemovalGuard(RemovalGuard removalGuard) {
+        this.removalGuard = removalGuard;
+    }
+
+    /*
+     * Threading topology rendered ahead of the front/backends, null leaves the
+     * packaged global section untouched.
+     */
+    public void setGlobal(HAGlobal global) {
+        this.global = global;
+    }
+
+    /*
+     * Render only the mappings assigned to this configurator, a null assignment renders all.
+     */
+    public void setShardAssignment(ShardAssignment shardAssignment) {
+        this.shardAssignment = shardAssignment;
+    }
+
     @Override
     public void handleChange(Collection<ServiceInstance<MetaData>> instances) {
         // TODO: This event is ignored for now.
@@ -77,13 +116,13 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
     public void handleChange(String basePath) {
         logger.info("Received change event for basePath: " + basePath);
 
-        Map<String, MetaData> instances = client.findInstances();
+        Map<String, MetaData> instances = findInstances();
 
         logger.info("processing a change for basepath:  " + basePath
                 + " .  This will result in a new discovery.cfg being generated");
 
         try {
-            writeToOutput(outputFile, constructRules(instances, mappingsProvider.getMappings()));
+            writeToOutput(outputFile, constructRules(instances, getMappings()));
         } catch (IOException e) {
             logger.error("An error occurred writing to outfile: " + outputFile, e);
             Throwables.propagate(e);
@@ -101,8 +140,8 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
      * process...
      */
     public void process() throws IOException {
-        Map<String, MetaData> instances = client.findInstances();
-        HAServersConfiguration newRules = constructRules(instances, mappingsProvider.getMappings());
+        Map<String, MetaData> instances = findInstances();
+        HAServersConfiguration newRules = constructRules(instances, getMappings());
 
         if (!newRules.equals(currentRules)) {
             logger.info("New rules added, rebuilding and reloading");
@@ -116,6 +155,18 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
         }
     }
 
+    private Map<String, MetaData> findInstances() {
+        Map<String, MetaData> instances = client.findInstances();
+
+        return (removalGuard == null) ? instances : removalGuard.filter(instances);
+    }
+
+    private Map<Integer, String> getMappings() {
+        Map<Integer, String> mappings = mappingsProvider.getMappings();
+
+        return (shardAssignment == null) ? mappings : shardAssignment.filter(mappings);
+    }
+
     private void reloadHaProxy() throws IOException {
         haProxyService.reload();
     }
@@ -135,6 +186,7 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
         Map<String, Integer> names2externalPorts = new TreeMap<String, Integer>();
         Map<String, String> serviceNames2HealthChecks = new TreeMap<String, String>();
         Map<String, String> serviceNames2Protocols = new TreeMap<String, String>();
+        Map<String, MappingOptions> serviceNames2Options = new TreeMap<String, MappingOptions>();
         Map<Integer,String> orderedMappings = new TreeMap<Integer, String>();
         for (Entry<Integer, String> port : mappings.entrySet()){
             orderedMappings.put(port.getKey(),port.getValue());
@@ -149,21 +201,22 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
                 if (port.getValue().contains("/" + serviceName + "/")) {
                     logger.info("Adding external mapping: " + serviceName + " at port:" + port.getKey());
                     names2externalPorts.put(serviceName, port.getKey());
-                    String[] mappingParts = port.getValue().split(":");
+                    PortMapping mapping = PortMapping.parse(port.getValue());
 
-                    if (mappingParts.length >1 ) {
+                    if (mapping.getHealthCheck() != null) {
                         serviceNames2HealthChecks.put(serviceName,
-                                                      mappingParts[1]);
+                                                      mapping.getHealthCheck());
                         logger.info("adding healthCheck for service: " +
-                                                      serviceName + " :" +mappingParts[1]);
+                                                      serviceName + " :" + mapping.getHealthCheck());
                     }
                     /* need to get optional protocol */
-                    if (mappingParts.length == 3 ) {
+                    if (mapping.getProtocol() != null) {
                         serviceNames2Protocols.put(serviceName,
-                                                      mappingParts[2]);
+                                                      mapping.getProtocol());
                         logger.info("adding protocol for service: " +
-                                serviceName + " :" +mappingParts[2]);
+                                serviceName + " :" + mapping.getProtocol());
                     }
+                    serviceNames2Options.put(serviceName, mapping.getOptions());
                 }
             }
         }
@@ -171,31 +224,52 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
         /*
          * iterate over services, and extract needed stuff to construct HARules
          */
+        RegistryIndex index = new RegistrySnapshot(0, 0, services).index();
         List<HAConfigurationSection> sections = new ArrayList<HAConfigurationSection>();
         List<HAACL> acls = new ArrayList<HAACL>();
         List<HACondition> conditions = new ArrayList<HACondition>();
-        
+
+        if (global != null) {
+            sections.add(global);
+        }
+
         for (Entry<String, Integer> e : names2externalPorts.entrySet()) {
             List<HABackendServer> servers = new ArrayList<HABackendServer>();
+            List<Integer> tiers = new ArrayList<Integer>();
             String serviceName = e.getKey();
             int externalPort = e.getValue();
 
+            MappingOptions options = serviceNames2Options.get(serviceName);
             String healthCheckUrl = serviceNames2HealthChecks.get(e.getKey());
             boolean healthCheck = ((healthCheckUrl == null) || (healthCheckUrl.trim().length() == 0)) ? false : true;
 
-            for (Entry<String, MetaData> s : services.entrySet()) {
+            for (Entry<String, MetaData> s : index.findByServiceName(serviceName).entrySet()) {
                 MetaData backEndService = s.getValue();
 
-                if (backEndService.getServiceName().trim().equalsIgnoreCase(serviceName)) {
-                    servers.add(new HABackendServer(backEndService.getListenAddress(), backEndService.getListenPort(),
-                            healthCheck, serviceNames2Protocols.get(serviceName)));
+                HABackendServer server = new HABackendServer(backEndService.getListenAddress(),
+                        backEndService.getListenPort(), healthCheck, serviceNames2Protocols.get(serviceName), options);
+                // Weight 0 keeps in-flight connections but sends no new ones.
+                server.setWeight(backEndService.isDraining() ? Integer.valueOf(0) : rampWeight(backEndService,
+                        options));
+                servers.add(server);
+
+                if (localityPolicy != null) {
+                    tiers.add(localityPolicy.tierOf(s.getKey()));
                 }
             }
 
+            if (localityPolicy != null) {
+                localityPolicy.apply(servers, tiers);
+            }
+
             HABackend backend = new HABackend(externalPort, healthCheckUrl, servers, (serviceNames2Protocols.get(e
-                    .getKey()) != null) ? serviceNames2Protocols.get(e.getKey()) : null);
+                    .getKey()) != null) ? serviceNames2Protocols.get(e.getKey()) : null, options);
             sections.add(backend);
-            sections.add(new HAFrontEnd(externalPort, backend));
+            HAFrontEnd frontEnd = new HAFrontEnd(externalPort, backend);
+            if (global != null) {
+                frontEnd.setBindShards(global.getBindShards());
+            }
+            sections.add(frontEnd);
             String externalHealthCheckUrl = "/healthCheck";
             // add healthCheck backend, but only if there is a healthCheck defined
             if (healthCheck) {
@@ -213,6 +287,35 @@ public class ZkEventHandler implements RegistrationChangeHandler<MetaData> {
         return configuration;
     }
 
+    /*
+     * HAProxy only applies slowstart to servers coming back up after a failed check, not to
+     * servers added by a reload.  So servers registered within the slowstart window are given a
+     * reduced weight, in RAMP_STEPS quantized steps to bound the number of extra reloads.  Returns
+     * null, i.e. the default weight, from the last step on or if the registration time is unknown.
+     */
+    protected Integer rampWeight(MetaData metaData, MappingOptions options) {
+        long window = (options == null) ? 0 : options.getMillis(MappingOptions.SLOWSTART);
+
+        if ((window <= 0) || (metaData.getRegistrationTime() <= 0)) {
+            return null;
+        }
+
+        long age = Math.max(0, currentTimeMillis() - metaData.getRegistrationTime());
+        int step = (int) (Math.min(age, window) * RAMP_STEPS / window) + 1;
+
+        // The last step is the full weight, render it as the default so that the end of the
+        // window does not change the configuration once more.
+        if (step >= RAMP_STEPS) {
+            return null;
+        }
+
+        return step * HABackendServer.DEFAULT_WEIGHT / RAMP_STEPS;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
     protected void writeToOutput(String outputFile, HAServersConfiguration config) throws IOException {
         // Writing in place.  We're the only writer after all.  Right?
         File f = new File(outputFile);
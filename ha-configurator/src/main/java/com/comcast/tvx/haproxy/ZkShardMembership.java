@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fleet membership through ephemeral nodes below a group path, one per configurator.  The node
+ * is recreated whenever it is found missing, e.g. after the session expired, so a configurator
+ * rejoins on its next cycle.
+ */
+public class ZkShardMembership implements ShardMembership {
+
+    private static Logger logger = LoggerFactory.getLogger(ZkShardMembership.class);
+
+    private CuratorFramework curatorFramework;
+    private String groupPath;
+    private String self;
+
+    /**
+     * @param curatorFramework Started curator framework.
+     * @param groupPath Path below which members register.
+     * @param self Unique name of this configurator, e.g. its host name.
+     */
+    public ZkShardMembership(CuratorFramework curatorFramework, String groupPath, String self) {
+        this.curatorFramework = curatorFramework;
+        this.groupPath = groupPath;
+        this.self = self;
+    }
+
+    @Override
+    public String getSelf() {
+        return self;
+    }
+
+    @Override
+    public List<String> getMembers() throws Exception {
+        String path = ZKPaths.makePath(groupPath, self);
+
+        if (curatorFramework.checkExists().forPath(path) == null) {
+            try {
+                curatorFramework.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(path);
+                logger.info("joined configurator group at: " + path);
+            } catch (KeeperException.NodeExistsException e) {
+                // Raced with a previous session's node about to expire, or a duplicate name.
+                logger.warn("member node already exists: " + path);
+            }
+        }
+
+        List<String> members = new ArrayList<String>(curatorFramework.getChildren().forPath(groupPath));
+        Collections.sort(members);
+
+        return members;
+    }
+}
@@ -34,7 +34,7 @@ if [ "$1" != "--nodaemon" ]; then
     nohup java $JAVA_OPTS \
         -cp $CONF_DIR:$APP_HOME/lib/* \
         com.comcast.tvx.haproxy.ConfiguratorMain \
-        -z $zookeeper_connection  $mappings_root -f $CONF_DIR/filters.conf -m $CONF_DIR/mappings.conf -o /etc/haproxy/discovery.cfg \
+        -z $zookeeper_connection  $mappings_root -f $CONF_DIR/filters.conf -m $CONF_DIR/mappings.conf -o /etc/haproxy/discovery.cfg $CONFIGURATOR_OPTS \
         > $LOG_DIR/$NAME.out 2>&1 &
 
     echo $! > $RUN_DIR/$NAME.pid
@@ -43,6 +43,6 @@ else
     java $JAVA_OPTS \
         -cp $CONF_DIR:$APP_HOME/lib/* \
         com.comcast.tvx.haproxy.ConfiguratorMain \
-        -z $zookeeper_connection  $mappings_root -f $CONF_DIR/filters.conf -m $CONF_DIR/mappings.conf -o /etc/haproxy/discovery.cfg 
+        -z $zookeeper_connection  $mappings_root -f $CONF_DIR/filters.conf -m $CONF_DIR/mappings.conf -o /etc/haproxy/discovery.cfg $CONFIGURATOR_OPTS
 
 fi
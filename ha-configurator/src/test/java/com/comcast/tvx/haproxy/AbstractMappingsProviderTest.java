@@ -54,7 +54,8 @@ public class AbstractMappingsProviderTest {
             Arrays.asList(new String[] {
                               "# This is a comment",
                               "80:/a/b/c/.*:/foo",
-                              "8080:/x/[a-z]*/z/.*:/"
+                              "8080:/x/[a-z]*/z/.*:/",
+                              "8081:/x/[a-z]*/y/.*::http balance=leastconn"
                           });
 
         StringBuilder buff = new StringBuilder();
@@ -68,7 +69,14 @@ public class AbstractMappingsProviderTest {
         Map<Integer, String> expected = new HashMap<Integer, String>();
         expected.put(Integer.valueOf(80), "/a/b/c/.*:/foo");
         expected.put(Integer.valueOf(8080), "/x/[a-z]*/z/.*:/");
+        expected.put(Integer.valueOf(8081), "/x/[a-z]*/y/.*::http balance=leastconn");
         Assert.assertEquals(provider.parseMappings(input), expected);
     }
 
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testParseMappingsBadOption() throws NumberFormatException, IOException {
+        BufferedReader input = new BufferedReader(new StringReader("80:/a/b/c/.*:/foo balance=fastest\n"));
+        provider.parseMappings(input);
+    }
+
 }
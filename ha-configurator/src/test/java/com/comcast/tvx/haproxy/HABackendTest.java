@@ -41,4 +41,40 @@ public class HABackendTest {
 
     }
 
+    @Test
+    public void testConsistentHash() {
+        MappingOptions options = MappingOptions.parse("balance=hdr(X-Device-Id)");
+        List<HABackendServer> servers = new ArrayList<HABackendServer>();
+        servers.add(new HABackendServer("192.168.0.1", 1111, true, "http", options));
+        servers.add(new HABackendServer("192.168.0.2", 1111, true, "http", options));
+        String rendered = new HABackend(1111, "/goo", servers, "http", options).render();
+
+        assertTrue(rendered.contains(" balance hdr(X-Device-Id) \n hash-type consistent \n"));
+        int id = servers.get(1).getId();
+        assertTrue(rendered.contains(" server 192_168_0_2 192.168.0.2:1111 id " + id + " check"));
+
+        // Ids do not depend on the other servers of the backend.
+        List<HABackendServer> others = new ArrayList<HABackendServer>();
+        others.add(new HABackendServer("192.168.0.3", 1111, true, "http", options));
+        others.add(new HABackendServer("192.168.0.2", 1111, true, "http", options));
+        new HABackend(1111, "/goo", others, "http", options);
+        assertEquals(others.get(1).getId(), Integer.valueOf(id));
+        assertFalse(others.get(0).getId().equals(id));
+    }
+
+    @Test
+    public void testHashTypeOption() {
+        List<HABackendServer> servers = new ArrayList<HABackendServer>();
+        servers.add(new HABackendServer("192.168.0.1", 1111, true, "http"));
+
+        String rendered = new HABackend(1111, "/goo", servers, "http",
+                MappingOptions.parse("balance=url_param(id) hash-type=map-based")).render();
+        assertTrue(rendered.contains(" balance url_param id \n hash-type map-based \n"));
+        assertNull(servers.get(0).getId());
+
+        rendered = new HABackend(1111, "/goo", servers, "http").render();
+        assertFalse(rendered.contains("hash-type"));
+        assertFalse(rendered.contains(" id "));
+    }
+
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class HAFrontEndTest {
+
+    @Test
+    public void testHttpRateLimit() {
+        MappingOptions options = MappingOptions.parse("maxconn=20000 rate-limit=100");
+        String rendered = new HAFrontEnd(8080, makeBackend("http", options)).render();
+
+        assertEquals(rendered, "frontend frontend_8080 *:8080 \n"
+                + "mode http \n"
+                + "maxconn 20000 \n"
+                + "stick-table type ip size 100k expire 10s store http_req_rate(10s) \n"
+                + "http-request track-sc0 src \n"
+                + "http-request deny deny_status 429 if { sc_http_req_rate(0) gt 100 } \n"
+                + "default_backend backend_8080 \n");
+    }
+
+    @Test
+    public void testTcpRateLimit() {
+        MappingOptions options = MappingOptions.parse("rate-limit=20 rate-period=1m");
+        String rendered = new HAFrontEnd(10004, makeBackend("xre", options)).render();
+
+        assertTrue(rendered.contains("stick-table type ip size 100k expire 1m store conn_rate(1m) \n"));
+        assertTrue(rendered.contains("tcp-request connection track-sc0 src \n"));
+        assertTrue(rendered.contains("tcp-request connection reject if { sc_conn_rate(0) gt 20 } \n"));
+        assertFalse(rendered.contains("http-request"));
+        assertFalse(rendered.contains("maxconn"));
+    }
+
+    @Test
+    public void testQueue() {
+        MappingOptions options = MappingOptions.parse("server-maxconn=200 timeout-queue=2s");
+        String rendered = makeBackend("http", options).render();
+
+        assertTrue(rendered.contains(" timeout queue 2s"));
+        assertTrue(rendered.contains(" server 10_0_0_1 10.0.0.1:8080 maxconn 200 check inter 5000"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidRateLimit() {
+        MappingOptions.parse("rate-limit=lots");
+    }
+
+    private HABackend makeBackend(String protocol, MappingOptions options) {
+        List<HABackendServer> servers = new ArrayList<HABackendServer>();
+        servers.add(new HABackendServer("10.0.0.1", 8080, true, protocol, options));
+
+        return new HABackend(8080, "/healthCheck", servers, protocol, options);
+    }
+}
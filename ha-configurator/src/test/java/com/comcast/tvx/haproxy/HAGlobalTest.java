@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.comcast.tvx.cloud.DiscoveryClient;
+import com.comcast.tvx.cloud.MetaData;
+
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+
+public class HAGlobalTest {
+
+    @Test
+    public void testRender() {
+        HAGlobal global = new HAGlobal(4, 2);
+        global.setMaxConn(100000);
+        global.setStatsSocket("/var/run/haproxy/discovery.sock");
+
+        assertEquals(global.render(), "global \nnbthread 4 \ncpu-map auto:1/1-4 2-5 \nmaxconn 100000 \n"
+                + "stats socket /var/run/haproxy/discovery.sock mode 600 level admin \n");
+        assertEquals(new HAGlobal(2, null).render(), "global \nnbthread 2 \n");
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testTooManyThreads() {
+        new HAGlobal(HAGlobal.MAX_THREADS + 1, null).render();
+    }
+
+    @Test
+    public void testBindShards() {
+        List<HABackendServer> servers = new ArrayList<HABackendServer>();
+        servers.add(new HABackendServer("10.0.0.1", 8080, true, "http"));
+        HAFrontEnd frontEnd = new HAFrontEnd(8080, new HABackend(8080, "/healthCheck", servers, "http"));
+
+        assertTrue(frontEnd.render().startsWith("frontend frontend_8080 *:8080 \n"));
+
+        frontEnd.setBindShards(2);
+        assertTrue(frontEnd.render().startsWith("frontend frontend_8080 \nbind *:8080 process 1/1 \n"
+                + "bind *:8080 process 1/2 \n"));
+    }
+
+    @Test
+    public void testConstructRules() {
+        Map<String, MetaData> services = new HashMap<String, MetaData>();
+        services.put("/services/1/2/http/127.0.0.1:81", new MetaData(UUID.randomUUID(), "127.0.0.1", 81, "http"));
+        Map<Integer, String> mappings = new HashMap<Integer, String>();
+        mappings.put(Integer.valueOf(81), "/services/1/2/http/.*:/healthcheck");
+
+        ZkEventHandler zkEventHandler = new ZkEventHandler(mock(DiscoveryClient.class), mock(MappingsProvider.class),
+                "target/haproxy.cfg", mock(HAProxyService.class));
+        HAGlobal global = new HAGlobal(3, null);
+        global.setShardBinds(false);
+        zkEventHandler.setGlobal(global);
+
+        String rendered = zkEventHandler.constructRules(services, mappings).render();
+        assertTrue(rendered.startsWith("global \nnbthread 3 \n"));
+        assertTrue(rendered.contains("frontend frontend_81 *:81"));
+        assertFalse(rendered.contains("process 1/"));
+
+        global.setShardBinds(true);
+        rendered = zkEventHandler.constructRules(services, mappings).render();
+        assertTrue(rendered.contains("bind *:81 process 1/3"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class LocalityPolicyTest {
+
+    @Test
+    public void testTierOf() {
+        LocalityPolicy policy = new LocalityPolicy("west1", "zone1", 1);
+
+        assertEquals(policy.tierOf("/services/west1/zone1/vanilla/http/10.0.0.1:80"), LocalityPolicy.ZONE);
+        assertEquals(policy.tierOf("/services/west1/zone2/vanilla/http/10.0.0.2:80"), LocalityPolicy.REGION);
+        assertEquals(policy.tierOf("/services/east1/zone1/vanilla/http/10.0.0.3:80"), LocalityPolicy.REMOTE);
+        assertEquals(policy.tierOf("/http/10.0.0.4:80"), LocalityPolicy.REMOTE);
+
+        // Without a zone the whole region is local.
+        policy = new LocalityPolicy("west1", null, 1);
+        assertEquals(policy.tierOf("/services/west1/zone2/vanilla/http/10.0.0.2:80"), LocalityPolicy.ZONE);
+    }
+
+    @Test
+    public void testLocalServersArePrimary() {
+        List<HABackendServer> servers = makeServers(3);
+        new LocalityPolicy("west1", "zone1", 1).apply(servers,
+                Arrays.asList(LocalityPolicy.ZONE, LocalityPolicy.REGION, LocalityPolicy.REMOTE));
+
+        assertFalse(servers.get(0).isBackup());
+        assertTrue(servers.get(1).isBackup());
+        assertTrue(servers.get(2).isBackup());
+        assertTrue(servers.get(1).render().endsWith(" backup"));
+    }
+
+    @Test
+    public void testRegionPromotedBelowThreshold() {
+        List<HABackendServer> servers = makeServers(4);
+        new LocalityPolicy("west1", "zone1", 2).apply(servers,
+                Arrays.asList(LocalityPolicy.ZONE, LocalityPolicy.REGION, LocalityPolicy.REGION, LocalityPolicy.REMOTE));
+
+        assertFalse(servers.get(0).isBackup());
+        assertFalse(servers.get(1).isBackup());
+        assertFalse(servers.get(2).isBackup());
+        assertTrue(servers.get(3).isBackup());
+    }
+
+    @Test
+    public void testAllPromotedWithoutLocalCapacity() {
+        List<HABackendServer> servers = makeServers(2);
+        new LocalityPolicy("west1", "zone1", 1).apply(servers,
+                Arrays.asList(LocalityPolicy.REMOTE, LocalityPolicy.REMOTE));
+
+        assertFalse(servers.get(0).isBackup());
+        assertFalse(servers.get(1).isBackup());
+    }
+
+    @Test
+    public void testBackendRendersAllBackups() {
+        List<HABackendServer> servers = makeServers(2);
+        servers.get(1).setBackup(true);
+        HABackend backend = new HABackend(8080, "/healthCheck", servers, "http");
+
+        assertTrue(backend.render().contains("option allbackups"));
+    }
+
+    private List<HABackendServer> makeServers(int count) {
+        List<HABackendServer> servers = new ArrayList<HABackendServer>();
+
+        for (int i = 0; i < count; i++) {
+            servers.add(new HABackendServer("10.0.0." + i, 8080, true, "http"));
+        }
+
+        return servers;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class PortMappingTest {
+
+    @Test
+    public void testParseLegacyFormat() {
+        PortMapping mapping = PortMapping.parse("/services/.*/http/.*:/healthcheck:http");
+        assertEquals(mapping.getPath(), "/services/.*/http/.*");
+        assertEquals(mapping.getHealthCheck(), "/healthcheck");
+        assertEquals(mapping.getProtocol(), "http");
+        assertTrue(mapping.getOptions().isEmpty());
+
+        mapping = PortMapping.parse("/services/.*/xre/.*");
+        assertNull(mapping.getHealthCheck());
+        assertNull(mapping.getProtocol());
+    }
+
+    @Test
+    public void testParseOptions() {
+        PortMapping mapping = PortMapping.parse("/services/.*/xre/.*::xre balance=leastconn  inter=2000 fall=2");
+        assertEquals(mapping.getHealthCheck(), "");
+        assertEquals(mapping.getProtocol(), "xre");
+        assertEquals(mapping.getOptions().get(MappingOptions.BALANCE), "leastconn");
+        assertEquals(mapping.getOptions().get(MappingOptions.CHECK_INTER), "2000");
+        assertEquals(mapping.getOptions().get(MappingOptions.CHECK_FALL), "2");
+        assertFalse(mapping.getOptions().has(MappingOptions.CHECK_RISE));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownOption() {
+        PortMapping.parse("/services/.*/http/.* balanse=leastconn");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidOptionValue() {
+        PortMapping.parse("/services/.*/http/.* timeout-server=forever");
+    }
+
+    @Test
+    public void testRenderOptions() {
+        MappingOptions options = MappingOptions.parse(
+                "balance=leastconn http-reuse=safe keep-alive=true inter=2s rise=3 fall=2 timeout-connect=5s "
+                        + "timeout-server=30s timeout-client=1m");
+        List<HABackendServer> servers = new ArrayList<HABackendServer>();
+        servers.add(new HABackendServer("10.0.0.1", 8080, true, "http", options));
+        HABackend backend = new HABackend(8080, "/healthCheck", servers, "http", options);
+
+        String rendered = backend.render();
+        assertTrue(rendered.contains(" balance leastconn"));
+        assertTrue(rendered.contains(" option http-keep-alive"));
+        assertTrue(rendered.contains(" http-reuse safe"));
+        assertTrue(rendered.contains(" timeout connect 5s"));
+        assertTrue(rendered.contains(" timeout server 30s"));
+        assertTrue(rendered.contains(" server 10_0_0_1 10.0.0.1:8080 check inter 2s rise 3 fall 2"));
+
+        rendered = new HAFrontEnd(8080, backend).render();
+        assertTrue(rendered.contains("option http-keep-alive"));
+        assertTrue(rendered.contains("timeout client 1m"));
+    }
+
+    @Test
+    public void testDefaultsUnchanged() {
+        List<HABackendServer> servers = new ArrayList<HABackendServer>();
+        servers.add(new HABackendServer("10.0.0.1", 8080, true, "http"));
+        String rendered = new HABackend(8080, "/healthCheck", servers, "http").render();
+
+        assertTrue(rendered.contains(" balance roundrobin"));
+        assertTrue(rendered.contains(" check inter 5000"));
+        assertFalse(rendered.contains("timeout"));
+    }
+
+    @Test
+    public void testSlowstart() {
+        MappingOptions options = MappingOptions.parse("slowstart=2m");
+        assertEquals(options.getMillis(MappingOptions.SLOWSTART), 120000L);
+        assertEquals(MappingOptions.parse("slowstart=1500").getMillis(MappingOptions.SLOWSTART), 1500L);
+        assertEquals(new MappingOptions().getMillis(MappingOptions.SLOWSTART), 0L);
+
+        HABackendServer server = new HABackendServer("10.0.0.1", 8080, true, "http", options);
+        server.setWeight(50);
+        assertEquals(server.render().trim(), "server 10_0_0_1 10.0.0.1:8080 weight 50 check inter 5000 slowstart 2m");
+    }
+}
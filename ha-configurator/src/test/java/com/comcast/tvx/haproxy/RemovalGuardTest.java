@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import javax.management.ObjectName;
+
+import com.comcast.tvx.cloud.MetaData;
+
+import org.testng.annotations.Test;
+
+public class RemovalGuardTest {
+
+    private long now = 0;
+
+    @Test
+    public void testHoldTime() {
+        RemovalGuard guard = makeGuard(60000, 100, 0);
+        guard.filter(makeInstances("http", 4));
+
+        now = 30000;
+        assertEquals(guard.filter(makeInstances("http", 3)).size(), 4);
+
+        // Instance came back before the hold time passed.
+        now = 40000;
+        assertEquals(guard.filter(makeInstances("http", 4)).size(), 4);
+
+        now = 50000;
+        assertEquals(guard.filter(makeInstances("http", 3)).size(), 4);
+        now = 110000;
+        assertEquals(guard.filter(makeInstances("http", 3)).size(), 3);
+        assertEquals(guard.getGuardTriggeredCount(), 0);
+    }
+
+    @Test
+    public void testServiceShrinkGuard() {
+        RemovalGuard guard = makeGuard(0, 50, 60000);
+        Map<String, MetaData> instances = makeInstances("http", 4);
+        instances.putAll(makeInstances("xre", 4));
+        guard.filter(instances);
+
+        // Losing half of a service is accepted.
+        instances = makeInstances("http", 2);
+        instances.putAll(makeInstances("xre", 4));
+        assertEquals(guard.filter(instances).size(), 6);
+
+        // Losing every xre instance is refused until it persists.
+        instances = makeInstances("http", 2);
+        instances.putAll(makeInstances("https", 10));
+        now = 1000;
+        assertEquals(guard.filter(instances).size(), 16);
+        assertEquals(guard.getGuardTriggeredCount(), 1);
+        now = 30000;
+        assertEquals(guard.filter(instances).size(), 16);
+        now = 61000;
+        assertEquals(guard.filter(instances).size(), 12);
+        assertEquals(guard.getGuardTriggeredCount(), 1);
+    }
+
+    @Test
+    public void testTotalShrinkGuard() {
+        RemovalGuard guard = makeGuard(0, 50, 60000);
+        Map<String, MetaData> instances = makeInstances("http", 4);
+        instances.putAll(makeInstances("https", 4));
+        guard.filter(instances);
+
+        // Mass expiry of sessions, new instances are still added.
+        instances = makeInstances("xre", 1);
+        assertEquals(guard.filter(instances).size(), 9);
+        // Fired for the configuration and each of both services.
+        assertEquals(guard.getGuardTriggeredCount(), 3);
+
+        // Recovery resets the guard.
+        now = 10000;
+        instances.putAll(makeInstances("http", 4));
+        instances.putAll(makeInstances("https", 4));
+        assertEquals(guard.filter(instances).size(), 9);
+
+        now = 20000;
+        assertEquals(guard.filter(makeInstances("xre", 1)).size(), 9);
+        assertEquals(guard.getGuardTriggeredCount(), 6);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidPercent() {
+        new RemovalGuard(0, 101, 0);
+    }
+
+    @Test
+    public void testExportedOverJmx() throws Exception {
+        RemovalGuard guard = makeGuard(0, 50, 60000);
+        guard.filter(makeInstances("http", 4));
+        guard.filter(makeInstances("http", 1));
+
+        guard.register();
+        try {
+            assertEquals(ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(RemovalGuard.OBJECT_NAME), "GuardTriggeredCount"),
+                guard.getGuardTriggeredCount());
+            assertTrue(guard.getGuardTriggeredCount() > 0);
+        } finally {
+            guard.unregister();
+        }
+    }
+
+    private RemovalGuard makeGuard(long holdTime, int maxShrinkPercent, long guardTime) {
+        return new RemovalGuard(holdTime, maxShrinkPercent, guardTime) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    private Map<String, MetaData> makeInstances(String serviceName, int count) {
+        Map<String, MetaData> instances = new TreeMap<String, MetaData>();
+
+        for (int i = 0; i < count; i++) {
+            instances.put("/services/west1/zone1/vanilla/" + serviceName + "/10.0.0." + i + ":80",
+                    new MetaData(UUID.randomUUID(), "10.0.0." + i, 80, serviceName));
+        }
+
+        return instances;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class ShardAssignmentTest {
+
+    @Test
+    public void testStaticShardsPartitionMappings() {
+        Map<Integer, String> mappings = makeMappings(200);
+        Map<Integer, String> assigned = new HashMap<Integer, String>();
+
+        for (int i = 0; i < 4; i++) {
+            Map<Integer, String> shard = new ShardAssignment(new StaticShardMembership(i, 4)).filter(mappings);
+
+            // Roughly a quarter each.
+            assertTrue(shard.size() > 25, "shard " + i + " has " + shard.size() + " mappings");
+            for (Integer port : shard.keySet()) {
+                assertEquals(assigned.put(port, shard.get(port)), null, "port " + port + " assigned twice");
+            }
+        }
+
+        assertEquals(assigned, mappings);
+    }
+
+    @Test
+    public void testMinimalRebalance() {
+        List<String> members = new ArrayList<String>(Arrays.asList("lb1", "lb2", "lb3"));
+        List<String> fewer = Arrays.asList("lb1", "lb3");
+
+        for (int port = 10000; port < 10200; port++) {
+            String owner = ShardAssignment.ownerOf(port, members);
+
+            // Only mappings of the leaving member move.
+            if (!owner.equals("lb2")) {
+                assertEquals(ShardAssignment.ownerOf(port, fewer), owner);
+            }
+        }
+    }
+
+    @Test
+    public void testKeepsLastMembersOnError() {
+        final List<String> members = new ArrayList<String>(Arrays.asList("lb1", "lb2"));
+        ShardAssignment assignment = new ShardAssignment(new ShardMembership() {
+            @Override
+            public String getSelf() {
+                return "lb1";
+            }
+
+            @Override
+            public List<String> getMembers() throws Exception {
+                if (members.isEmpty()) {
+                    throw new Exception("connection loss");
+                }
+                return new ArrayList<String>(members);
+            }
+        });
+
+        Map<Integer, String> mappings = makeMappings(50);
+        Map<Integer, String> owned = assignment.filter(mappings);
+        members.clear();
+        assertEquals(assignment.filter(mappings), owned);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testUnknownMembers() {
+        new ShardAssignment(new ShardMembership() {
+            @Override
+            public String getSelf() {
+                return "lb1";
+            }
+
+            @Override
+            public List<String> getMembers() throws Exception {
+                throw new Exception("connection loss");
+            }
+        }).filter(makeMappings(1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidStaticIndex() {
+        new StaticShardMembership(2, 2);
+    }
+
+    private Map<Integer, String> makeMappings(int count) {
+        Map<Integer, String> mappings = new HashMap<Integer, String>();
+
+        for (int port = 10000; port < 10000 + count; port++) {
+            mappings.put(port, "/services/.*/service" + port + "/.*");
+        }
+
+        return mappings;
+    }
+}
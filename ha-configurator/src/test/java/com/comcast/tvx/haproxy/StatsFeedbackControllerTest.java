@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Comcast Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.comcast.tvx.haproxy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class StatsFeedbackControllerTest {
+
+    private static final String HEADER = "# pxname,svname,qcur,qmax,scur,smax,slim,stot,bin,bout,dreq,dresp,ereq,econ,"
+            + "eresp,wretr,wredis,status,weight,act,bck,hrsp_5xx,qtime,ctime,rtime,ttime,\n";
+
+    /** Canned stats socket, answers "show stat" with the current csv and records other commands. */
+    private class CannedRuntime implements HAProxyRuntime {
+        String csv;
+        List<String> commands = new ArrayList<String>();
+
+        @Override
+        public String execute(String command) throws IOException {
+            if (command.equals("show stat")) {
+                return csv;
+            }
+            commands.add(command);
+            return "\n";
+        }
+    }
+
+    private CannedRuntime runtime;
+    private StatsFeedbackController controller;
+
+    @BeforeMethod
+    public void setUp() {
+        runtime = new CannedRuntime();
+        controller = new StatsFeedbackController(runtime);
+        controller.setAlpha(1.0);
+    }
+
+    @Test
+    public void testParse() {
+        List<ServerStats> stats = ServerStats.parse(HEADER
+                + "frontend_8080,FRONTEND,,,0,5,2000,120,0,0,0,0,0,,,,,OPEN,,,,0,,,,,\n"
+                + "backend_8080,10_0_0_1,0,3,0,2,,100,0,0,,0,,2,3,0,0,UP,100,1,0,5,12,1,40,45,\n"
+                + "backend_8080,BACKEND,0,3,0,2,200,100,0,0,0,0,,2,3,0,0,UP,100,1,0,5,12,1,40,45,\n");
+
+        assertEquals(stats.size(), 1);
+        ServerStats server = stats.get(0);
+        assertEquals(server.getName(), "backend_8080/10_0_0_1");
+        assertEquals(server.getStatus(), "UP");
+        assertEquals(server.getSessions(), 100);
+        assertEquals(server.getErrors(), 10);
+        assertEquals(server.getQueueTime(), 12);
+        assertEquals(server.getResponseTime(), 40);
+    }
+
+    @Test
+    public void testSlowServerWeight() {
+        scrape(row("10_0_0_1", 0, 0, 0, 50), row("10_0_0_2", 0, 0, 0, 50), row("10_0_0_3", 0, 0, 0, 200));
+        assertTrue(runtime.commands.isEmpty());
+
+        scrape(row("10_0_0_1", 100, 0, 0, 50), row("10_0_0_2", 100, 0, 0, 50), row("10_0_0_3", 100, 0, 0, 200));
+        assertEquals(runtime.commands.size(), 1);
+        assertEquals(runtime.commands.get(0), "set weight backend_8080/10_0_0_3 20%");
+
+        // No command while the weight is unchanged.
+        scrape(row("10_0_0_1", 200, 0, 0, 50), row("10_0_0_2", 200, 0, 0, 50), row("10_0_0_3", 200, 0, 0, 200));
+        assertEquals(runtime.commands.size(), 1);
+
+        scrape(row("10_0_0_1", 300, 0, 0, 50), row("10_0_0_2", 300, 0, 0, 50), row("10_0_0_3", 300, 0, 0, 50));
+        assertEquals(runtime.commands.get(1), "set weight backend_8080/10_0_0_3 100%");
+    }
+
+    @Test
+    public void testDrainAndRecover() {
+        scrape(row("10_0_0_1", 0, 0, 0, 50), row("10_0_0_2", 0, 0, 0, 50), row("10_0_0_3", 0, 0, 0, 50),
+                row("10_0_0_4", 0, 0, 0, 50));
+
+        // Two failing servers, but only one of four may be drained.
+        scrape(row("10_0_0_1", 100, 50, 0, 50), row("10_0_0_2", 100, 0, 2000, 50), row("10_0_0_3", 100, 0, 0, 50),
+                row("10_0_0_4", 100, 0, 0, 50));
+        assertTrue(runtime.commands.contains("set server backend_8080/10_0_0_1 state drain"));
+        assertFalse(runtime.commands.contains("set server backend_8080/10_0_0_2 state drain"));
+        assertTrue(controller.getState("backend_8080/10_0_0_1").drained);
+
+        // Idle while drained, so the error rate decays.
+        runtime.commands.clear();
+        scrape(row("10_0_0_1", 100, 50, 0, 50, "DRAIN"), row("10_0_0_2", 200, 0, 0, 50),
+                row("10_0_0_3", 200, 0, 0, 50), row("10_0_0_4", 200, 0, 0, 50));
+        assertEquals(runtime.commands.size(), 1);
+        assertEquals(runtime.commands.get(0), "set server backend_8080/10_0_0_1 state ready");
+    }
+
+    @Test
+    public void testReloadResetsState() {
+        scrape(row("10_0_0_1", 0, 0, 0, 50), row("10_0_0_2", 0, 0, 0, 50));
+        scrape(row("10_0_0_1", 1000, 0, 0, 50), row("10_0_0_2", 1000, 0, 0, 100));
+        assertEquals(controller.getState("backend_8080/10_0_0_2").weightPercent, 70);
+
+        // Counters restarted, runtime weights are gone.
+        scrape(row("10_0_0_1", 10, 0, 0, 50), row("10_0_0_2", 10, 0, 0, 100));
+        assertEquals(controller.getState("backend_8080/10_0_0_2").weightPercent, 100);
+        assertEquals(runtime.commands.size(), 1);
+    }
+
+    @Test
+    public void testIgnoresOtherProxies() {
+        runtime.csv = HEADER + "healthCheck_8080,10_0_0_1,0,0,0,0,,0,0,0,,0,,0,0,0,0,UP,100,1,0,0,0,0,0,0,\n";
+        controller.run();
+        runtime.csv = HEADER + "healthCheck_8080,10_0_0_1,0,0,0,0,,100,0,0,,0,,100,0,0,0,UP,100,1,0,0,0,0,0,0,\n";
+        controller.run();
+
+        assertTrue(runtime.commands.isEmpty());
+    }
+
+    private void scrape(String... rows) {
+        StringBuilder csv = new StringBuilder(HEADER);
+
+        for (String row : rows) {
+            csv.append(row);
+        }
+        runtime.csv = csv.toString();
+        controller.run();
+    }
+
+    private String row(String server, long sessions, long errors, long queueTime, long responseTime) {
+        return row(server, sessions, errors, queueTime, responseTime, "UP");
+    }
+
+    private String row(String server, long sessions, long errors, long queueTime, long responseTime, String status) {
+        return "backend_8080," + server + ",0,0,0,0,," + sessions + ",0,0,,0,,0," + errors + ",0,0," + status
+                + ",100,1,0,0," + queueTime + ",0," + responseTime + ",0,\n";
+    }
+}
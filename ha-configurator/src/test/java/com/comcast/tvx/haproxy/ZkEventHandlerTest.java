@@ -32,6 +32,7 @@ import org.testng.annotations.Test;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
 public class ZkEventHandlerTest {
@@ -89,4 +90,51 @@ public class ZkEventHandlerTest {
         assertTrue(sections.get(8) instanceof HAHealthCheckFrontEnd, "Expected healthcheck section not found.");
     }
 
+    @Test
+    public void testSlowstartRamp() {
+        ZkEventHandler zkEventHandler = new ZkEventHandler(mock(DiscoveryClient.class), mock(MappingsProvider.class),
+                "target/haproxy.cfg", mock(HAProxyService.class)) {
+            @Override
+            protected long currentTimeMillis() {
+                return 1000000L;
+            }
+        };
+        MappingOptions options = MappingOptions.parse("slowstart=100s");
+        MetaData metaData = new MetaData(UUID.randomUUID(), "127.0.0.1", 81, "http");
+
+        // Registered by a client without timestamps.
+        assertNull(zkEventHandler.rampWeight(metaData, options));
+
+        metaData.setRegistrationTime(1000000L);
+        assertEquals(zkEventHandler.rampWeight(metaData, options), Integer.valueOf(25));
+        metaData.setRegistrationTime(1000000L - 60000L);
+        assertEquals(zkEventHandler.rampWeight(metaData, options), Integer.valueOf(75));
+        // The last step renders like the default weight, no reload once the window ends.
+        metaData.setRegistrationTime(1000000L - 80000L);
+        assertNull(zkEventHandler.rampWeight(metaData, options));
+        metaData.setRegistrationTime(1000000L - 100000L);
+        assertNull(zkEventHandler.rampWeight(metaData, options));
+
+        // No slowstart configured.
+        metaData.setRegistrationTime(1000000L);
+        assertNull(zkEventHandler.rampWeight(metaData, new MappingOptions()));
+    }
+
+    @Test
+    public void testDrainingServer() {
+        HashMap<String, MetaData> services = new HashMap<String, MetaData>();
+        services.put("/services/1/2/http/127.0.0.1:81", new MetaData(UUID.randomUUID(), "127.0.0.1", 81, "http"));
+        MetaData draining = new MetaData(UUID.randomUUID(), "127.0.0.2", 81, "http");
+        draining.setDraining(true);
+        services.put("/services/1/2/http/127.0.0.2:81", draining);
+
+        Map<Integer, String> mappings = new HashMap<Integer, String>();
+        mappings.put(Integer.valueOf(81), "/services/1/2/http/.*:/healthcheck");
+        ZkEventHandler zkEventHandler = new ZkEventHandler(mock(DiscoveryClient.class), mock(MappingsProvider.class),
+                "target/haproxy.cfg", mock(HAProxyService.class));
+
+        String rendered = zkEventHandler.constructRules(services, mappings).render();
+        assertTrue(rendered.contains(" server 127_0_0_1 127.0.0.1:81 check"));
+        assertTrue(rendered.contains(" server 127_0_0_2 127.0.0.2:81 weight 0 check"));
+    }
 }
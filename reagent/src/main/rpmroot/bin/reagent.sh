@@ -29,6 +29,11 @@ if [ -z "$availability_zone" ]; then
     availability_zone=`facter availability_zone`
 fi
 
+# Seconds instances are drained before de-registering on shutdown
+if [ -z "$drain_seconds" ]; then
+    drain_seconds=0
+fi
+
 # If JAVA_OPTS are set, then it will completely override defaults.
 if [ -z "$JAVA_OPTS" ]; then
     JAVA_OPTS="-Xms64M -Xmx64M"
@@ -38,7 +43,7 @@ if [ "$1" != "--nodaemon" ]; then
     nohup java $JAVA_OPTS \
         -cp $CONF_DIR:$APP_HOME/lib/* \
         com.comcast.tvx.cloud.RegistrationMain \
-        -z $zookeeper_connection -i $ipaddress -s $service_spec -f $flavor -r $region -a $availability_zone \
+        -z $zookeeper_connection -i $ipaddress -s $service_spec -f $flavor -r $region -a $availability_zone -d `expr $drain_seconds \* 1000` \
         > $LOG_DIR/$NAME.out 2>&1 &
 
     echo $! > $RUN_DIR/$NAME.pid
@@ -47,6 +52,6 @@ else
     java $JAVA_OPTS \
         -cp $CONF_DIR:$APP_HOME/lib/* \
         com.comcast.tvx.cloud.RegistrationMain \
-        -z $zookeeper_connection -i $ipaddress -s $service_spec -f $flavor -r $region -a $availability_zone
+        -z $zookeeper_connection -i $ipaddress -s $service_spec -f $flavor -r $region -a $availability_zone -d `expr $drain_seconds \* 1000`
 
 fi